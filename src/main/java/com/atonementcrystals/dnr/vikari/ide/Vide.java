@@ -1,6 +1,7 @@
 package com.atonementcrystals.dnr.vikari.ide;
 
 import com.atonementcrystals.dnr.vikari.ide.gui.VideEditorWindow;
+import com.atonementcrystals.dnr.vikari.ide.journal.RecoveredJournal;
 import com.atonementcrystals.dnr.vikari.ide.parsing.VideColorTheme;
 import com.atonementcrystals.dnr.vikari.ide.parsing.VideColorThemeProcessor;
 import com.atonementcrystals.dnr.vikari.ide.parsing.VideEditorTheme;
@@ -15,6 +16,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Main class of the Vikari IDE.
@@ -25,6 +29,9 @@ public class Vide {
     private static VikariSyntaxHighlighter vikariSyntaxHighlighter;
     private static VideColorThemeProcessor videColorThemeProcessor;
 
+    /** Color themes are only parsed the first time they are loaded. */
+    private static final Map<String, VideColorTheme> LOADED_COLOR_THEMES = new HashMap<>();
+
     /**
      * Entry point function of program.
      * @param args A list of filenames to initialize Vide with.
@@ -34,10 +41,12 @@ public class Vide {
         loadDefaultVideColorTheme();
         setAppIconInTaskbar();
 
-        // Open a single Vide editor window.
+        // Open a single Vide editor window. Unless unsaved files were recovered instead.
         if (args.length == 0) {
             javax.swing.SwingUtilities.invokeLater(() -> {
-                newVideEditorWindow(null);
+                if (!recoverUnsavedFiles()) {
+                    newVideEditorWindow(null);
+                }
                 reportColorDefinitionErrors();
             });
         }
@@ -45,6 +54,7 @@ public class Vide {
         // Open each specified file in a new Vide editor window.
         else {
             javax.swing.SwingUtilities.invokeLater(() -> {
+                recoverUnsavedFiles();
                 for (String filename : args) {
                     newVideEditorWindow(filename);
                 }
@@ -116,14 +126,74 @@ public class Vide {
         }
     }
 
+    /**
+     * Offer to recover the unsaved edits journaled by editor windows which were still open when Vide last exited, such
+     * as after a crash. Each recovered file is opened in a new editor window. The journals are then deleted, whether
+     * they were recovered or not.
+     * @return True if any editor windows were opened.
+     */
+    private static boolean recoverUnsavedFiles() {
+        List<RecoveredJournal> journals = RecoveredJournal.findAll();
+        if (journals.isEmpty()) {
+            return false;
+        }
+
+        StringBuilder message = new StringBuilder();
+        message.append("Vide did not exit cleanly. Recover unsaved changes to these files?\n");
+        for (RecoveredJournal journal : journals) {
+            File file = journal.getFile();
+            message.append("\n");
+            message.append(file == null ? "<New File>" : file.getAbsolutePath());
+        }
+        int result = JOptionPane.showConfirmDialog(null, message.toString(), "", JOptionPane.YES_NO_OPTION);
+
+        boolean opened = false;
+        if (result == JOptionPane.YES_OPTION) {
+            for (RecoveredJournal journal : journals) {
+                String text;
+                try {
+                    text = journal.replay();
+                } catch (IOException e) {
+                    File file = journal.getFile();
+                    String filename = file == null ? "<New File>" : "\"" + file.getAbsolutePath() + "\"";
+                    JOptionPane.showMessageDialog(null, "Could not recover " + filename + ":\n" + e.getMessage(),
+                            "", JOptionPane.ERROR_MESSAGE);
+                    continue;
+                }
+
+                VideEditorWindow videEditorWindow = new VideEditorWindow();
+                videEditorWindow.start();
+                videEditorWindow.recoverText(journal.getFile(), text);
+
+                // Only delete the old journal once the recovered text is journaled again.
+                videEditorWindow.getEditJournal().awaitWrites();
+                opened = true;
+            }
+        }
+
+        for (RecoveredJournal journal : journals) {
+            journal.delete();
+        }
+        return opened;
+    }
+
     private static void loadDefaultVideColorTheme() {
         loadVideColorTheme("color_theme_light.json");
     }
 
+    /**
+     * Load a color theme, and install its rules in the syntax highlighter. The highlighter and the tokens it has cached
+     * for each open file are kept, so that the open files can be restyled without lexing them again.
+     * @param filePath The resource path of the color theme.
+     */
     public static void loadVideColorTheme(String filePath) {
-        VideColorTheme videColorTheme = loadVideColorThemeFromResources(filePath);
+        VideColorTheme videColorTheme = LOADED_COLOR_THEMES.computeIfAbsent(filePath,
+                Vide::loadVideColorThemeFromResources);
         videEditorTheme = new VideEditorTheme();
-        vikariSyntaxHighlighter = new VikariSyntaxHighlighter();
+
+        if (vikariSyntaxHighlighter == null) {
+            vikariSyntaxHighlighter = new VikariSyntaxHighlighter();
+        }
         videColorThemeProcessor = new VideColorThemeProcessor(videColorTheme, videEditorTheme, vikariSyntaxHighlighter);
         vikariSyntaxHighlighter.loadColorNames(videColorThemeProcessor.getNamedColors());
     }
@@ -0,0 +1,78 @@
+package com.atonementcrystals.dnr.vikari.ide.gui;
+
+import com.atonementcrystals.dnr.vikari.ide.util.LineIndex;
+
+import javax.swing.event.CaretEvent;
+import javax.swing.event.CaretListener;
+
+/**
+ * Tracks the line and column of the caret of a VideEditorPane, and the size of its selection, for the status bar.
+ * Each caret event is resolved against the pane's LineIndex in O(log n) time, so the cost of tracking the caret does
+ * not depend on where it is in the document. The listener is only notified when one of the tracked values changes.
+ */
+public class CaretPositionTracker implements CaretListener {
+    private final VideEditorPane textEditorPane;
+    private final Runnable onChange;
+    private int line = 1;
+    private int column = 1;
+    private int selectionLength = 0;
+    private int selectedLineCount = 0;
+
+    /**
+     * Instantiate a new CaretPositionTracker.
+     * @param textEditorPane The pane whose caret is tracked.
+     * @param onChange Called whenever the line, column, or selection changes.
+     */
+    public CaretPositionTracker(VideEditorPane textEditorPane, Runnable onChange) {
+        this.textEditorPane = textEditorPane;
+        this.onChange = onChange;
+    }
+
+    @Override
+    public void caretUpdate(CaretEvent event) {
+        update(event.getDot(), event.getMark());
+    }
+
+    /**
+     * Update the tracked values for a caret position and selection.
+     * @param dot The offset of the caret.
+     * @param mark The offset of the other end of the selection. Equal to the dot if nothing is selected.
+     */
+    public void update(int dot, int mark) {
+        LineIndex lineIndex = textEditorPane.getLineIndex();
+        int row = lineIndex.getRowOfOffset(dot);
+        int newLine = row + 1;
+        int newColumn = dot - lineIndex.getRowStartOffset(row) + 1;
+
+        int newSelectionLength = Math.abs(dot - mark);
+        int newSelectedLineCount = 0;
+        if (newSelectionLength > 0) {
+            newSelectedLineCount = Math.abs(row - lineIndex.getRowOfOffset(mark)) + 1;
+        }
+
+        if (newLine != line || newColumn != column || newSelectionLength != selectionLength ||
+                newSelectedLineCount != selectedLineCount) {
+            line = newLine;
+            column = newColumn;
+            selectionLength = newSelectionLength;
+            selectedLineCount = newSelectedLineCount;
+            onChange.run();
+        }
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    public int getSelectionLength() {
+        return selectionLength;
+    }
+
+    public int getSelectedLineCount() {
+        return selectedLineCount;
+    }
+}
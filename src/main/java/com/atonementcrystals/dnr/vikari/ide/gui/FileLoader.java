@@ -0,0 +1,270 @@
+package com.atonementcrystals.dnr.vikari.ide.gui;
+
+import com.atonementcrystals.dnr.vikari.ide.gui.document.TabsToSpacesDocumentFilter;
+import com.atonementcrystals.dnr.vikari.ide.gui.document.VideDocument;
+import com.atonementcrystals.dnr.vikari.ide.util.LineIndex;
+
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultEditorKit;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Opens a file on a background thread, so that opening a large file never blocks the Event Dispatch Thread.<br/>
+ * <br/>
+ * The file is read and decoded in chunks, and appended to a new VideDocument which is not yet shown by any editor
+ * pane. Along with a LineIndex of its rows. Once enough rows are read to fill the first screen, their text is handed to
+ * the listener so that it can be shown and highlighted right away. Once the whole file is read, the finished document
+ * and LineIndex are handed to the listener to replace the shown document with. Line separators are normalized to "\n"
+ * in the document, and the first line separator of the file is stored as its
+ * {@link DefaultEditorKit#EndOfLineStringProperty}, so that the file is saved with it again.<br/>
+ * <br/>
+ * All callbacks to the listener are made on the Event Dispatch Thread. No callbacks are made after the loader is
+ * cancelled. The hash of the bytes read is kept for the {@link FileSaver}, so that saving the file unchanged is
+ * skipped.
+ */
+public class FileLoader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final int firstScreenRowCount;
+    private final Listener listener;
+    private final AtomicBoolean progressScheduled;
+    private volatile boolean cancelled;
+    private volatile long bytesRead;
+    private volatile long fileSize;
+    private boolean pendingCarriageReturn;
+    private String lineSeparator;
+    private byte[] contentHash;
+    private FileTime lastModifiedTime;
+
+    /**
+     * Receives the results of a FileLoader on the Event Dispatch Thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called once the rows of the first screen are read. Not called for a file which is read in a single chunk.
+         * @param text The text of the first rows of the file, ending with a complete row.
+         */
+        void firstScreenLoaded(String text);
+
+        /**
+         * Called as the file is read. Calls are coalesced, so not every chunk read is reported.
+         * @param bytesRead The number of bytes read so far.
+         * @param fileSize The size of the file in bytes.
+         */
+        void progress(long bytesRead, long fileSize);
+
+        /**
+         * Called once the whole file is read.
+         * @param document The document holding the text of the whole file.
+         * @param lineIndex The LineIndex of the rows of the document.
+         */
+        void loaded(VideDocument document, LineIndex lineIndex);
+
+        /**
+         * Called if the file could not be read.
+         * @param e The cause of the failure.
+         */
+        void failed(IOException e);
+    }
+
+    /**
+     * Instantiate a new FileLoader.
+     * @param file The file to load.
+     * @param firstScreenRowCount The number of rows to read before the first screen is handed to the listener.
+     * @param listener The listener to notify on the Event Dispatch Thread.
+     */
+    public FileLoader(File file, int firstScreenRowCount, Listener listener) {
+        this.file = file;
+        this.firstScreenRowCount = firstScreenRowCount;
+        this.listener = listener;
+        this.progressScheduled = new AtomicBoolean();
+    }
+
+    /**
+     * Start loading the file on a new background thread.
+     */
+    public void start() {
+        Thread thread = new Thread(this::load, "Vide-File-Loader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop loading the file. Must be called on the Event Dispatch Thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The hash of the bytes of the file, from a digest of {@link FileSaver#createContentDigest()}. Only valid
+     *         once the file is loaded.
+     */
+    public byte[] getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @return The last modified time of the file when it was opened. Only valid once the file is loaded.
+     */
+    public FileTime getLastModifiedTime() {
+        return lastModifiedTime;
+    }
+
+    /**
+     * @return The size of the file in bytes when it was opened. Only valid once the file is loaded.
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    private void load() {
+        VideDocument document = new VideDocument();
+        document.setDocumentFilter(new TabsToSpacesDocumentFilter());
+        LineIndex lineIndex = new LineIndex();
+        MessageDigest digest = FileSaver.createContentDigest();
+
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        boolean firstScreenSent = false;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            fileSize = channel.size();
+            lastModifiedTime = Files.getLastModifiedTime(file.toPath());
+            boolean endOfInput = false;
+            while (!endOfInput) {
+                if (cancelled) {
+                    return;
+                }
+                int count = channel.read(bytes);
+                endOfInput = count == -1;
+                if (count > 0) {
+                    bytesRead += count;
+                    digest.update(bytes.array(), bytes.position() - count, count);
+                }
+
+                // Any bytes of a character split across two reads are kept for the next read.
+                bytes.flip();
+                CoderResult result = decoder.decode(bytes, chars, endOfInput);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                bytes.compact();
+                if (endOfInput) {
+                    decoder.flush(chars);
+                }
+
+                chars.flip();
+                append(document, lineIndex, chars);
+                chars.clear();
+
+                // A file ending with its first "\r" has no "\n" left to follow it.
+                if (endOfInput && lineSeparator == null && pendingCarriageReturn) {
+                    lineSeparator = "\r";
+                }
+
+                if (!firstScreenSent && !endOfInput && lineIndex.getRowCount() > firstScreenRowCount) {
+                    String text = document.getText(0, lineIndex.getRowStartOffset(firstScreenRowCount));
+                    runOnEventDispatchThread(() -> listener.firstScreenLoaded(text));
+                    firstScreenSent = true;
+                }
+                reportProgress();
+            }
+        } catch (IOException e) {
+            runOnEventDispatchThread(() -> listener.failed(e));
+            return;
+        } catch (BadLocationException e) {
+            throw new RuntimeException(e);
+        }
+        contentHash = digest.digest();
+
+        // As when the text is read by the editor kit, a file without line separators is saved with "\n".
+        document.putProperty(DefaultEditorKit.EndOfLineStringProperty, lineSeparator != null ? lineSeparator : "\n");
+        runOnEventDispatchThread(() -> listener.loaded(document, lineIndex));
+    }
+
+    /**
+     * Append the decoded chars to the end of the document and the LineIndex. Line separators are normalized to "\n",
+     * as when the text is read by the editor kit. The first line separator is recorded. A "\r" ending one chunk is
+     * only known to be part of a "\r\n" once the next chunk is decoded.
+     */
+    private void append(VideDocument document, LineIndex lineIndex, CharBuffer chars) throws BadLocationException {
+        StringBuilder sb = new StringBuilder(chars.remaining());
+        while (chars.hasRemaining()) {
+            char c = chars.get();
+            if (lineSeparator == null && pendingCarriageReturn) {
+                lineSeparator = c == '\n' ? "\r\n" : "\r";
+            } else if (lineSeparator == null && c == '\n') {
+                lineSeparator = "\n";
+            }
+
+            if (c == '\r') {
+                sb.append('\n');
+                pendingCarriageReturn = true;
+            } else {
+                if (c != '\n' || !pendingCarriageReturn) {
+                    sb.append(c);
+                }
+                pendingCarriageReturn = false;
+            }
+        }
+        if (sb.isEmpty()) {
+            return;
+        }
+
+        String text = sb.toString();
+        int offset = document.getLength();
+        document.insertString(offset, text, null);
+
+        // The document filter may have replaced tabs in the inserted text.
+        int insertedLength = document.getLength() - offset;
+        if (insertedLength != text.length()) {
+            text = document.getText(offset, insertedLength);
+        }
+        lineIndex.insert(offset, text);
+    }
+
+    /**
+     * Report the progress to the listener, unless a report is already waiting to run.
+     */
+    private void reportProgress() {
+        if (progressScheduled.compareAndSet(false, true)) {
+            runOnEventDispatchThread(() -> {
+                progressScheduled.set(false);
+                listener.progress(bytesRead, fileSize);
+            });
+        }
+    }
+
+    private void runOnEventDispatchThread(Runnable callback) {
+        SwingUtilities.invokeLater(() -> {
+            if (!cancelled) {
+                callback.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,250 @@
+package com.atonementcrystals.dnr.vikari.ide.gui;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Saves the text of one VideEditorWindow on a background thread, so that saving a large file never blocks the Event
+ * Dispatch Thread.<br/>
+ * <br/>
+ * The text is written to a temporary file next to the target file, which is forced to disk and then renamed over the
+ * target file. So the target file is never left half written. The write is skipped entirely if the text hashes the
+ * same as the last text saved to or loaded from the same file, and the file was not changed on disk since.<br/>
+ * <br/>
+ * Saves of the same FileSaver are run in the order they were started. Saves of different FileSavers are run in
+ * parallel, such as when many windows are saved at once on quit.
+ */
+public class FileSaver {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final String NEW_FILE_PERMISSIONS = "rw-r--r--";
+
+    private static final ExecutorService SAVE_POOL = createSavePool();
+
+    private CompletableFuture<Boolean> lastSave;
+    private volatile SavedState savedState;
+
+    /**
+     * The file most recently saved or loaded, and the hash of its contents at that time.
+     */
+    private static class SavedState {
+        private final Path path;
+        private final byte[] hash;
+        private final FileTime lastModifiedTime;
+        private final long size;
+
+        private SavedState(Path path, byte[] hash, FileTime lastModifiedTime, long size) {
+            this.path = path;
+            this.hash = hash;
+            this.lastModifiedTime = lastModifiedTime;
+            this.size = size;
+        }
+    }
+
+    public FileSaver() {
+        lastSave = CompletableFuture.completedFuture(true);
+    }
+
+    private static ExecutorService createSavePool() {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "Vide-File-Saver-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return A new MessageDigest for hashing the contents of files.
+     */
+    public static MessageDigest createContentDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Record the contents of a file which was just loaded. So that saving the same contents back to it is skipped.
+     * @param file The loaded file.
+     * @param hash The hash of the loaded bytes, from a digest of {@link #createContentDigest()}.
+     * @param lastModifiedTime The last modified time of the file when it was loaded.
+     * @param size The size of the file in bytes when it was loaded.
+     */
+    public void setLoadedFile(File file, byte[] hash, FileTime lastModifiedTime, long size) {
+        savedState = new SavedState(file.toPath().toAbsolutePath(), hash, lastModifiedTime, size);
+    }
+
+    /**
+     * @param file The file.
+     * @return The hash of the contents last saved to or loaded from the file, or null if it is not the file most
+     *         recently saved or loaded.
+     */
+    public byte[] getSavedHash(File file) {
+        SavedState state = savedState;
+        if (state == null || !state.path.equals(file.toPath().toAbsolutePath())) {
+            return null;
+        }
+        return state.hash;
+    }
+
+    /**
+     * Save the text to the file on a background thread. Must be called on the Event Dispatch Thread.
+     * @param file The file to save to.
+     * @param text An immutable snapshot of the text to save. It is encoded as UTF-8.
+     * @param lineSeparator The line separator to write in place of each "\n" of the text.
+     * @return Completes with true once the file is saved, or with false if the write was skipped because the file
+     *         already has the same contents. Completes exceptionally with an {@link UncheckedIOException} if the file
+     *         could not be saved.
+     */
+    public CompletableFuture<Boolean> save(File file, CharSequence text, String lineSeparator) {
+        Path path = file.toPath().toAbsolutePath();
+        CompletableFuture<Boolean> save = lastSave.handle((result, e) -> null)
+                .thenApplyAsync(ignored -> write(path, text, lineSeparator), SAVE_POOL);
+        lastSave = save;
+        return save;
+    }
+
+    private boolean write(Path path, CharSequence text, String lineSeparator) {
+        try {
+            MessageDigest digest = createContentDigest();
+            List<ByteBuffer> chunks = encode(text, lineSeparator, digest);
+            byte[] hash = digest.digest();
+            if (isUnchanged(path, hash)) {
+                return false;
+            }
+
+            writeAtomically(path, chunks);
+            savedState = new SavedState(path, hash, Files.getLastModifiedTime(path), Files.size(path));
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Encode the text as UTF-8 in chunks, with the given line separator, and hash the encoded bytes. Each line
+     * separator of the text is a single "\n". So a chunk boundary never splits one, and each separator is written
+     * whole within the chunk holding its "\n", even when it is written as "\r\n".
+     */
+    private static List<ByteBuffer> encode(CharSequence text, String lineSeparator, MessageDigest digest) {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        List<ByteBuffer> chunks = new ArrayList<>();
+
+        int length = text.length();
+        int start = 0;
+        while (start < length) {
+            int end = Math.min(start + CHUNK_SIZE, length);
+            // Never split a surrogate pair across two chunks.
+            if (end < length && Character.isHighSurrogate(text.charAt(end - 1))) {
+                end--;
+            }
+            String chunk = text.subSequence(start, end).toString();
+            if (!lineSeparator.equals("\n")) {
+                chunk = chunk.replace("\n", lineSeparator);
+            }
+            CharBuffer chars = CharBuffer.wrap(chunk);
+            ByteBuffer bytes = ByteBuffer.allocate((int) Math.ceil(chunk.length() * encoder.maxBytesPerChar()));
+            encoder.encode(chars, bytes, end == length);
+            if (end == length) {
+                encoder.flush(bytes);
+            }
+            bytes.flip();
+            digest.update(bytes.duplicate());
+            chunks.add(bytes);
+            start = end;
+        }
+        return chunks;
+    }
+
+    private boolean isUnchanged(Path path, byte[] hash) throws IOException {
+        SavedState state = savedState;
+        return state != null && state.path.equals(path) && Arrays.equals(state.hash, hash) &&
+                Files.exists(path) && Files.size(path) == state.size &&
+                Files.getLastModifiedTime(path).equals(state.lastModifiedTime);
+    }
+
+    /**
+     * Write the bytes to a temporary file in the same directory as the target file. Then force it to disk, and
+     * atomically rename it over the target file.
+     */
+    private static void writeAtomically(Path path, List<ByteBuffer> chunks) throws IOException {
+        Path directory = path.getParent();
+        Path tempPath = Files.createTempFile(directory, "." + path.getFileName(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+                ByteBuffer[] buffers = chunks.toArray(new ByteBuffer[0]);
+                long remaining = chunks.stream().mapToLong(ByteBuffer::remaining).sum();
+                while (remaining > 0) {
+                    remaining -= channel.write(buffers);
+                }
+                channel.force(true);
+            }
+            copyPermissions(path, tempPath);
+
+            try {
+                Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            forceDirectory(directory);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * Temporary files are only readable by their owner. So give the temporary file the permissions of the file it
+     * replaces, or the usual permissions of a new file.
+     */
+    private static void copyPermissions(Path path, Path tempPath) throws IOException {
+        PosixFileAttributeView tempView = Files.getFileAttributeView(tempPath, PosixFileAttributeView.class);
+        if (tempView == null) {
+            return;
+        }
+        if (Files.exists(path)) {
+            tempView.setPermissions(Files.getPosixFilePermissions(path));
+        } else {
+            tempView.setPermissions(PosixFilePermissions.fromString(NEW_FILE_PERMISSIONS));
+        }
+    }
+
+    /**
+     * Force the rename to disk. Not every platform supports opening a directory, in which case the rename is left to
+     * be forced by the operating system.
+     */
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported on this platform.
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.atonementcrystals.dnr.vikari.ide.gui;
+
+import com.atonementcrystals.dnr.vikari.ide.util.LineIndex;
+
+import javax.swing.JComponent;
+import javax.swing.text.BadLocationException;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Insets;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * The line numbers shown beside a VideEditorPane. Only the line numbers within the clip are painted, at the position
+ * of the start of each row in the pane. So the cost of painting the gutter depends only on the size of the viewport,
+ * and never on the number of lines in the document.<br/>
+ * <br/>
+ * The line number of the row containing the caret is painted in bold.
+ */
+public class LineNumbersGutter extends JComponent {
+    private final VideEditorPane textEditorPane;
+    private Font caretLineFont;
+    private int lineCount = 1;
+    private int caretRow = 0;
+
+    public LineNumbersGutter(VideEditorPane textEditorPane) {
+        this.textEditorPane = textEditorPane;
+        setOpaque(true);
+
+        textEditorPane.addCaretListener(event -> updateCaretRow(event.getDot()));
+
+        // Rows move whenever the pane is laid out again, such as when word wrap is toggled.
+        textEditorPane.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent event) {
+                revalidate();
+                repaint();
+            }
+        });
+    }
+
+    @Override
+    public void setFont(Font font) {
+        super.setFont(font);
+        caretLineFont = font == null ? null : font.deriveFont(Font.BOLD);
+    }
+
+    /**
+     * Must be called whenever text is inserted into or removed from the document. Only repaints the gutter if the
+     * number of lines changed.
+     */
+    public void updateLineCount() {
+        int rowCount = textEditorPane.getLineIndex().getRowCount();
+        if (rowCount != lineCount) {
+            int previousDigits = String.valueOf(lineCount).length();
+            lineCount = rowCount;
+            if (String.valueOf(lineCount).length() != previousDigits) {
+                revalidate();
+            }
+            repaint();
+        }
+    }
+
+    private void updateCaretRow(int caret) {
+        int row = textEditorPane.getLineIndex().getRowOfOffset(caret);
+        if (row != caretRow) {
+            caretRow = row;
+            repaint();
+        }
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        if (isPreferredSizeSet()) {
+            return super.getPreferredSize();
+        }
+        Insets insets = getInsets();
+        FontMetrics fontMetrics = getFontMetrics(getFont());
+        int width = String.valueOf(lineCount).length() * fontMetrics.charWidth('0') + insets.left + insets.right;
+        return new Dimension(width, textEditorPane.getHeight());
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+        int firstOffset = textEditorPane.viewToModel2D(new Point(0, clip.y));
+        if (firstOffset == -1) {
+            return;
+        }
+        LineIndex lineIndex = textEditorPane.getLineIndex();
+        FontMetrics fontMetrics = getFontMetrics(getFont());
+        Insets insets = getInsets();
+        int right = getWidth() - insets.right;
+        int clipEnd = clip.y + clip.height;
+        g.setColor(getForeground());
+
+        try {
+            for (int row = lineIndex.getRowOfOffset(firstOffset); row < lineIndex.getRowCount(); row++) {
+                Rectangle2D rowBounds = textEditorPane.modelToView2D(lineIndex.getRowStartOffset(row));
+                if (rowBounds == null || rowBounds.getY() >= clipEnd) {
+                    break;
+                }
+                Font font = row == caretRow ? caretLineFont : getFont();
+                FontMetrics rowFontMetrics = row == caretRow ? getFontMetrics(font) : fontMetrics;
+                String lineNumber = String.valueOf(row + 1);
+                int x = right - rowFontMetrics.stringWidth(lineNumber);
+                int y = (int) rowBounds.getY() + fontMetrics.getAscent();
+                g.setFont(font);
+                g.drawString(lineNumber, x, y);
+            }
+        } catch (BadLocationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
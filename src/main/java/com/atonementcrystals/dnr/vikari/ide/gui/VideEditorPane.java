@@ -1,17 +1,205 @@
 package com.atonementcrystals.dnr.vikari.ide.gui;
 
+import com.atonementcrystals.dnr.vikari.ide.gui.document.VideDocument;
+import com.atonementcrystals.dnr.vikari.ide.gui.view.VideEditorKit;
+import com.atonementcrystals.dnr.vikari.ide.parsing.RowStyles;
+import com.atonementcrystals.dnr.vikari.ide.util.LineIndex;
+
 import javax.swing.JTextPane;
+import javax.swing.JViewport;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.EditorKit;
+import javax.swing.text.StyledDocument;
 import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
 
 /**
- * A custom JTextPane with modified behavior to enable and disable word wrap functionality.
+ * A custom JTextPane with modified behavior to enable and disable word wrap functionality.<br/>
+ * <br/>
+ * The text is painted by the views of a {@link VideEditorKit}, in the colors of the style runs recorded for each row
+ * in the pane's {@link RowStyles}. So the document is never styled.
  */
 public class VideEditorPane extends JTextPane {
+    private static final int VISIBLE_ROW_MARGIN = 100;
 
+    private final LineIndex lineIndex = new LineIndex();
+    private final RowStyles rowStyles = new RowStyles();
     private boolean wordWrap = false;
+    private long documentVersion = 0;
+
+    @Override
+    protected EditorKit createDefaultEditorKit() {
+        return new VideEditorKit();
+    }
+
+    /**
+     * @return The document of this pane, which stores its text in a piece table.
+     */
+    public VideDocument getVideDocument() {
+        return (VideDocument) getStyledDocument();
+    }
+
+    /**
+     * @return The version of the document's current text. Used to detect stale syntax highlighting results.
+     */
+    public long getDocumentVersion() {
+        return documentVersion;
+    }
+
+    /**
+     * Must be called whenever text is inserted into or removed from the document.
+     */
+    public void incrementDocumentVersion() {
+        documentVersion++;
+    }
+
+    /**
+     * @return The line index for the document's current text.
+     */
+    public LineIndex getLineIndex() {
+        return lineIndex;
+    }
+
+    /**
+     * @return The syntax highlighting style runs applied to each row of the document. Rows outside of the viewport are
+     * only highlighted once they are scrolled into view.
+     */
+    public RowStyles getRowStyles() {
+        return rowStyles;
+    }
+
+    /**
+     * Replace the document with a document which was loaded in the background. The loaded document must begin with the
+     * full rows of the current document, so that the style runs of those rows are kept. Except for the last row, which
+     * may continue in the loaded document.
+     * @param document The loaded document.
+     * @param loadedLineIndex The line index of the loaded document. It is left empty.
+     */
+    public void setLoadedDocument(VideDocument document, LineIndex loadedLineIndex) {
+        int lastRow = lineIndex.getRowCount() - 1;
+        lineIndex.replaceWith(loadedLineIndex);
+        rowStyles.replace(lastRow, 1, lineIndex.getRowCount() - lastRow);
+        incrementDocumentVersion();
+        setDocument(document);
+    }
+
+    /**
+     * Must be called whenever text is inserted into the document.
+     * @param offset The offset the text was inserted at.
+     * @param text The inserted text.
+     */
+    public void updateRowsForInsert(int offset, String text) {
+        int startRow = lineIndex.getRowOfOffset(offset);
+        int column = offset - lineIndex.getRowStartOffset(startRow);
+        lineIndex.insert(offset, text);
+        int endRow = lineIndex.getRowOfOffset(offset + text.length());
+        rowStyles.replace(startRow, 1, endRow - startRow + 1);
+        if (startRow == endRow) {
+            rowStyles.shiftColumns(startRow, column, text.length());
+        }
+    }
+
+    /**
+     * Must be called whenever text is removed from the document.
+     * @param offset The offset the text was removed from.
+     * @param length The length of the removed text.
+     */
+    public void updateRowsForRemove(int offset, int length) {
+        int startRow = lineIndex.getRowOfOffset(offset);
+        int endRow = lineIndex.getRowOfOffset(offset + length);
+        int column = offset - lineIndex.getRowStartOffset(startRow);
+        lineIndex.remove(offset, length);
+        rowStyles.replace(startRow, endRow - startRow + 1, 1);
+        if (startRow == endRow) {
+            rowStyles.shiftColumns(startRow, column, -length);
+        }
+    }
+
+    /**
+     * Repaint a range of rows, such as after their style runs changed.
+     * @param startRow The first row to repaint.
+     * @param endRow The last row to repaint.
+     */
+    public void repaintRows(int startRow, int endRow) {
+        try {
+            Rectangle2D start = modelToView2D(lineIndex.getRowStartOffset(startRow));
+            Rectangle2D end = modelToView2D(lineIndex.getRowEndOffset(endRow));
+            if (start != null && end != null) {
+                int y = (int) start.getY();
+                repaint(0, y, getWidth(), (int) Math.ceil(end.getMaxY()) - y);
+            }
+        } catch (BadLocationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Copy a span of the text into a new styled document, with the colors of the style runs recorded for its rows. For
+     * copying the text as formatted text. Rows which are not yet highlighted are copied without color.
+     * @param offset The start offset of the span.
+     * @param length The length of the span.
+     * @return The styled copy.
+     */
+    public StyledDocument createStyledCopy(int offset, int length) {
+        DefaultStyledDocument styledCopy = new DefaultStyledDocument();
+        try {
+            styledCopy.insertString(0, getDocument().getText(offset, length), null);
+        } catch (BadLocationException e) {
+            throw new RuntimeException(e);
+        }
+        int endOffset = offset + length;
+        int endRow = lineIndex.getRowOfOffset(endOffset);
+        for (int row = lineIndex.getRowOfOffset(offset); row <= endRow; row++) {
+            int rowOffset = lineIndex.getRowStartOffset(row);
+            for (int i = 0; i < rowStyles.getRunCount(row); i++) {
+                int runStart = Math.max(offset, rowOffset + rowStyles.getColumn(row, i));
+                int runEnd = Math.min(endOffset, rowOffset + rowStyles.getColumn(row, i) + rowStyles.getLength(row, i));
+                if (runStart < runEnd) {
+                    styledCopy.setCharacterAttributes(runStart - offset, runEnd - runStart,
+                            rowStyles.getAttributeSet(row, i), true);
+                }
+            }
+        }
+        return styledCopy;
+    }
+
+    /**
+     * Get the range of rows which are visible in the viewport, plus a margin of rows above and below it so that
+     * scrolling a short distance does not reveal any rows that are not yet highlighted. If the pane is not displayed
+     * in a viewport, then every row is considered visible.
+     * @return The first and last visible rows.
+     */
+    public int[] getVisibleRows() {
+        int lastRow = lineIndex.getRowCount() - 1;
+        if (!(getParent() instanceof JViewport)) {
+            return new int[] { 0, lastRow };
+        }
+        Rectangle visibleRect = getVisibleRect();
+        int startOffset = viewToModel2D(new Point(visibleRect.x, visibleRect.y));
+        int endOffset = viewToModel2D(new Point(visibleRect.x + visibleRect.width, visibleRect.y + visibleRect.height));
+        int firstRow = startOffset == -1 ? 0 : lineIndex.getRowOfOffset(startOffset);
+        int endRow = endOffset == -1 ? 0 : lineIndex.getRowOfOffset(endOffset);
+        return new int[] { Math.max(0, firstRow - VISIBLE_ROW_MARGIN), Math.min(lastRow, endRow + VISIBLE_ROW_MARGIN) };
+    }
+
+    public boolean isWordWrap() {
+        return wordWrap;
+    }
 
+    /**
+     * Toggle word wrap. The VideEditorKit creates a different view for each mode, so the UI is installed again to
+     * create the new view. The selection is kept.
+     */
     public void toggleWordWrap() {
         this.wordWrap = !this.wordWrap;
+        int dot = getCaret().getDot();
+        int mark = getCaret().getMark();
+        updateUI();
+        getCaret().setDot(mark);
+        getCaret().moveDot(dot);
     }
 
     public boolean getScrollableTracksViewportWidth() {
@@ -2,8 +2,12 @@ package com.atonementcrystals.dnr.vikari.ide.gui;
 
 import com.atonementcrystals.dnr.vikari.ide.Vide;
 import com.atonementcrystals.dnr.vikari.ide.gui.document.SyntaxHighlightDocumentListener;
+import com.atonementcrystals.dnr.vikari.ide.gui.document.VideDocument;
+import com.atonementcrystals.dnr.vikari.ide.gui.document.VideDocumentFilter;
 import com.atonementcrystals.dnr.vikari.ide.gui.document.VideDocumentListener;
-import com.atonementcrystals.dnr.vikari.ide.gui.document.TabsToSpacesDocumentFilter;
+import com.atonementcrystals.dnr.vikari.ide.journal.EditJournal;
+import com.atonementcrystals.dnr.vikari.ide.parsing.DocumentSnapshot;
+import com.atonementcrystals.dnr.vikari.ide.parsing.HighlightSession;
 import com.atonementcrystals.dnr.vikari.ide.parsing.VideColorTheme;
 import com.atonementcrystals.dnr.vikari.ide.parsing.VideEditorTheme;
 import com.atonementcrystals.dnr.vikari.ide.parsing.VikariSyntaxHighlighter;
@@ -13,23 +17,27 @@ import com.atonementcrystals.dnr.vikari.ide.undo.UndoHistoryItemType;
 import com.atonementcrystals.dnr.vikari.ide.util.CustomHTMLWriter;
 import com.atonementcrystals.dnr.vikari.ide.util.GlobalUserSettings;
 import com.atonementcrystals.dnr.vikari.ide.util.HTMLTransferable;
+import com.atonementcrystals.dnr.vikari.ide.util.LineIndex;
 import org.apache.commons.io.FilenameUtils;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.plaf.ColorUIResource;
 import javax.swing.text.BadLocationException;
-import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.DefaultEditorKit;
 import javax.swing.text.StyledDocument;
 import java.awt.*;
 import java.awt.datatransfer.Clipboard;
 import java.awt.desktop.QuitHandler;
 import java.awt.event.*;
 import java.io.*;
-import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 
@@ -45,14 +53,17 @@ public class VideEditorWindow {
     private static final Map<String, VideEditorWindow> ALL_OPEN_FILES = new HashMap<>();
     private static long NEW_FILE_INDEX = 0;
     private static final String NEW_FILE_PATH_PREFIX = "@-New-File-";
+    private static final Object RESTYLE_JOB_KEY = new Object();
     private static QuitHandler quitHandler;
 ;
     private final JFrame videWindow;
     private final VideWindowAdapter videWindowAdapter;
     private final JScrollPane editorScrollPane;
     private final VideEditorPane textEditorPane;
+    private final VideDocumentFilter documentFilter;
+    private final VideDocumentListener videDocumentListener;
     private final SyntaxHighlightDocumentListener syntaxHighlightDocumentListener;
-    private final JTextArea lineNumbers;
+    private final LineNumbersGutter lineNumbers;
     private final JTextArea statusLabel;
 
     private int fontSize;
@@ -62,16 +73,21 @@ public class VideEditorWindow {
 
     private File currentFile;
     private String currentFilePath;
-    private String fileContents;
     private boolean edited;
 
     private VideEditorTheme editorTheme;
     private VikariSyntaxHighlighter vikariSyntaxHighlighter;
+    private final HighlightSession highlightSession;
     private final UndoHistory undoHistory;
     private int undoHistoryUneditedPosition;
 
-    private int linePosition;
-    private int columnPosition;
+    private final CaretPositionTracker caretPositionTracker;
+    private FileLoader fileLoader;
+    private final FileSaver fileSaver;
+    private final EditJournal editJournal;
+    private PendingSave pendingSave;
+    private long fileLoadBytesRead;
+    private long fileLoadSize;
 
     private static Font loadMonospaceFont() {
         try {
@@ -124,26 +140,43 @@ public class VideEditorWindow {
         textEditorPane.setFont(videFont);
         calculateFontMetrics();
 
-        lineNumbers = new JTextArea("1");
-        lineNumbers.setEditable(false);
+        lineNumbers = new LineNumbersGutter(textEditorPane);
         lineNumbers.setFont(font);
         lineNumbers.setBorder(BorderFactory.createEmptyBorder(0, 0, 0, fontWidth));
 
-        DefaultStyledDocument styledDocument = (DefaultStyledDocument) textEditorPane.getStyledDocument();
-        styledDocument.setDocumentFilter(new TabsToSpacesDocumentFilter());
+        VideDocument styledDocument = textEditorPane.getVideDocument();
+        documentFilter = new VideDocumentFilter();
+        styledDocument.setDocumentFilter(documentFilter);
 
         undoHistory = new UndoHistory(styledDocument);
+        undoHistory.setMemoryLimit(GlobalUserSettings.getUndoHistoryMemoryLimit());
+        undoHistory.setCoalescingEnabled(GlobalUserSettings.isUndoCoalescingEnabled());
+        undoHistory.setCoalescingTimeoutMillis(GlobalUserSettings.getUndoCoalescingTimeoutMillis());
+        fileSaver = new FileSaver();
+        editJournal = new EditJournal();
+        editJournal.reset(null, "", false);
         vikariSyntaxHighlighter = Vide.getSyntaxHighlighter();
-        vikariSyntaxHighlighter.setEnabled(true);
+        highlightSession = vikariSyntaxHighlighter.createSession();
+        highlightSession.setEnabled(true);
 
-        VideDocumentListener videDocumentListener = new VideDocumentListener(this);
+        videDocumentListener = new VideDocumentListener(this);
         syntaxHighlightDocumentListener = videDocumentListener.getSyntaxHighlightListener();
         styledDocument.addDocumentListener(videDocumentListener);
 
         // Update line and column info when the text caret position changes.
-        textEditorPane.addCaretListener(event -> {
-            updateLineColumnPosition(event.getDot());
-            updateStatusLabel();
+        caretPositionTracker = new CaretPositionTracker(textEditorPane, this::updateStatusLabel);
+        textEditorPane.addCaretListener(caretPositionTracker);
+
+        // Stop coalescing typed text into the last undo item once the caret moves elsewhere.
+        textEditorPane.addCaretListener(event -> undoHistory.caretMoved(event.getDot(), event.getMark()));
+
+        // Cancel opening a file with the escape key.
+        textEditorPane.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "cancelFileLoad");
+        textEditorPane.getActionMap().put("cancelFileLoad", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                cancelFileLoad();
+            }
         });
 
         editorScrollPane = new JScrollPane();
@@ -153,6 +186,9 @@ public class VideEditorWindow {
         editorScrollPane.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED);
         editorScrollPane.setBorder(new EmptyBorder(0, 0, 0, 0));
 
+        // Highlight rows as they are scrolled into view.
+        editorScrollPane.getViewport().addChangeListener(event -> syntaxHighlightDocumentListener.highlightVisibleRows());
+
         JScrollBar verticalScrollBar = editorScrollPane.getVerticalScrollBar();
         verticalScrollBar.setUnitIncrement(fontHeight);
         JScrollBar horizontalScrollBar = editorScrollPane.getHorizontalScrollBar();
@@ -185,10 +221,8 @@ public class VideEditorWindow {
         contentPane.add(statusLabel, BorderLayout.SOUTH);
 
         // Initialize caret line and column position info in status label.
-        updateLineColumnPosition(0);
         updateStatusLabel();
 
-        fileContents = "";
         edited = false;
         undoHistoryUneditedPosition = undoHistory.getPosition();
         updateComponentColors();
@@ -202,16 +236,12 @@ public class VideEditorWindow {
         return textEditorPane;
     }
 
-    public JTextArea getLineNumbers() {
+    public LineNumbersGutter getLineNumbers() {
         return lineNumbers;
     }
 
-    public String getFileContents() {
-        return fileContents;
-    }
-
-    public void setFileContents(String fileContents) {
-        this.fileContents = fileContents;
+    public VideDocumentFilter getDocumentFilter() {
+        return documentFilter;
     }
 
     public void setEdited(boolean edited) {
@@ -233,28 +263,57 @@ public class VideEditorWindow {
         return vikariSyntaxHighlighter;
     }
 
+    public HighlightSession getHighlightSession() {
+        return highlightSession;
+    }
+
+    /**
+     * @return An immutable snapshot of the current file contents, stamped with the current document version.
+     */
+    public DocumentSnapshot createDocumentSnapshot() {
+        CharSequence text = textEditorPane.getVideDocument().createSnapshot();
+        return new DocumentSnapshot(textEditorPane.getDocumentVersion(), text);
+    }
+
     public UndoHistory getUndoHistory() {
         return undoHistory;
     }
 
+    public EditJournal getEditJournal() {
+        return editJournal;
+    }
+
     /**
-     * Properly dispose of a VideEditorWindow's components when the window is closed.
+     * Properly dispose of a VideEditorWindow's components when the window is closed. Also highlights a minimized window
+     * only as background work.
      */
     private class VideWindowAdapter extends WindowAdapter {
         @Override
         public void windowClosing(WindowEvent e) {
             close();
         }
+
+        @Override
+        public void windowIconified(WindowEvent e) {
+            vikariSyntaxHighlighter.getScheduler().setHidden(highlightSession, true);
+        }
+
+        @Override
+        public void windowDeiconified(WindowEvent e) {
+            vikariSyntaxHighlighter.getScheduler().setHidden(highlightSession, false);
+        }
     }
 
     /**
-     * For pushing focused windows to the top of the {@link #ALL_OPEN_WINDOWS} stack.
+     * For pushing focused windows to the top of the {@link #ALL_OPEN_WINDOWS} stack. The focused window is also
+     * highlighted before all other windows.
      */
     private class VideWindowFocusListener implements WindowFocusListener {
         @Override
         public void windowGainedFocus(WindowEvent e) {
             ALL_OPEN_WINDOWS.remove(VideEditorWindow.this);
             ALL_OPEN_WINDOWS.push(VideEditorWindow.this);
+            vikariSyntaxHighlighter.getScheduler().setFocusedSession(highlightSession);
         }
 
         @Override
@@ -447,27 +506,34 @@ public class VideEditorWindow {
         return videMenuBar;
     }
 
-    public void updateLineColumnPosition(int caret) {
-        linePosition = 1;
-        int lastLine = 0;
-        for (int i = 0; i < caret; i++) {
-            char c = fileContents.charAt(i);
-            if (c == '\n') {
-                linePosition++;
-                lastLine = i;
-            }
-        }
-        int offset = linePosition == 1 ? 1 : 0;
-        columnPosition = caret - lastLine + offset;
-    }
-
     public void updateStatusLabel() {
         StringBuilder sb = new StringBuilder();
 
         sb.append(" Line: ");
-        sb.append(linePosition);
+        sb.append(caretPositionTracker.getLine());
         sb.append("  Col: ");
-        sb.append(columnPosition);
+        sb.append(caretPositionTracker.getColumn());
+
+        int selectionLength = caretPositionTracker.getSelectionLength();
+        if (selectionLength > 0) {
+            sb.append("  Selected: ");
+            sb.append(selectionLength);
+            sb.append(selectionLength == 1 ? " char" : " chars");
+
+            int selectedLineCount = caretPositionTracker.getSelectedLineCount();
+            if (selectedLineCount > 1) {
+                sb.append(", ");
+                sb.append(selectedLineCount);
+                sb.append(" lines");
+            }
+        }
+
+        if (fileLoader != null) {
+            long percent = fileLoadSize == 0 ? 100 : fileLoadBytesRead * 100 / fileLoadSize;
+            sb.append("  Loading: ");
+            sb.append(percent);
+            sb.append("% (Esc to cancel)");
+        }
 
         String result = sb.toString();
         statusLabel.setText(result);
@@ -510,6 +576,7 @@ public class VideEditorWindow {
 
         // Begin to track edits and display the window.
         undoHistory.setEnabled(true);
+        editJournal.setEnabled(true);
         videWindow.setVisible(true);
         textEditorPane.requestFocusInWindow();
     }
@@ -527,29 +594,204 @@ public class VideEditorWindow {
         this.currentFilePath = getCanonicalFilePath(currentFile);
         updateWindowTitleWithFilename(currentFile);
         storeInFileCache(currentFile);
+        editJournal.reset(currentFile, textEditorPane.getVideDocument().createSnapshot(), false);
+    }
+
+    /**
+     * Show the text recovered from the {@link EditJournal} of a file which was not saved before Vide last exited. The
+     * window is marked as edited, and the recovered text is journaled again right away.
+     * @param file The file the text was edited for, or null for a new file.
+     * @param text The recovered text.
+     */
+    public void recoverText(File file, String text) {
+        if (file != null) {
+            this.currentFile = file;
+            this.currentFilePath = getCanonicalFilePath(currentFile);
+            storeInFileCache(currentFile);
+        } else {
+            initNewFilePath();
+        }
+
+        undoHistory.setEnabled(false);
+        editJournal.setEnabled(false);
+        highlightSession.setEnabled(false);
+        syntaxHighlightDocumentListener.clearPendingEdits();
+        textEditorPane.setText(text);
+        textEditorPane.setCaretPosition(0);
+        undoHistory.setEnabled(true);
+        highlightSession.setEnabled(true);
+
+        editJournal.reset(file, textEditorPane.getVideDocument().createSnapshot(), true);
+        editJournal.setEnabled(true);
+
+        edited = false;
+        setEdited(true);
+        highlightSession.highlightEntireFile(createDocumentSnapshot(), textEditorPane);
     }
 
+    /**
+     * Open the file for editing. The file is read on a background thread by a {@link FileLoader}. The pane is not
+     * editable until the whole file is read, but the first screen of the file is shown and highlighted as soon as it
+     * is read. Loading can be cancelled with the escape key.
+     * @param file The file to open.
+     */
     public void loadFile(File file) {
+        cancelFileLoad();
         this.currentFile = file;
         this.currentFilePath = getCanonicalFilePath(currentFile);
 
+        undoHistory.setEnabled(false);
+        editJournal.setEnabled(false);
+        highlightSession.setEnabled(false);
+        syntaxHighlightDocumentListener.clearPendingEdits();
+        textEditorPane.setText("");
+        textEditorPane.setEditable(false);
+
+        edited = false;
+        updateWindowTitleWithFilename(currentFile);
+        storeInFileCache(currentFile);
+
+        int firstScreenRowCount = editorScrollPane.getViewport().getHeight() / fontHeight + 1;
+        fileLoadBytesRead = 0;
+        fileLoadSize = 0;
+        fileLoader = new FileLoader(file, firstScreenRowCount, new FileLoadListener());
+        fileLoader.start();
+        updateStatusLabel();
+    }
+
+    /**
+     * Show the first screen of the file being loaded, so that it can be read and highlighted before the rest of the
+     * file is loaded.
+     * @param text The text of the first rows of the file.
+     */
+    private void showFirstScreen(String text) {
         try {
-            fileContents = Files.readString(currentFile.toPath());
-        } catch (IOException e) {
+            textEditorPane.getVideDocument().insertString(0, text, null);
+        } catch (BadLocationException e) {
             throw new RuntimeException(e);
         }
-
-        undoHistory.setEnabled(false);
-        vikariSyntaxHighlighter.setEnabled(false);
-        textEditorPane.setText(fileContents);
+        syntaxHighlightDocumentListener.clearPendingEdits();
         textEditorPane.setCaretPosition(0);
+        highlightSession.setEnabled(true);
+
+        edited = false;
+        updateWindowTitleWithFilename(currentFile);
+        highlightSession.highlightEntireFile(createDocumentSnapshot(), textEditorPane);
+    }
+
+    /**
+     * Replace the shown document with the fully loaded document. The shown text is kept as a prefix of the loaded
+     * text, so the caret position and the highlighting of the first screen both carry over.
+     * @param document The loaded document.
+     * @param lineIndex The LineIndex of the loaded document.
+     */
+    private void showLoadedFile(VideDocument document, LineIndex lineIndex) {
+        fileSaver.setLoadedFile(currentFile, fileLoader.getContentHash(), fileLoader.getLastModifiedTime(),
+                fileLoader.getFileSize());
+        editJournal.reset(currentFile, fileLoader.getContentHash());
+        fileLoader = null;
+        int caretPosition = textEditorPane.getCaretPosition();
+
+        VideDocument previousDocument = textEditorPane.getVideDocument();
+        previousDocument.removeDocumentListener(videDocumentListener);
+        previousDocument.setDocumentFilter(null);
+        document.setDocumentFilter(documentFilter);
+        undoHistory.setDocument(document);
+        syntaxHighlightDocumentListener.clearPendingEdits();
+        textEditorPane.setLoadedDocument(document, lineIndex);
+
+        // Added after the pane's own listeners, so that it is still notified before them.
+        document.addDocumentListener(videDocumentListener);
+
+        textEditorPane.setCaretPosition(caretPosition);
+        textEditorPane.setEditable(true);
+        lineNumbers.updateLineCount();
         undoHistory.setEnabled(true);
-        vikariSyntaxHighlighter.setEnabled(true);
+        editJournal.setEnabled(true);
+        highlightSession.setEnabled(true);
 
         edited = false;
         updateWindowTitleWithFilename(currentFile);
-        storeInFileCache(currentFile);
-        vikariSyntaxHighlighter.highlightEntireFile(currentFilePath, fileContents, textEditorPane);
+        undoHistoryUneditedPosition = undoHistory.getPosition();
+        updateStatusLabel();
+        highlightSession.highlightEntireFile(createDocumentSnapshot(), textEditorPane);
+    }
+
+    /**
+     * Cancel loading the current file, if it is still being loaded. The window then becomes an editor for a new empty
+     * file, so that a partially loaded file can never be saved over the original file.
+     */
+    public void cancelFileLoad() {
+        if (fileLoader == null) {
+            return;
+        }
+        fileLoader.cancel();
+        fileLoader = null;
+
+        highlightSession.setEnabled(false);
+        syntaxHighlightDocumentListener.clearPendingEdits();
+        textEditorPane.setText("");
+        textEditorPane.setEditable(true);
+        undoHistory.setEnabled(true);
+        highlightSession.setEnabled(true);
+        editJournal.reset(null, "", false);
+        editJournal.setEnabled(true);
+
+        removeFromFileCache(currentFile);
+        currentFile = null;
+        initNewFilePath();
+        edited = false;
+        videWindow.setTitle(NEW_FILE_TITLE);
+        updateStatusLabel();
+    }
+
+    private void failFileLoad(IOException e) {
+        File file = fileLoader.getFile();
+        cancelFileLoad();
+        String message = "Failed to open \"" + file.getAbsolutePath() + "\":\n" + e.getMessage();
+        JOptionPane.showMessageDialog(videWindow, message, "", JOptionPane.ERROR_MESSAGE);
+    }
+
+    /**
+     * A save which was started, and the undo history position of the saved text.
+     */
+    private static class PendingSave {
+        private final File file;
+        private final int undoHistoryPosition;
+        private final CompletableFuture<Boolean> result;
+
+        private PendingSave(File file, int undoHistoryPosition, CompletableFuture<Boolean> result) {
+            this.file = file;
+            this.undoHistoryPosition = undoHistoryPosition;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Receives the results of the current FileLoader.
+     */
+    private class FileLoadListener implements FileLoader.Listener {
+        @Override
+        public void firstScreenLoaded(String text) {
+            showFirstScreen(text);
+        }
+
+        @Override
+        public void progress(long bytesRead, long fileSize) {
+            fileLoadBytesRead = bytesRead;
+            fileLoadSize = fileSize;
+            updateStatusLabel();
+        }
+
+        @Override
+        public void loaded(VideDocument document, LineIndex lineIndex) {
+            showLoadedFile(document, lineIndex);
+        }
+
+        @Override
+        public void failed(IOException e) {
+            failFileLoad(e);
+        }
     }
 
     /**
@@ -611,6 +853,10 @@ public class VideEditorWindow {
      * Performs the "Save" menu item action.
      */
     public boolean save() {
+        // A file still being loaded has nothing new to save.
+        if (fileLoader != null) {
+            return false;
+        }
         if (currentFile == null) {
             String lastViewedDirectory = GlobalUserSettings.getLastViewedDirectory();
 
@@ -642,6 +888,9 @@ public class VideEditorWindow {
      * Performs the "Save As" menu item action.
      */
     public void saveAs() {
+        if (fileLoader != null) {
+            return;
+        }
         String lastViewedDirectory = GlobalUserSettings.getLastViewedDirectory();
 
         FileDialog fileDialog = new FileDialog(videWindow, "Save As", FileDialog.SAVE);
@@ -664,20 +913,102 @@ public class VideEditorWindow {
     }
 
     /**
-     * Save the editor pane's contents to the given file.
+     * Save the editor pane's contents to the given file. The contents are written on a background thread by the
+     * {@link FileSaver}, from a snapshot of the document taken now. So editing may continue during the save.
      * @param file The File object to save the editor pane's contents to.
      */
     private void saveFile(File file) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
-            fileContents = textEditorPane.getText();
-            writer.write(fileContents);
-            writer.flush();
-            edited = false;
+        VideDocument document = textEditorPane.getVideDocument();
+        PendingSave save = new PendingSave(file, undoHistory.getPosition(),
+                fileSaver.save(file, document.createSnapshot(), getLineSeparator(document)));
+        pendingSave = save;
+        save.result.whenComplete((saved, e) -> SwingUtilities.invokeLater(() -> finishSave(save)));
+    }
+
+    /**
+     * @param document The document to save.
+     * @return The line separator of the file the document was loaded from. Or else the system line separator, as
+     *         when the document is written by the editor kit.
+     */
+    private static String getLineSeparator(VideDocument document) {
+        Object lineSeparator = document.getProperty(DefaultEditorKit.EndOfLineStringProperty);
+        return lineSeparator instanceof String ? (String) lineSeparator : System.lineSeparator();
+    }
+
+    /**
+     * Report the result of a completed save. Marks the window as unedited if no edits were made since the save
+     * started, or else shows an error message if the save failed.
+     * @param save The completed save.
+     * @return True if the save succeeded, else false.
+     */
+    private boolean finishSave(PendingSave save) {
+        // Only the latest save is reported.
+        if (save != pendingSave) {
+            return !save.result.isCompletedExceptionally();
+        }
+        pendingSave = null;
+
+        try {
+            save.result.join();
+        } catch (CompletionException e) {
+            String message = "Failed to save \"" + save.file.getAbsolutePath() + "\":\n" + e.getCause().getMessage();
+            JOptionPane.showMessageDialog(videWindow, message, "", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+
+        undoHistoryUneditedPosition = save.undoHistoryPosition;
+        edited = undoHistory.getPosition() != undoHistoryUneditedPosition;
+        if (save.file.equals(currentFile)) {
             updateWindowTitleWithFilename(currentFile);
-            undoHistoryUneditedPosition = undoHistory.getPosition();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
+
+        // The saved edits no longer need to be journaled.
+        byte[] savedHash = fileSaver.getSavedHash(save.file);
+        if (!edited && savedHash != null) {
+            editJournal.reset(save.file, savedHash);
+        } else {
+            editJournal.reset(currentFile, textEditorPane.getVideDocument().createSnapshot(), edited);
+        }
+        return true;
+    }
+
+    /**
+     * Wait for the latest save of this window to complete, and report its result.
+     * @return True if the save succeeded or there was no save, else false.
+     */
+    private boolean awaitSave() {
+        PendingSave save = pendingSave;
+        if (save == null) {
+            return true;
+        }
+        try {
+            save.result.join();
+        } catch (CompletionException e) {
+            // Reported by finishSave.
+        }
+        return finishSave(save);
+    }
+
+    /**
+     * Ask the user whether to save the edited file before closing it. If so, then the save is started.
+     * @return {@link JOptionPane#YES_OPTION}, {@link JOptionPane#NO_OPTION}, or {@link JOptionPane#CANCEL_OPTION},
+     *         based on if the save was started, should not be made, or cancel was selected.
+     */
+    private int promptToSave() {
+        JOptionPane jOptionPane = new JOptionPane("Save before closing?", JOptionPane.QUESTION_MESSAGE,
+                JOptionPane.YES_NO_CANCEL_OPTION);
+        JDialog jDialog = jOptionPane.createDialog(videWindow, "");
+        jDialog.setLocationRelativeTo(videWindow);
+        jDialog.setVisible(true);
+        if (jOptionPane.getValue() instanceof Integer selectedValue) {
+            if (selectedValue == JOptionPane.YES_OPTION) {
+                boolean saved = save();
+                return saved ? JOptionPane.YES_OPTION : JOptionPane.CANCEL_OPTION;
+            } else if (selectedValue == JOptionPane.NO_OPTION) {
+                return JOptionPane.NO_OPTION;
+            }
+        }
+        return JOptionPane.CANCEL_OPTION;
     }
 
     /**
@@ -688,25 +1019,12 @@ public class VideEditorWindow {
      */
     public int close() {
         if (edited) {
-            JOptionPane jOptionPane = new JOptionPane("Save before closing?", JOptionPane.QUESTION_MESSAGE,
-                    JOptionPane.YES_NO_CANCEL_OPTION);
-            JDialog jDialog = jOptionPane.createDialog(videWindow, "");
-            jDialog.setLocationRelativeTo(videWindow);
-            jDialog.setVisible(true);
-            if (jOptionPane.getValue() instanceof Integer selectedValue) {
-                if (selectedValue == JOptionPane.YES_OPTION) {
-                    boolean saved = save();
-                    if (saved) {
-                        closeEditorWindow();
-                        return JOptionPane.YES_OPTION;
-                    }
-                    return JOptionPane.CANCEL_OPTION;
-                } else if (selectedValue == JOptionPane.NO_OPTION) {
-                    closeEditorWindow();
-                    return JOptionPane.NO_OPTION;
-                }
+            int result = promptToSave();
+            if (result == JOptionPane.CANCEL_OPTION || !awaitSave()) {
+                return JOptionPane.CANCEL_OPTION;
             }
-            return JOptionPane.CANCEL_OPTION;
+            closeEditorWindow();
+            return result;
         } else {
             closeEditorWindow();
             return JOptionPane.NO_OPTION;
@@ -714,18 +1032,21 @@ public class VideEditorWindow {
     }
 
     private void closeEditorWindow() {
-        // Dispose the current window's assets.
+        // Finish any save still being written, and dispose the current window's assets.
+        awaitSave();
+        cancelFileLoad();
         undoHistory.clear();
         undoHistory.setEnabled(false);
-        vikariSyntaxHighlighter.setEnabled(false);
-        fileContents = "";
-        textEditorPane.setText(fileContents);
+        editJournal.setEnabled(false);
+        editJournal.discard();
+        highlightSession.setEnabled(false);
+        syntaxHighlightDocumentListener.clearPendingEdits();
+        textEditorPane.setText("");
         undoHistory.setEnabled(true);
 
         // Clear the file info, and the entry in the file cache.
         removeFromFileCache(currentFile);
-        vikariSyntaxHighlighter.closeFile(currentFilePath);
-        vikariSyntaxHighlighter.setEnabled(true);
+        highlightSession.close();
         currentFile = null;
         currentFilePath = null;
 
@@ -812,7 +1133,7 @@ public class VideEditorWindow {
      * @return True if this editor window can load a new opened file, else false.
      */
     public boolean isReadyForOpenedFile() {
-        return currentFile == null && (fileContents == null || fileContents.isEmpty()) &&
+        return currentFile == null && textEditorPane.getDocument().getLength() == 0 &&
                 !undoHistory.canUndo() && !undoHistory.canRedo();
     }
 
@@ -821,22 +1142,24 @@ public class VideEditorWindow {
      * @return True if the result of this command means the Vide can be quit, else false.
      */
     public static boolean quit() {
-        // Close all windows.
-        VideEditorWindow editorWindow;
-        while ((editorWindow = ALL_OPEN_WINDOWS.peek()) != null) {
-            // Prompt the user to save the file if it has been edited.
-            if (editorWindow.edited) {
-                int result = editorWindow.close();
-                if (result == JOptionPane.CANCEL_OPTION) {
-                    // If cancel was selected, stop closing remaining files.
-                    break;
-                }
+        // Ask whether to save each edited file first, so that all the files are saved in parallel.
+        List<VideEditorWindow> windowsToClose = new ArrayList<>();
+        for (int i = ALL_OPEN_WINDOWS.size() - 1; i >= 0; i--) {
+            VideEditorWindow editorWindow = ALL_OPEN_WINDOWS.get(i);
+            if (editorWindow.edited && editorWindow.promptToSave() == JOptionPane.CANCEL_OPTION) {
+                // If cancel was selected, stop closing remaining files.
+                break;
             }
-            // If the file was not edited, just close the file.
-            else {
-                editorWindow.close();
+            windowsToClose.add(editorWindow);
+        }
+
+        // Then close each window once its save succeeds. A window whose save failed is left open.
+        for (VideEditorWindow editorWindow : windowsToClose) {
+            if (editorWindow.awaitSave()) {
+                editorWindow.closeEditorWindow();
             }
         }
+
         // If there are no editor windows open, report the program should be quit.
         return ALL_OPEN_WINDOWS.isEmpty();
     }
@@ -873,11 +1196,11 @@ public class VideEditorWindow {
         int startIndex = textEditorPane.getSelectionStart();
         int endIndex = textEditorPane.getSelectionEnd();
         int length = endIndex - startIndex;
-        StyledDocument styledDocument = textEditorPane.getStyledDocument();
+        StyledDocument styledDocument = textEditorPane.createStyledCopy(startIndex, length);
 
         try (OutputStream os = new ByteArrayOutputStream();
              OutputStreamWriter osw = new OutputStreamWriter(os)) {
-            CustomHTMLWriter htmlWriter = new CustomHTMLWriter(osw, styledDocument, startIndex, length);
+            CustomHTMLWriter htmlWriter = new CustomHTMLWriter(osw, styledDocument, 0, length);
             htmlWriter.write();
             osw.flush();
             String contents = os.toString();
@@ -909,8 +1232,8 @@ public class VideEditorWindow {
      * Perform the "Toggle Word Wrap" menu item.
      */
     public void toggleSyntaxHighlighting() {
-        boolean newValue = !vikariSyntaxHighlighter.isEnabled();
-        vikariSyntaxHighlighter.setEnabled(newValue);
+        boolean newValue = !highlightSession.isEnabled();
+        highlightSession.setEnabled(newValue);
     }
 
     /**
@@ -931,20 +1254,18 @@ public class VideEditorWindow {
 
         Vide.reportColorDefinitionErrors();
 
-        // Update all open editor windows.
+        // Update all open editor windows. The focused window is restyled first, and any restyle still waiting to run
+        // from a previous toggle is cancelled.
         for (VideEditorWindow editorWindow : ALL_OPEN_WINDOWS) {
 
             // Update the editor's displayed colors.
             editorWindow.editorTheme = Vide.getEditorTheme();
-            editorWindow.vikariSyntaxHighlighter = Vide.getSyntaxHighlighter();
-            editorWindow.syntaxHighlightDocumentListener.setSyntaxHighlighter(editorWindow.vikariSyntaxHighlighter);
 
-            SwingUtilities.invokeLater(() -> {
-                editorWindow.updateComponentColors();
-                editorWindow.vikariSyntaxHighlighter.setEnabled(true);
-                editorWindow.vikariSyntaxHighlighter.highlightEntireFile(editorWindow.currentFilePath,
-                        editorWindow.fileContents, editorWindow.textEditorPane);
-            });
+            editorWindow.vikariSyntaxHighlighter.getScheduler().schedule(editorWindow.highlightSession, RESTYLE_JOB_KEY,
+                    () -> {
+                        editorWindow.updateComponentColors();
+                        editorWindow.syntaxHighlightDocumentListener.restyle();
+                    });
         }
     }
 
@@ -988,6 +1309,23 @@ public class VideEditorWindow {
             }
     }
 
+    public void addInsertTextEditJournalRecord(int offset, String addedText) {
+        editJournal.recordInsert(offset, addedText);
+        compactEditJournalIfNeeded();
+    }
+
+    public void addRemoveTextEditJournalRecord(int offset, int length) {
+        editJournal.recordRemove(offset, length);
+        compactEditJournalIfNeeded();
+    }
+
+    private void compactEditJournalIfNeeded() {
+        VideDocument document = textEditorPane.getVideDocument();
+        if (editJournal.shouldCompact(document.getLength())) {
+            editJournal.reset(currentFile, document.createSnapshot(), true);
+        }
+    }
+
     public void addInsertTextUndoHistoryItem(int startOffset, int length, String addedText) {
         int endOffset = startOffset + length;
 
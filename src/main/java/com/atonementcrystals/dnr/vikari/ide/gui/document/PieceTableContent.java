@@ -0,0 +1,509 @@
+package com.atonementcrystals.dnr.vikari.ide.gui.document;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.UndoableEdit;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Random;
+
+/**
+ * The content of a {@link VideDocument}, stored as a piece table. The text is never moved once it is stored. Instead,
+ * each piece refers to a span of one of the append-only buffers, and the pieces are kept in order in a balanced tree
+ * (a treap keyed implicitly by offset). So inserting and removing text, and finding the character at an offset, all
+ * take O(log n) time regardless of where in the content the edit is made.<br/>
+ * <br/>
+ * The tree is never modified in place. Each edit copies only the nodes along the path to the edit, and shares the rest
+ * with the previous tree. So a {@link Snapshot} of the content is simply a reference to the current tree, and can be
+ * read on any thread while the content continues to be edited on the Event Dispatch Thread.<br/>
+ * <br/>
+ * Positions are tracked as for GapContent. Their marks are ordered by index around a virtual gap, which is moved to the
+ * site of each edit. So only the marks between the previous edit and the current edit are updated.
+ */
+public class PieceTableContent implements AbstractDocument.Content {
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int MAX_CHUNKED_INSERT_LENGTH = CHUNK_SIZE / 4;
+    private static final long INITIAL_GAP_LENGTH = Long.MAX_VALUE / 4;
+
+    private final Random random = new Random();
+    private Piece root;
+
+    // The chunk of the add buffer that inserted text is appended to.
+    private char[] chunk;
+    private int chunkLength;
+
+    private Mark[] marks = new Mark[16];
+    private int markCount;
+    private long gapStart;
+    private long gapLength = INITIAL_GAP_LENGTH;
+    private final ReferenceQueue<Position> unusedMarks = new ReferenceQueue<>();
+    private int unusedMarkCount;
+
+    private static class Piece {
+        final char[] buffer;
+        final int start;
+        final int length;
+        final int priority;
+        final Piece left;
+        final Piece right;
+        final int totalLength;
+
+        Piece(char[] buffer, int start, int length, int priority, Piece left, Piece right) {
+            this.buffer = buffer;
+            this.start = start;
+            this.length = length;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.totalLength = length + totalLength(left) + totalLength(right);
+        }
+
+        Piece withChildren(Piece left, Piece right) {
+            return new Piece(buffer, start, length, priority, left, right);
+        }
+    }
+
+    /**
+     * Instantiate a new PieceTableContent. As for GapContent, the content always ends with a newline which is not part
+     * of the document's text.
+     */
+    public PieceTableContent() {
+        root = newPiece(new char[] { '\n' }, 0, 1);
+    }
+
+    @Override
+    public int length() {
+        return totalLength(root);
+    }
+
+    @Override
+    public UndoableEdit insertString(int where, String str) throws BadLocationException {
+        if (where < 0 || where > length()) {
+            throw new BadLocationException("Invalid insert", length());
+        }
+        int length = str.length();
+        if (length == 0) {
+            return null;
+        }
+        Piece[] split = split(root, where);
+        Piece left = split[0];
+
+        // Extend the piece before the insertion, if the inserted text directly follows its text in the same chunk.
+        // (Such as when typing.) So that each typed character does not add another piece.
+        Piece lastPiece = lastPiece(left);
+        if (lastPiece != null && lastPiece.buffer == chunk && lastPiece.start + lastPiece.length == chunkLength &&
+                length <= chunk.length - chunkLength) {
+            str.getChars(0, length, chunk, chunkLength);
+            chunkLength += length;
+            Piece extendedPiece = newPiece(chunk, lastPiece.start, lastPiece.length + length);
+            left = merge(split(left, where - lastPiece.length)[0], extendedPiece);
+        } else {
+            left = merge(left, storeText(str));
+        }
+        root = merge(left, split[1]);
+
+        updateMarksForInsert(where, length);
+        return null;
+    }
+
+    @Override
+    public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        if (where < 0 || nitems < 0 || where + nitems >= length()) {
+            throw new BadLocationException("Invalid remove", length() + 1);
+        }
+        if (nitems == 0) {
+            return null;
+        }
+        Piece[] split = split(root, where);
+        Piece[] rest = split(split[1], nitems);
+        root = merge(split[0], rest[1]);
+
+        updateMarksForRemove(where, nitems);
+        return null;
+    }
+
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        checkRange(where, len);
+        char[] chars = new char[len];
+        copyChars(root, where, where + len, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Fetch a span of the content into a Segment. If the span lies within a single piece, then the Segment refers
+     * directly to the buffer of that piece, and no text is copied.
+     * @param where The start offset of the span.
+     * @param len The length of the span.
+     * @param txt The Segment to fetch the span into.
+     * @throws BadLocationException If the span is not within the content.
+     */
+    @Override
+    public void getChars(int where, int len, Segment txt) throws BadLocationException {
+        checkRange(where, len);
+        if (len == 0) {
+            txt.array = new char[0];
+            txt.offset = 0;
+            txt.count = 0;
+            return;
+        }
+
+        // Find the piece containing the start of the span.
+        Piece node = root;
+        int offset = where;
+        while (true) {
+            int leftLength = totalLength(node.left);
+            if (offset < leftLength) {
+                node = node.left;
+            } else if (offset < leftLength + node.length) {
+                offset -= leftLength;
+                break;
+            } else {
+                offset -= leftLength + node.length;
+                node = node.right;
+            }
+        }
+
+        int pieceRemainder = node.length - offset;
+        if (len <= pieceRemainder || txt.isPartialReturn()) {
+            txt.array = node.buffer;
+            txt.offset = node.start + offset;
+            txt.count = Math.min(len, pieceRemainder);
+        } else {
+            char[] chars = new char[len];
+            copyChars(root, where, where + len, chars, 0);
+            txt.array = chars;
+            txt.offset = 0;
+            txt.count = len;
+        }
+    }
+
+    private void checkRange(int where, int len) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length()) {
+            throw new BadLocationException("Invalid range", length());
+        }
+    }
+
+    /**
+     * Create a snapshot of the start of the content, which is unaffected by any later edits. This takes O(1) time.
+     * @param length The length of the snapshot. (The length of the document's text, excluding the final newline.)
+     * @return The snapshot.
+     */
+    public Snapshot createSnapshot(int length) {
+        if (length < 0 || length > length()) {
+            throw new IndexOutOfBoundsException("Invalid snapshot length " + length + " for content length " +
+                    length() + ".");
+        }
+        return new Snapshot(root, length);
+    }
+
+    /**
+     * Store inserted text in the add buffer. Short insertions are appended to the current chunk. Long insertions, such
+     * as loading a file, are stored in a buffer of their own.
+     * @param str The inserted text.
+     * @return The tree of pieces for the inserted text.
+     */
+    private Piece storeText(String str) {
+        int length = str.length();
+        if (length > MAX_CHUNKED_INSERT_LENGTH) {
+            return newPiece(str.toCharArray(), 0, length);
+        }
+        Piece pieces = null;
+        int stored = 0;
+        while (stored < length) {
+            if (chunk == null || chunkLength == chunk.length) {
+                chunk = new char[CHUNK_SIZE];
+                chunkLength = 0;
+            }
+            int count = Math.min(length - stored, chunk.length - chunkLength);
+            str.getChars(stored, stored + count, chunk, chunkLength);
+            pieces = merge(pieces, newPiece(chunk, chunkLength, count));
+            chunkLength += count;
+            stored += count;
+        }
+        return pieces;
+    }
+
+    private Piece newPiece(char[] buffer, int start, int length) {
+        return new Piece(buffer, start, length, random.nextInt(), null, null);
+    }
+
+    private static Piece lastPiece(Piece node) {
+        if (node == null) {
+            return null;
+        }
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node;
+    }
+
+    /**
+     * Split the tree into the text before the offset, and the text after it. Splitting a piece if the offset lies
+     * inside of it. The given tree is not modified.
+     */
+    private Piece[] split(Piece node, int offset) {
+        if (node == null) {
+            return new Piece[] { null, null };
+        }
+        int leftLength = totalLength(node.left);
+        if (offset <= leftLength) {
+            Piece[] result = split(node.left, offset);
+            result[1] = node.withChildren(result[1], node.right);
+            return result;
+        }
+        if (offset >= leftLength + node.length) {
+            Piece[] result = split(node.right, offset - leftLength - node.length);
+            result[0] = node.withChildren(node.left, result[0]);
+            return result;
+        }
+        int firstLength = offset - leftLength;
+        Piece first = newPiece(node.buffer, node.start, firstLength);
+        Piece second = newPiece(node.buffer, node.start + firstLength, node.length - firstLength);
+        return new Piece[] { merge(node.left, first), merge(second, node.right) };
+    }
+
+    /**
+     * Merge two trees, where all text of the left tree comes before all text of the right tree. The given trees are not
+     * modified.
+     */
+    private static Piece merge(Piece left, Piece right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            return left.withChildren(left.left, merge(left.right, right));
+        } else {
+            return right.withChildren(merge(left, right.left), right.right);
+        }
+    }
+
+    private static int totalLength(Piece node) {
+        return node == null ? 0 : node.totalLength;
+    }
+
+    /**
+     * Copy the text between two offsets of a tree into an array.
+     */
+    private static void copyChars(Piece node, int start, int end, char[] dst, int dstBegin) {
+        while (node != null && start < end) {
+            int leftLength = totalLength(node.left);
+            if (start < leftLength) {
+                int leftEnd = Math.min(end, leftLength);
+                copyChars(node.left, start, leftEnd, dst, dstBegin);
+                dstBegin += leftEnd - start;
+                start = leftEnd;
+            }
+            int pieceOffset = start - leftLength;
+            if (start < end && pieceOffset < node.length) {
+                int count = Math.min(end - start, node.length - pieceOffset);
+                System.arraycopy(node.buffer, node.start + pieceOffset, dst, dstBegin, count);
+                dstBegin += count;
+                start += count;
+            }
+            int rightOffset = leftLength + node.length;
+            start -= rightOffset;
+            end -= rightOffset;
+            node = node.right;
+        }
+    }
+
+    @Override
+    public Position createPosition(int offset) throws BadLocationException {
+        removeUnusedMarks();
+        long index = offset < gapStart ? offset : offset + gapLength;
+        MarkPosition position = new MarkPosition();
+        Mark mark = new Mark(position, unusedMarks, index);
+        position.mark = mark;
+
+        // Insert the mark after all marks with the same index.
+        int insertIndex = findFirstMark(index + 1);
+        if (markCount == marks.length) {
+            Mark[] newMarks = new Mark[marks.length * 2];
+            System.arraycopy(marks, 0, newMarks, 0, markCount);
+            marks = newMarks;
+        }
+        System.arraycopy(marks, insertIndex, marks, insertIndex + 1, markCount - insertIndex);
+        marks[insertIndex] = mark;
+        markCount++;
+        return position;
+    }
+
+    private long getOffset(Mark mark) {
+        return mark.index < gapStart + gapLength ? mark.index : mark.index - gapLength;
+    }
+
+    /**
+     * @return The position in the marks array of the first mark with an index of at least the given index.
+     */
+    private int findFirstMark(long index) {
+        int low = 0;
+        int high = markCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (marks[middle].index < index) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Move the virtual gap to the given offset. Only the marks between the old and new location of the gap move from
+     * one side of the gap to the other.
+     */
+    private void moveGap(long offset) {
+        if (offset < gapStart) {
+            for (int i = findFirstMark(offset); i < markCount && marks[i].index <= gapStart; i++) {
+                marks[i].index += gapLength;
+            }
+        } else if (offset > gapStart) {
+            long end = offset + gapLength;
+            for (int i = findFirstMark(gapStart + gapLength); i < markCount && marks[i].index < end; i++) {
+                marks[i].index -= gapLength;
+            }
+        }
+        gapStart = offset;
+    }
+
+    /**
+     * The inserted text takes up the start of the gap, once the gap is moved to the insertion point. Marks at the
+     * insertion point are already after the gap, so they move after the inserted text. Except for marks at the start of
+     * the content, which are moved before the gap so that they stay at the start. (As for GapContent.)
+     */
+    private void updateMarksForInsert(int where, int length) {
+        moveGap(where);
+        if (where == 0) {
+            long gapEnd = gapStart + gapLength;
+            for (int i = findFirstMark(gapEnd); i < markCount && marks[i].index == gapEnd; i++) {
+                marks[i].index = gapStart;
+            }
+        }
+        gapStart += length;
+        gapLength -= length;
+    }
+
+    /**
+     * Marks inside the removed text move to the start of the removal.
+     */
+    private void updateMarksForRemove(int where, int length) {
+        moveGap(where);
+        long gapEnd = gapStart + gapLength;
+        long newGapEnd = gapEnd + length;
+        for (int i = findFirstMark(gapEnd); i < markCount && marks[i].index < newGapEnd; i++) {
+            marks[i].index = newGapEnd;
+        }
+        gapLength += length;
+    }
+
+    /**
+     * Discard the marks of all positions which are no longer referenced, once they make up a large share of the marks.
+     */
+    private void removeUnusedMarks() {
+        while (unusedMarks.poll() != null) {
+            unusedMarkCount++;
+        }
+        if (unusedMarkCount <= Math.max(16, markCount / 2)) {
+            return;
+        }
+        int usedCount = 0;
+        for (int i = 0; i < markCount; i++) {
+            if (marks[i].get() != null) {
+                marks[usedCount++] = marks[i];
+            }
+        }
+        for (int i = usedCount; i < markCount; i++) {
+            marks[i] = null;
+        }
+        markCount = usedCount;
+        unusedMarkCount = 0;
+    }
+
+    /**
+     * The mark of a position. Only weakly refers to its position, so that it is discarded once the position is no
+     * longer referenced.
+     */
+    private static class Mark extends WeakReference<Position> {
+        long index;
+
+        Mark(Position position, ReferenceQueue<Position> queue, long index) {
+            super(position, queue);
+            this.index = index;
+        }
+    }
+
+    private class MarkPosition implements Position {
+        Mark mark;
+
+        @Override
+        public int getOffset() {
+            return (int) PieceTableContent.this.getOffset(mark);
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(getOffset());
+        }
+    }
+
+    /**
+     * An immutable view of the content at the time it was created. Safe to read on any thread.
+     */
+    public static class Snapshot implements CharSequence {
+        private final Piece root;
+        private final int length;
+
+        private Snapshot(Piece root, int length) {
+            this.root = root;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for length " + length);
+            }
+            Piece node = root;
+            while (true) {
+                int leftLength = totalLength(node.left);
+                if (index < leftLength) {
+                    node = node.left;
+                } else if (index < leftLength + node.length) {
+                    return node.buffer[node.start + index - leftLength];
+                } else {
+                    index -= leftLength + node.length;
+                    node = node.right;
+                }
+            }
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("Invalid range [" + start + ", " + end + ") for length " + length);
+            }
+            char[] chars = new char[end - start];
+            copyChars(root, start, end, chars, 0);
+            return new String(chars);
+        }
+
+        @Override
+        public String toString() {
+            char[] chars = new char[length];
+            copyChars(root, 0, length, chars, 0);
+            return new String(chars);
+        }
+    }
+}
@@ -1,30 +1,45 @@
 package com.atonementcrystals.dnr.vikari.ide.gui.document;
 
-import com.atonementcrystals.dnr.vikari.ide.Vide;
 import com.atonementcrystals.dnr.vikari.ide.gui.VideEditorPane;
 import com.atonementcrystals.dnr.vikari.ide.gui.VideEditorWindow;
-import com.atonementcrystals.dnr.vikari.ide.parsing.VikariSyntaxHighlighter;
+import com.atonementcrystals.dnr.vikari.ide.parsing.EditBatch;
+import com.atonementcrystals.dnr.vikari.ide.parsing.HighlightSession;
+import com.atonementcrystals.dnr.vikari.ide.parsing.RowStyles;
 
-import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 
 /**
- * For managing updates related to the VideSyntaxHighlighter component of a VideEditorWindow.
+ * For managing updates related to the VideSyntaxHighlighter component of a VideEditorWindow.<br/>
+ * <br/>
+ * Edits are not highlighted one at a time. Instead, they are merged into a pending {@link EditBatch} which is sent to
+ * the window's HighlightSession at most once per frame. And never while a previous batch is still being highlighted. So
+ * holding down a key or undoing many edits results in only one pass of lexing and parsing for each batch of edits. The
+ * text of the document is likewise only copied into a DocumentSnapshot once for each batch.<br/>
+ * <br/>
+ * Rows are only highlighted while they are in view. So any rows scrolled into view which are not yet highlighted are
+ * sent to the HighlightSession along with the next batch of edits.
  */
 public class SyntaxHighlightDocumentListener implements DocumentListener {
+    private static final int FLUSH_DELAY_MILLIS = 16;
+
     private final VideEditorWindow videEditorWindow;
     private final VideEditorPane textEditorPane;
-    private VikariSyntaxHighlighter syntaxHighlighter;
+    private final Timer flushTimer;
+    private final HighlightSession highlightSession;
+    private EditBatch pendingEdits;
+    private boolean highlightInProgress;
+    private boolean checkVisibleRows;
 
     public SyntaxHighlightDocumentListener(VideEditorWindow videEditorWindow) {
         this.videEditorWindow = videEditorWindow;
         this.textEditorPane = videEditorWindow.getTextEditorPane();
-        this.syntaxHighlighter = videEditorWindow.getVikariSyntaxHighlighter();
-    }
+        this.highlightSession = videEditorWindow.getHighlightSession();
+        this.pendingEdits = new EditBatch();
 
-    public void setSyntaxHighlighter(VikariSyntaxHighlighter syntaxHighlighter) {
-        this.syntaxHighlighter = syntaxHighlighter;
+        flushTimer = new Timer(FLUSH_DELAY_MILLIS, event -> flushPendingEdits());
+        flushTimer.setRepeats(false);
     }
 
     @Override
@@ -33,37 +48,97 @@ public class SyntaxHighlightDocumentListener implements DocumentListener {
 
     @Override
     public void insertUpdate(DocumentEvent documentEvent) {
-        String text = textEditorPane.getText();
-        videEditorWindow.setFileContents(text);
+        if (highlightSession.isEnabled()) {
+            addPendingEdit(documentEvent.getOffset(), documentEvent.getLength());
+        }
+    }
 
-        if (syntaxHighlighter.isEnabled()) {
-            int offset = documentEvent.getOffset();
-            int length = documentEvent.getLength();
+    @Override
+    public void removeUpdate(DocumentEvent documentEvent) {
+        if (highlightSession.isEnabled()) {
+            // Use a negative length to model removal of text.
+            addPendingEdit(documentEvent.getOffset(), -documentEvent.getLength());
+        }
+    }
 
-            String filePath = videEditorWindow.getCurrentFilePath();
+    /**
+     * Merge an edit into the pending batch, and schedule the batch to be highlighted on the next frame.
+     * @param offset The offset into the text for the start of the edit.
+     * @param length The length of the edit. If negative, it represents a deletion, rather than an addition.
+     */
+    private void addPendingEdit(int offset, int length) {
+        pendingEdits.add(offset, length);
+        scheduleFlush();
+    }
 
-            SwingUtilities.invokeLater(() -> {
-                syntaxHighlighter.highlightRegion(filePath, text, offset, length, textEditorPane);
-            });
+    /**
+     * Highlight any rows in the viewport which are not yet highlighted. Must be called whenever the viewport changes.
+     */
+    public void highlightVisibleRows() {
+        if (highlightSession.isEnabled()) {
+            checkVisibleRows = true;
+            scheduleFlush();
         }
     }
 
-    @Override
-    public void removeUpdate(DocumentEvent documentEvent) {
-        if (syntaxHighlighter.isEnabled()) {
-            String text = textEditorPane.getText();
-            videEditorWindow.setFileContents(text);
-
-            int offset = documentEvent.getOffset();
-            int length = documentEvent.getLength();
-            String filePath = videEditorWindow.getCurrentFilePath();
-
-            SwingUtilities.invokeLater(() -> {
-                // Use a negative length to model removal of text.
-                syntaxHighlighter.highlightRegion(filePath, text, offset, -length, textEditorPane);
-            });
-        } else {
-            videEditorWindow.setFileContents(textEditorPane.getText());
+    /**
+     * Restyle the rows in view for a new color theme. The rows are restyled from the tokens already cached by the
+     * HighlightSession, so nothing is lexed again. Rows out of view are restyled once they are scrolled into view.
+     */
+    public void restyle() {
+        RowStyles rowStyles = textEditorPane.getRowStyles();
+        rowStyles.reset(textEditorPane.getLineIndex().getRowCount());
+        highlightVisibleRows();
+    }
+
+    private void scheduleFlush() {
+        if (!highlightInProgress && !flushTimer.isRunning()) {
+            flushTimer.start();
+        }
+    }
+
+    /**
+     * Send the pending batch of edits to the syntax highlighter, along with any rows in view which are not yet
+     * highlighted. Unless the previous batch is still in progress, in which case this is done again once its results
+     * are published.
+     */
+    private void flushPendingEdits() {
+        if (highlightInProgress || (pendingEdits.isEmpty() && !checkVisibleRows)) {
+            return;
+        }
+        EditBatch editBatch = pendingEdits;
+        pendingEdits = new EditBatch();
+        checkVisibleRows = false;
+
+        if (highlightSession.isEnabled()) {
+            int[] visibleRows = textEditorPane.getVisibleRows();
+            RowStyles rowStyles = textEditorPane.getRowStyles();
+            int firstRow = rowStyles.findFirstUnhighlighted(visibleRows[0], visibleRows[1]);
+            int lastRow = rowStyles.findLastUnhighlighted(visibleRows[0], visibleRows[1]);
+            if (editBatch.isEmpty() && firstRow == -1) {
+                return;
+            }
+
+            highlightInProgress = true;
+            highlightSession.highlightRegion(videEditorWindow.createDocumentSnapshot(), editBatch, firstRow, lastRow,
+                    textEditorPane, this::onHighlightPublished);
         }
     }
+
+    private void onHighlightPublished() {
+        highlightInProgress = false;
+
+        // Rows in view may still not be highlighted if the results were discarded, or if the viewport changed since.
+        checkVisibleRows = true;
+        flushTimer.restart();
+    }
+
+    /**
+     * Discard all pending edits. For when the document's contents are about to be replaced entirely.
+     */
+    public void clearPendingEdits() {
+        flushTimer.stop();
+        pendingEdits = new EditBatch();
+        checkVisibleRows = false;
+    }
 }
@@ -2,6 +2,7 @@ package com.atonementcrystals.dnr.vikari.ide.gui.document;
 
 import com.atonementcrystals.dnr.vikari.ide.gui.VideEditorPane;
 import com.atonementcrystals.dnr.vikari.ide.gui.VideEditorWindow;
+import com.atonementcrystals.dnr.vikari.ide.journal.EditJournal;
 import com.atonementcrystals.dnr.vikari.ide.undo.UndoHistory;
 
 import javax.swing.event.DocumentEvent;
@@ -10,17 +11,19 @@ import javax.swing.text.BadLocationException;
 import javax.swing.text.StyledDocument;
 
 /**
- * For managing updates related to the UndoHistory component of a VideEditorWindow.
+ * For managing updates related to the UndoHistory and EditJournal components of a VideEditorWindow.
  */
 public class UndoHistoryDocumentListener implements DocumentListener {
     private final VideEditorWindow videEditorWindow;
     private final VideEditorPane textEditorPane;
     private final UndoHistory undoHistory;
+    private final EditJournal editJournal;
 
     public UndoHistoryDocumentListener(VideEditorWindow videEditorWindow) {
         this.videEditorWindow = videEditorWindow;
         this.textEditorPane = videEditorWindow.getTextEditorPane();
         this.undoHistory = videEditorWindow.getUndoHistory();
+        this.editJournal = videEditorWindow.getEditJournal();
     }
 
     @Override
@@ -33,7 +36,7 @@ public class UndoHistoryDocumentListener implements DocumentListener {
         int offset = documentEvent.getOffset();
         int length = documentEvent.getLength();
 
-        if (undoHistory.isEnabled()) {
+        if (undoHistory.isEnabled() || editJournal.isEnabled()) {
             String addedText;
 
             try {
@@ -42,30 +45,31 @@ public class UndoHistoryDocumentListener implements DocumentListener {
                 throw new RuntimeException(e);
             }
 
-            // TODO: Add CaretListener to finalize edits when no text is added or removed.
-            // TODO: Detect edits greater than length 1 and finalize previous edit before adding them.
-            videEditorWindow.addInsertTextUndoHistoryItem(offset, length, addedText);
+            if (undoHistory.isEnabled()) {
+                videEditorWindow.addInsertTextUndoHistoryItem(offset, length, addedText);
+            }
+
+            // Undone and redone edits are journaled too, so that the journal always matches the document.
+            if (editJournal.isEnabled()) {
+                videEditorWindow.addInsertTextEditJournalRecord(offset, addedText);
+            }
         }
     }
 
     @Override
     public void removeUpdate(DocumentEvent documentEvent) {
-        if (undoHistory.isEnabled()) {
-            int startIndex = documentEvent.getOffset();
-            int length = documentEvent.getLength();
-            int endIndex = startIndex + length;
-            String removedText;
+        int startIndex = documentEvent.getOffset();
+        int length = documentEvent.getLength();
 
-            try {
-                String fileContents = videEditorWindow.getFileContents();
-                removedText = fileContents.substring(startIndex, endIndex);
-            } catch (IndexOutOfBoundsException e) {
-                throw new RuntimeException(e);
-            }
+        if (undoHistory.isEnabled()) {
+            // The text is already removed from the document, so it is recorded by the document filter beforehand.
+            String removedText = videEditorWindow.getDocumentFilter().getRemovedText(startIndex, length);
 
-            // TODO: Add CaretListener to finalize edits when no text is added or removed.
-            // TODO: Detect edits greater than length 1 and finalize previous edit before adding them.
             videEditorWindow.addRemoveTextUndoHistoryItem(startIndex, length, removedText);
         }
+
+        if (editJournal.isEnabled()) {
+            videEditorWindow.addRemoveTextEditJournalRecord(startIndex, length);
+        }
     }
 }
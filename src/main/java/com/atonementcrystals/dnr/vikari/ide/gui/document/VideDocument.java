@@ -0,0 +1,38 @@
+package com.atonementcrystals.dnr.vikari.ide.gui.document;
+
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyleContext;
+
+/**
+ * The document of a VideEditorPane. Its text is stored in a {@link PieceTableContent}, so that inserting and removing
+ * text anywhere in a large file is cheap, and so that a snapshot of the text can be taken without copying it.<br/>
+ * <br/>
+ * The syntax highlighting style runs are not stored with the text. They are kept separately for each row in the
+ * editor pane's RowStyles, which the pane's views paint the text with.
+ */
+public class VideDocument extends DefaultStyledDocument {
+    private final PieceTableContent content;
+
+    public VideDocument() {
+        this(new PieceTableContent());
+    }
+
+    private VideDocument(PieceTableContent content) {
+        super(content, new StyleContext());
+        this.content = content;
+    }
+
+    /**
+     * Take a snapshot of the document's current text in O(1) time. The snapshot is unaffected by any later edits, and
+     * is safe to read on any thread.
+     * @return The snapshot.
+     */
+    public PieceTableContent.Snapshot createSnapshot() {
+        readLock();
+        try {
+            return content.createSnapshot(getLength());
+        } finally {
+            readUnlock();
+        }
+    }
+}
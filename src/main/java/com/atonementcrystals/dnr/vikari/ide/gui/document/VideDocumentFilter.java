@@ -0,0 +1,74 @@
+package com.atonementcrystals.dnr.vikari.ide.gui.document;
+
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DocumentFilter;
+
+/**
+ * For structuring all DocumentFilters of a VideEditorWindow's document.<br/>
+ * <br/>
+ * Also records the text about to be removed by each removal, just before it is removed. So that the DocumentListeners
+ * notified of the removal can still read the removed text, without keeping a copy of the whole document.
+ */
+public class VideDocumentFilter extends DocumentFilter {
+    private final TabsToSpacesDocumentFilter tabsToSpacesFilter;
+    private int removedOffset = -1;
+    private String removedText;
+
+    public VideDocumentFilter() {
+        tabsToSpacesFilter = new TabsToSpacesDocumentFilter();
+    }
+
+    /**
+     * Get the text removed by the removal currently being made to the document. Must only be called by a
+     * DocumentListener while it is notified of that removal.
+     * @param offset The offset of the removal.
+     * @param length The length of the removal.
+     * @return The removed text.
+     */
+    public String getRemovedText(int offset, int length) {
+        if (removedOffset != offset || removedText == null || removedText.length() != length) {
+            throw new IllegalStateException("No removed text was recorded for the removal at offset " + offset +
+                    " of length " + length + ".");
+        }
+        return removedText;
+    }
+
+    private void recordRemovedText(DocumentFilter.FilterBypass fb, int offset, int length)
+            throws BadLocationException {
+        removedOffset = offset;
+        removedText = fb.getDocument().getText(offset, length);
+    }
+
+    private void clearRemovedText() {
+        removedOffset = -1;
+        removedText = null;
+    }
+
+    @Override
+    public void insertString(DocumentFilter.FilterBypass fb, int offset, String string, AttributeSet attr)
+            throws BadLocationException {
+        tabsToSpacesFilter.insertString(fb, offset, string, attr);
+    }
+
+    @Override
+    public void remove(DocumentFilter.FilterBypass fb, int offset, int length) throws BadLocationException {
+        recordRemovedText(fb, offset, length);
+        try {
+            tabsToSpacesFilter.remove(fb, offset, length);
+        } finally {
+            clearRemovedText();
+        }
+    }
+
+    @Override
+    public void replace(DocumentFilter.FilterBypass fb, int offset, int length, String text, AttributeSet attrs)
+            throws BadLocationException {
+        recordRemovedText(fb, offset, length);
+        try {
+            tabsToSpacesFilter.replace(fb, offset, length, text, attrs);
+        } finally {
+            clearRemovedText();
+        }
+    }
+}
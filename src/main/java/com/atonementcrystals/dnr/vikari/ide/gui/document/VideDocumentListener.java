@@ -1,9 +1,11 @@
 package com.atonementcrystals.dnr.vikari.ide.gui.document;
 
+import com.atonementcrystals.dnr.vikari.ide.gui.VideEditorPane;
 import com.atonementcrystals.dnr.vikari.ide.gui.VideEditorWindow;
 
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
 
 /**
  * For structuring a specified order of all DocumentListeners that depend on a given order of execution.
@@ -34,6 +36,14 @@ public class VideDocumentListener implements DocumentListener {
 
     @Override
     public void insertUpdate(DocumentEvent e) {
+        VideEditorPane textEditorPane = videEditorWindow.getTextEditorPane();
+        textEditorPane.incrementDocumentVersion();
+        try {
+            String insertedText = e.getDocument().getText(e.getOffset(), e.getLength());
+            textEditorPane.updateRowsForInsert(e.getOffset(), insertedText);
+        } catch (BadLocationException ex) {
+            throw new RuntimeException(ex);
+        }
         videEditorWindow.setEdited(true);
         undoHistoryListener.insertUpdate(e);
         syntaxHighlightListener.insertUpdate(e);
@@ -42,6 +52,9 @@ public class VideDocumentListener implements DocumentListener {
 
     @Override
     public void removeUpdate(DocumentEvent e) {
+        VideEditorPane textEditorPane = videEditorWindow.getTextEditorPane();
+        textEditorPane.incrementDocumentVersion();
+        textEditorPane.updateRowsForRemove(e.getOffset(), e.getLength());
         videEditorWindow.setEdited(true);
         undoHistoryListener.removeUpdate(e);
         syntaxHighlightListener.removeUpdate(e);
@@ -0,0 +1,83 @@
+package com.atonementcrystals.dnr.vikari.ide.gui.view;
+
+import com.atonementcrystals.dnr.vikari.ide.gui.VideEditorPane;
+import com.atonementcrystals.dnr.vikari.ide.parsing.RowStyles;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+import javax.swing.text.TabExpander;
+import javax.swing.text.Utilities;
+import javax.swing.text.View;
+import java.awt.Color;
+import java.awt.Graphics2D;
+
+/**
+ * Paints the text of a row in the colors of the style runs recorded for it in the editor pane's {@link RowStyles}.
+ * Shared by the views of both word wrap modes.
+ */
+final class StyleRunPainter {
+
+    private StyleRunPainter() {
+    }
+
+    /**
+     * Paint the unselected text between two offsets within a single row. Text not covered by any style run, such as
+     * the text of a row which is not yet highlighted, is painted in the pane's foreground color.
+     * @param view The view painting the text.
+     * @param tabExpander The tab expander of the view.
+     * @param segment A segment to fetch the text into.
+     * @param g The graphics to paint with.
+     * @param x The x coordinate to paint the text at.
+     * @param y The y coordinate of the baseline of the text.
+     * @param p0 The start offset of the text.
+     * @param p1 The end offset of the text.
+     * @return The x coordinate at the end of the painted text.
+     * @throws BadLocationException If the offsets are not within the document.
+     */
+    static float drawStyleRuns(View view, TabExpander tabExpander, Segment segment, Graphics2D g, float x, float y,
+                               int p0, int p1) throws BadLocationException {
+        VideEditorPane editorPane = (VideEditorPane) view.getContainer();
+        Document document = view.getDocument();
+        if (!editorPane.isEnabled()) {
+            return drawText(document, tabExpander, segment, g, editorPane.getDisabledTextColor(), x, y, p0, p1);
+        }
+
+        Element root = document.getDefaultRootElement();
+        int row = root.getElementIndex(p0);
+        int rowOffset = root.getElement(row).getStartOffset();
+        RowStyles rowStyles = editorPane.getRowStyles();
+        Color foreground = editorPane.getForeground();
+
+        int offset = p0;
+        int runCount = rowStyles.getRunCount(row);
+        for (int i = 0; i < runCount && offset < p1; i++) {
+            int runStart = rowOffset + rowStyles.getColumn(row, i);
+            if (runStart >= p1) {
+                break;
+            }
+            int runEnd = Math.min(p1, runStart + rowStyles.getLength(row, i));
+            if (runEnd <= offset) {
+                continue;
+            }
+            if (runStart > offset) {
+                x = drawText(document, tabExpander, segment, g, foreground, x, y, offset, runStart);
+                offset = runStart;
+            }
+            x = drawText(document, tabExpander, segment, g, rowStyles.getColor(row, i), x, y, offset, runEnd);
+            offset = runEnd;
+        }
+        if (offset < p1) {
+            x = drawText(document, tabExpander, segment, g, foreground, x, y, offset, p1);
+        }
+        return x;
+    }
+
+    private static float drawText(Document document, TabExpander tabExpander, Segment segment, Graphics2D g,
+                                  Color color, float x, float y, int p0, int p1) throws BadLocationException {
+        document.getText(p0, p1 - p0, segment);
+        g.setColor(color);
+        return Utilities.drawTabbedText(segment, x, y, g, tabExpander, p0);
+    }
+}
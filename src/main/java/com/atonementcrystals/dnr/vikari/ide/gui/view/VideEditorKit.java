@@ -0,0 +1,50 @@
+package com.atonementcrystals.dnr.vikari.ide.gui.view;
+
+import com.atonementcrystals.dnr.vikari.ide.gui.VideEditorPane;
+import com.atonementcrystals.dnr.vikari.ide.gui.document.VideDocument;
+
+import javax.swing.JEditorPane;
+import javax.swing.text.Document;
+import javax.swing.text.StyledEditorKit;
+import javax.swing.text.ViewFactory;
+
+/**
+ * The EditorKit of a VideEditorPane. Creates a {@link VideDocument} for the pane, and views which lay out its rows at
+ * the fixed width and height of a monospace font. The views paint the text of each row in the colors of its style
+ * runs, so the document itself is never styled.
+ */
+public class VideEditorKit extends StyledEditorKit {
+    private final ViewFactory viewFactory;
+    private VideEditorPane editorPane;
+
+    public VideEditorKit() {
+        viewFactory = element -> {
+            if (editorPane != null && editorPane.isWordWrap()) {
+                return new VideWrappedPlainView(element);
+            }
+            return new VidePlainView(element);
+        };
+    }
+
+    @Override
+    public void install(JEditorPane editorPane) {
+        super.install(editorPane);
+        this.editorPane = (VideEditorPane) editorPane;
+    }
+
+    @Override
+    public void deinstall(JEditorPane editorPane) {
+        super.deinstall(editorPane);
+        this.editorPane = null;
+    }
+
+    @Override
+    public ViewFactory getViewFactory() {
+        return viewFactory;
+    }
+
+    @Override
+    public Document createDefaultDocument() {
+        return new VideDocument();
+    }
+}
@@ -0,0 +1,59 @@
+package com.atonementcrystals.dnr.vikari.ide.gui.view;
+
+import com.atonementcrystals.dnr.vikari.ide.gui.VideEditorPane;
+import com.atonementcrystals.dnr.vikari.ide.util.LineIndex;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.PlainView;
+import javax.swing.text.ViewFactory;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+
+/**
+ * The view of a VideEditorPane while word wrap is off. Each row is one line of the fixed height of the font, and only
+ * the rows within the clip are painted.<br/>
+ * <br/>
+ * As the font is monospace, the preferred width is simply the length of the longest row times the width of a
+ * character. Which the pane's LineIndex tracks in O(log n) time for each edit. So no row is ever measured, and an edit
+ * never scans the document for its new longest row.
+ */
+public class VidePlainView extends PlainView {
+
+    public VidePlainView(Element element) {
+        super(element);
+    }
+
+    @Override
+    protected float drawUnselectedText(Graphics2D g, float x, float y, int p0, int p1) throws BadLocationException {
+        return StyleRunPainter.drawStyleRuns(this, this, getLineBuffer(), g, x, y, p0, p1);
+    }
+
+    @Override
+    public float getPreferredSpan(int axis) {
+        // A view which is not yet attached to its editor pane has no LineIndex to measure.
+        if (axis != X_AXIS || getContainer() == null) {
+            return super.getPreferredSpan(axis);
+        }
+        LineIndex lineIndex = ((VideEditorPane) getContainer()).getLineIndex();
+        updateMetrics();
+        return lineIndex.getMaxRowLength() * metrics.charWidth('m');
+    }
+
+    @Override
+    protected void updateDamage(DocumentEvent changes, Shape a, ViewFactory f) {
+        updateMetrics();
+        Element map = getElement();
+        DocumentEvent.ElementChange elementChange = changes.getChange(map);
+        if (elementChange != null) {
+            // Rows were inserted or removed, so all rows below the edit moved.
+            preferenceChanged(null, true, true);
+            getContainer().repaint();
+        } else {
+            int line = map.getElementIndex(changes.getOffset());
+            damageLineRange(line, line, a, getContainer());
+            preferenceChanged(null, true, false);
+        }
+    }
+}
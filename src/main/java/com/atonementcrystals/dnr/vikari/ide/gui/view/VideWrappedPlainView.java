@@ -0,0 +1,22 @@
+package com.atonementcrystals.dnr.vikari.ide.gui.view;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.WrappedPlainView;
+import java.awt.Graphics2D;
+
+/**
+ * The view of a VideEditorPane while word wrap is on. Each row is wrapped into as many lines of the fixed height of the
+ * font as it needs to fit the width of the pane.
+ */
+public class VideWrappedPlainView extends WrappedPlainView {
+
+    public VideWrappedPlainView(Element element) {
+        super(element, true);
+    }
+
+    @Override
+    protected float drawUnselectedText(Graphics2D g, float x, float y, int p0, int p1) throws BadLocationException {
+        return StyleRunPainter.drawStyleRuns(this, this, getLineBuffer(), g, x, y, p0, p1);
+    }
+}
@@ -0,0 +1,376 @@
+package com.atonementcrystals.dnr.vikari.ide.journal;
+
+import com.atonementcrystals.dnr.vikari.ide.util.GlobalUserSettings;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of the unsaved edits of one VideEditorWindow, so that they can be recovered if Vide exits
+ * without saving them, such as after a crash.<br/>
+ * <br/>
+ * The journal starts from a base text. Either the contents of the file on disk, which are identified by their hash
+ * rather than copied, or a snapshot of the text. Each insert and remove made to the document after that is appended as
+ * a small binary record. Recording an edit only encodes it into memory. The records are written to the journal file on
+ * a background thread in batches, which are forced to disk together once per batch.<br/>
+ * <br/>
+ * Once the recorded edits outweigh the text itself, the journal is compacted by starting it over from a snapshot of
+ * the text. The journal file is created only once there is an edit to recover, and is deleted once the edits are saved
+ * or discarded. While the window is open, the journal file is locked, so that it is never recovered by another running
+ * instance of Vide.
+ */
+public class EditJournal {
+    static final Path RECOVERY_DIRECTORY = Path.of(GlobalUserSettings.USER_HOME, ".vide", "recovery");
+    static final String JOURNAL_EXTENSION = ".vjn";
+    static final int MAGIC = 0x56494A4E;
+    static final int VERSION = 1;
+    static final byte BASE_FILE = 1;
+    static final byte BASE_SNAPSHOT = 2;
+    static final byte RECORD_INSERT = 1;
+    static final byte RECORD_REMOVE = 2;
+
+    private static final long FLUSH_DELAY_MILLIS = 100;
+    private static final long MIN_COMPACTION_BYTES = 1024 * 1024;
+    private static final int SNAPSHOT_CHUNK_SIZE = 64 * 1024;
+
+    private static final AtomicLong JOURNAL_COUNT = new AtomicLong();
+    private static final ScheduledExecutorService WRITER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Vide-Edit-Journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path directory;
+    private final Path journalPath;
+    private boolean enabled;
+    private long recordedBytes;
+
+    // Guarded by this. Operations waiting for the writer thread, in order.
+    private final List<WriterOperation> pendingOperations;
+    private final ByteArrayOutputStream pendingRecords;
+    private boolean flushScheduled;
+
+    // Only used on the writer thread.
+    private Base base;
+    private FileChannel channel;
+    private FileLock lock;
+
+    /**
+     * An operation run on the writer thread.
+     */
+    private interface WriterOperation {
+        void run() throws IOException;
+    }
+
+    /**
+     * Instantiate a new EditJournal in the default recovery directory.
+     */
+    public EditJournal() {
+        this(RECOVERY_DIRECTORY);
+    }
+
+    /**
+     * Instantiate a new EditJournal.
+     * @param directory The directory to write the journal file to.
+     */
+    public EditJournal(Path directory) {
+        this.directory = directory;
+        this.journalPath = directory.resolve("journal-" + ProcessHandle.current().pid() + "-" +
+                JOURNAL_COUNT.incrementAndGet() + JOURNAL_EXTENSION);
+        this.pendingOperations = new ArrayList<>();
+        this.pendingRecords = new ByteArrayOutputStream();
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start the journal over from the contents of a file as they are on disk. Any previous journal file is deleted,
+     * and no new journal file is written until the next edit.
+     * @param file The file.
+     * @param fileHash The hash of the bytes of the file on disk.
+     */
+    public void reset(File file, byte[] fileHash) {
+        resetTo(new Base(file, fileHash, null), false);
+    }
+
+    /**
+     * Start the journal over from a snapshot of the text.
+     * @param file The file the text is edited for, or null for a new file.
+     * @param text An immutable snapshot of the text.
+     * @param writeNow If true, then the snapshot is written right away, so that the text can be recovered even if it
+     *                 is never edited again. It replaces the previous journal file atomically. Otherwise, any previous
+     *                 journal file is deleted, and no new journal file is written until the next edit.
+     */
+    public void reset(File file, CharSequence text, boolean writeNow) {
+        resetTo(new Base(file, null, text), writeNow);
+    }
+
+    private void resetTo(Base newBase, boolean writeNow) {
+        recordedBytes = 0;
+        enqueue(() -> {
+            base = newBase;
+            if (writeNow) {
+                openJournalFile();
+            } else {
+                closeJournalFile(true);
+            }
+        });
+    }
+
+    /**
+     * Record text inserted into the document.
+     * @param offset The offset of the insertion.
+     * @param text The inserted text.
+     */
+    public void recordInsert(int offset, String text) {
+        ByteBuffer record = ByteBuffer.allocate(13 + text.length() * 2);
+        record.put(RECORD_INSERT).putInt(offset).putInt(text.length());
+        record.asCharBuffer().put(text);
+        record.position(record.position() + text.length() * 2);
+        appendRecord(record);
+    }
+
+    /**
+     * Record text removed from the document.
+     * @param offset The offset of the removal.
+     * @param length The length of the removal.
+     */
+    public void recordRemove(int offset, int length) {
+        ByteBuffer record = ByteBuffer.allocate(13);
+        record.put(RECORD_REMOVE).putInt(offset).putInt(length);
+        appendRecord(record);
+    }
+
+    private void appendRecord(ByteBuffer record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        recordedBytes += record.position();
+
+        synchronized (this) {
+            pendingRecords.write(record.array(), 0, record.position());
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * @param textLength The current length of the text.
+     * @return True if the edits recorded since the base outweigh the text. In which case the journal should be reset
+     *         to a snapshot of the text, so that it stays quick to recover.
+     */
+    public boolean shouldCompact(int textLength) {
+        return recordedBytes > Math.max(MIN_COMPACTION_BYTES, 2L * textLength);
+    }
+
+    /**
+     * Delete the journal file, once its edits are no longer needed. Waits for the deletion to complete. No further
+     * edits are written until the journal is reset.
+     */
+    public void discard() {
+        enqueue(() -> {
+            base = null;
+            closeJournalFile(true);
+        });
+        awaitWrites();
+    }
+
+    /**
+     * Write all pending operations and records now, and wait for them to complete.
+     */
+    public void awaitWrites() {
+        try {
+            WRITER.submit(this::flush).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void enqueue(WriterOperation operation) {
+        synchronized (this) {
+            movePendingRecordsToOperations();
+            pendingOperations.add(operation);
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            WRITER.schedule(this::flush, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void movePendingRecordsToOperations() {
+        if (pendingRecords.size() > 0) {
+            byte[] records = pendingRecords.toByteArray();
+            pendingRecords.reset();
+            pendingOperations.add(() -> writeRecords(records));
+        }
+    }
+
+    /**
+     * Run the pending operations on the writer thread. All records written by them are forced to disk at once.
+     */
+    private void flush() {
+        List<WriterOperation> operations;
+        synchronized (this) {
+            movePendingRecordsToOperations();
+            operations = new ArrayList<>(pendingOperations);
+            pendingOperations.clear();
+            flushScheduled = false;
+        }
+
+        try {
+            for (WriterOperation operation : operations) {
+                operation.run();
+            }
+            if (channel != null) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            // The journal is only a safeguard. So stop journaling until it is reset, rather than interrupt editing.
+            System.out.println("IO error while writing edit journal: \"" + journalPath + "\": " + e.getMessage());
+            base = null;
+            try {
+                closeJournalFile(false);
+            } catch (IOException closeException) {
+                e.addSuppressed(closeException);
+            }
+        }
+    }
+
+    private void writeRecords(byte[] records) throws IOException {
+        if (base == null) {
+            return;
+        }
+        if (channel == null) {
+            openJournalFile();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(records);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Write the header and base to a temporary file, and then rename it over the journal file. So that the journal file
+     * always has a complete header. The temporary file is locked before it is renamed, and the old journal file is
+     * only closed after. So the journal file is never seen unlocked by another instance of Vide. The channel of the
+     * temporary file stays open to append the records to.
+     */
+    private void openJournalFile() throws IOException {
+        Files.createDirectories(directory);
+        Path tempPath = Files.createTempFile(directory, "journal-", ".tmp");
+        FileChannel tempChannel = null;
+        try {
+            tempChannel = FileChannel.open(tempPath, StandardOpenOption.WRITE);
+            OutputStream outputStream = Channels.newOutputStream(tempChannel);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream, SNAPSHOT_CHUNK_SIZE));
+            base.write(out);
+            out.flush();
+            tempChannel.force(true);
+
+            FileLock tempLock = tempChannel.tryLock();
+            if (tempLock == null) {
+                System.out.println("Failed to lock edit journal: \"" + journalPath + "\"");
+            }
+
+            try {
+                Files.move(tempPath, journalPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, journalPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            closeJournalFile(false);
+            channel = tempChannel;
+            lock = tempLock;
+            tempChannel = null;
+        } finally {
+            if (tempChannel != null) {
+                tempChannel.close();
+            }
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    private void closeJournalFile(boolean delete) throws IOException {
+        if (channel != null) {
+            // Closing the channel releases its lock.
+            channel.close();
+            channel = null;
+            lock = null;
+        }
+        if (delete) {
+            Files.deleteIfExists(journalPath);
+        }
+    }
+
+    /**
+     * The text a journal starts from.
+     */
+    private static class Base {
+        private final File file;
+        private final byte[] fileHash;
+        private final CharSequence text;
+
+        private Base(File file, byte[] fileHash, CharSequence text) {
+            this.file = file;
+            this.fileHash = fileHash;
+            this.text = text;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeBoolean(file != null);
+            if (file != null) {
+                out.writeUTF(file.getAbsolutePath());
+            }
+
+            if (fileHash != null) {
+                out.writeByte(BASE_FILE);
+                out.writeInt(fileHash.length);
+                out.write(fileHash);
+            } else {
+                out.writeByte(BASE_SNAPSHOT);
+                int length = text.length();
+                out.writeInt(length);
+                for (int start = 0; start < length; start += SNAPSHOT_CHUNK_SIZE) {
+                    String chunk = text.subSequence(start, Math.min(start + SNAPSHOT_CHUNK_SIZE, length)).toString();
+                    ByteBuffer bytes = ByteBuffer.allocate(chunk.length() * 2);
+                    bytes.asCharBuffer().put(chunk);
+                    out.write(bytes.array());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.atonementcrystals.dnr.vikari.ide.journal;
+
+import com.atonementcrystals.dnr.vikari.ide.gui.FileSaver;
+import com.atonementcrystals.dnr.vikari.ide.gui.document.TabsToSpacesDocumentFilter;
+import com.atonementcrystals.dnr.vikari.ide.gui.document.VideDocument;
+
+import javax.swing.text.BadLocationException;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * The journal file of an {@link EditJournal} left behind by an editor window which was not closed, such as after a
+ * crash. Its edits can be replayed onto its base text to recover the unsaved text.
+ */
+public class RecoveredJournal {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path journalPath;
+    private final File file;
+
+    private RecoveredJournal(Path journalPath, File file) {
+        this.journalPath = journalPath;
+        this.file = file;
+    }
+
+    /**
+     * Find the journals left in the default recovery directory.
+     * @return The recovered journals.
+     */
+    public static List<RecoveredJournal> findAll() {
+        return findAll(EditJournal.RECOVERY_DIRECTORY);
+    }
+
+    /**
+     * Find the journals left in the recovery directory. Journals which are still locked by an open editor window are
+     * skipped, and journals whose header cannot be read are deleted.
+     * @param directory The recovery directory.
+     * @return The recovered journals.
+     */
+    public static List<RecoveredJournal> findAll(Path directory) {
+        List<RecoveredJournal> journals = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return journals;
+        }
+
+        List<Path> journalPaths;
+        try (Stream<Path> paths = Files.list(directory)) {
+            journalPaths = paths.filter(path -> path.toString().endsWith(EditJournal.JOURNAL_EXTENSION)).sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        for (Path journalPath : journalPaths) {
+            if (isLocked(journalPath)) {
+                continue;
+            }
+            try (DataInputStream in = openJournal(journalPath)) {
+                journals.add(new RecoveredJournal(journalPath, readHeader(in)));
+            } catch (IOException e) {
+                deleteJournal(journalPath);
+            }
+        }
+        return journals;
+    }
+
+    private static boolean isLocked(Path journalPath) {
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.READ)) {
+            FileLock lock = channel.tryLock(0, Long.MAX_VALUE, true);
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static DataInputStream openJournal(Path journalPath) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(journalPath), BUFFER_SIZE));
+    }
+
+    private static File readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != EditJournal.MAGIC || in.readInt() != EditJournal.VERSION) {
+            throw new IOException("Not an edit journal.");
+        }
+        return in.readBoolean() ? new File(in.readUTF()) : null;
+    }
+
+    private static void deleteJournal(Path journalPath) {
+        try {
+            Files.deleteIfExists(journalPath);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return The file the journal was edited for, or null for a new file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Replay the edits of the journal onto its base text. A record cut short by a crash ends the replay.
+     * @return The recovered text.
+     * @throws IOException If the journal cannot be read, or its base file was changed since it was written.
+     */
+    public String replay() throws IOException {
+        try (DataInputStream in = openJournal(journalPath)) {
+            readHeader(in);
+            VideDocument document = new VideDocument();
+            document.setDocumentFilter(new TabsToSpacesDocumentFilter());
+            document.insertString(0, readBase(in), null);
+            while (applyRecord(in, document)) {
+                // Keep replaying.
+            }
+            return document.getText(0, document.getLength());
+        } catch (BadLocationException e) {
+            throw new IOException("The edits of the journal do not match its base text.", e);
+        }
+    }
+
+    /**
+     * Read the base text. A base file is read as it is when opened by the editor, with normalized line separators.
+     */
+    private String readBase(DataInputStream in) throws IOException {
+        byte baseType = in.readByte();
+        if (baseType == EditJournal.BASE_FILE) {
+            byte[] expectedHash = in.readNBytes(in.readInt());
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            MessageDigest digest = FileSaver.createContentDigest();
+            if (!Arrays.equals(expectedHash, digest.digest(bytes))) {
+                throw new IOException("The file was changed since its edits were journaled.");
+            }
+            return new String(bytes, StandardCharsets.UTF_8).replace("\r\n", "\n").replace('\r', '\n');
+        } else if (baseType == EditJournal.BASE_SNAPSHOT) {
+            int length = in.readInt();
+            byte[] bytes = in.readNBytes(length * 2);
+            if (bytes.length != length * 2) {
+                throw new EOFException("The snapshot of the journal is incomplete.");
+            }
+            return ByteBuffer.wrap(bytes).asCharBuffer().toString();
+        }
+        throw new IOException("Unknown base type: " + baseType);
+    }
+
+    /**
+     * Apply the next record of the journal to the document.
+     * @return True if a record was applied, or false if there are no more complete records.
+     */
+    private static boolean applyRecord(DataInputStream in, VideDocument document)
+            throws IOException, BadLocationException {
+        int type = in.read();
+        if (type != EditJournal.RECORD_INSERT && type != EditJournal.RECORD_REMOVE) {
+            return false;
+        }
+
+        int offset;
+        int length;
+        byte[] chars;
+        int checksum;
+        try {
+            offset = in.readInt();
+            length = in.readInt();
+            if (length < 0 || length > Integer.MAX_VALUE / 2) {
+                return false;
+            }
+            chars = type == EditJournal.RECORD_INSERT ? in.readNBytes(length * 2) : new byte[0];
+            checksum = in.readInt();
+        } catch (EOFException e) {
+            return false;
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(9 + chars.length);
+        record.put((byte) type).putInt(offset).putInt(length).put(chars);
+        CRC32 crc = new CRC32();
+        crc.update(record.array());
+        if ((int) crc.getValue() != checksum || (type == EditJournal.RECORD_INSERT && chars.length != length * 2)) {
+            return false;
+        }
+
+        if (type == EditJournal.RECORD_INSERT) {
+            document.insertString(offset, ByteBuffer.wrap(chars).asCharBuffer().toString(), null);
+        } else {
+            document.remove(offset, length);
+        }
+        return true;
+    }
+
+    /**
+     * Delete the journal file, once it is recovered or discarded.
+     */
+    public void delete() {
+        deleteJournal(journalPath);
+    }
+}
@@ -0,0 +1,81 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+import com.atonementcrystals.dnr.vikari.ide.util.LineIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the rows at which a file can be split into chunks, so that the chunks can be lexed and parsed in parallel. A
+ * chunk may only begin on a row which does not begin inside of a multiline comment or string.<br/>
+ * <br/>
+ * The scan only looks for the delimiters of multiline comments, strings, and characters, rather than lexing the text.
+ * So it is much faster than lexing, but the rows it finds are only a best guess. Each must still be checked against
+ * the {@link LexerState} found for it once the chunk before it is lexed.
+ */
+public class ChunkBoundaryScanner {
+    /**
+     * Split a range of rows into chunks of at least the given number of rows. (The final chunk may have fewer.)
+     * @param text The full text contents of the file.
+     * @param lineIndex The line index for the text.
+     * @param startRow The first row to scan. Must not begin inside a multiline token.
+     * @param endRow The last row to scan.
+     * @param chunkRowCount The minimum number of rows in each chunk.
+     * @return The first row of each chunk in order, followed by the row after endRow.
+     */
+    public static int[] findChunkStartRows(String text, LineIndex lineIndex, int startRow, int endRow,
+                                           int chunkRowCount) {
+        List<Integer> chunkStartRows = new ArrayList<>();
+        chunkStartRows.add(startRow);
+
+        LexerState state = LexerState.NONE;
+        int row = startRow;
+        int nextChunkStartRow = startRow + chunkRowCount;
+        int endOffset = lineIndex.getRowEndOffset(endRow);
+
+        for (int i = lineIndex.getRowStartOffset(startRow); i < endOffset; i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                row++;
+                if (row >= nextChunkStartRow && state == LexerState.NONE) {
+                    chunkStartRows.add(row);
+                    nextChunkStartRow = row + chunkRowCount;
+                }
+                continue;
+            }
+            char next = i + 1 < endOffset ? text.charAt(i + 1) : '\n';
+
+            if (state == LexerState.NONE) {
+                if (c == '~' && next == ':') {
+                    state = LexerState.MULTILINE_COMMENT;
+                    i++;
+                } else if (c == '`' && next == '`') {
+                    state = LexerState.MULTILINE_STRING;
+                    i++;
+                } else if (c == '`' && next != '\n' && i + 2 < endOffset && text.charAt(i + 2) == '`') {
+                    // Skip a character literal, in case it is the character literal for a backtick.
+                    i += 2;
+                }
+            } else if (state == LexerState.MULTILINE_COMMENT) {
+                if (c == ':' && next == '~') {
+                    state = LexerState.NONE;
+                    i++;
+                }
+            } else if (state == LexerState.MULTILINE_STRING) {
+                if (c == '\\' && next != '\n') {
+                    i++;
+                } else if (c == '`' && next == '`') {
+                    state = LexerState.NONE;
+                    i++;
+                }
+            }
+        }
+        chunkStartRows.add(endRow + 1);
+
+        int[] result = new int[chunkStartRows.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = chunkStartRows.get(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,32 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+/**
+ * An immutable, version-stamped copy of the text of a document. Allows the {@link VikariSyntaxHighlighter} to lex and
+ * parse the text away from the Event Dispatch Thread, while still being able to detect when the results of doing so
+ * no longer match the current contents of the document.<br/>
+ * <br/>
+ * The text may be a snapshot of the document's content rather than a String. In which case it is only copied into a
+ * String the first time it is read, on the worker thread which reads it. So that taking a snapshot on the Event
+ * Dispatch Thread stays cheap even for a large file.
+ */
+public class DocumentSnapshot {
+    private final long version;
+    private final CharSequence text;
+    private String textString;
+
+    public DocumentSnapshot(long version, CharSequence text) {
+        this.version = version;
+        this.text = text;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public synchronized String getText() {
+        if (textString == null) {
+            textString = text.toString();
+        }
+        return textString;
+    }
+}
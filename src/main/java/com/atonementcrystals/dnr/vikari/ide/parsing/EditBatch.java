@@ -0,0 +1,92 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+/**
+ * Models a burst of consecutive edits to a document as one single replacement of text. The text between the start
+ * offset and {@link #getOldEnd()} from before the edits is replaced by the text between the start and end offsets
+ * after the edits. This allows many small edits to be syntax highlighted by one single pass of the {@link
+ * VikariSyntaxHighlighter}.
+ */
+public class EditBatch {
+    private int start = -1;
+    private int end = -1;
+    private int delta = 0;
+
+    public boolean isEmpty() {
+        return start == -1;
+    }
+
+    /**
+     * @return The start offset of the replaced text. (Identical both before and after the edits.)
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * @return The end offset of the replaced text after the edits.
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * @return The end offset of the replaced text before the edits.
+     */
+    public int getOldEnd() {
+        return end - delta;
+    }
+
+    /**
+     * @return The net change in length of the text, summed across all edits.
+     */
+    public int getDelta() {
+        return delta;
+    }
+
+    /**
+     * Merge another edit into this batch.
+     * @param offset The offset into the text for the start of the edit. (As of after all prior edits in this batch.)
+     * @param length The length of the edit. If negative, it represents a deletion, rather than an addition.
+     */
+    public void add(int offset, int length) {
+        int insertedLength = Math.max(length, 0);
+        int removedLength = Math.max(-length, 0);
+
+        if (isEmpty()) {
+            start = offset;
+            end = offset + insertedLength;
+            delta = length;
+            return;
+        }
+
+        // Find where the current end of the batch is after this edit.
+        int mappedEnd;
+        if (end <= offset) {
+            mappedEnd = end;
+        } else if (end >= offset + removedLength) {
+            mappedEnd = end + length;
+        } else {
+            mappedEnd = offset + insertedLength;
+        }
+
+        start = Math.min(start, offset);
+        end = Math.max(mappedEnd, offset + insertedLength);
+        delta += length;
+    }
+
+    /**
+     * Map an offset from before the edits of this batch to the same position after the edits. Offsets within the
+     * replaced text are mapped to its start.
+     * @param offset The offset to map.
+     * @return The offset for the same position after the edits.
+     */
+    public int mapOffset(int offset) {
+        if (offset < start) {
+            return offset;
+        }
+        if (offset >= getOldEnd()) {
+            return offset + delta;
+        }
+        return start;
+    }
+}
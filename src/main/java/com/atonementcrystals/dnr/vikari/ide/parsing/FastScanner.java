@@ -0,0 +1,332 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+import com.atonementcrystals.dnr.vikari.core.crystal.CommentCrystal;
+import com.atonementcrystals.dnr.vikari.core.crystal.MultiLineCommentCrystal;
+import com.atonementcrystals.dnr.vikari.core.crystal.identifier.TypeReferenceCrystal;
+import com.atonementcrystals.dnr.vikari.core.crystal.literal.BooleanCrystal;
+import com.atonementcrystals.dnr.vikari.core.crystal.literal.MultiLineStringLiteralCrystal;
+import com.atonementcrystals.dnr.vikari.core.crystal.literal.NullKeywordCrystal;
+import com.atonementcrystals.dnr.vikari.core.crystal.literal.StringLiteralCrystal;
+import com.atonementcrystals.dnr.vikari.core.crystal.number.IntegerCrystal;
+import com.atonementcrystals.dnr.vikari.interpreter.Lexer;
+
+import java.util.Arrays;
+
+/**
+ * A fast path for highlighting an edit to a single row, without running the {@link Lexer} and {@link VideParser}.<br/>
+ * <br/>
+ * Only the tokens touched by the edit are scanned again. Every other token of the row keeps the style class it was
+ * given by the last full lex, merely shifted over by the length of the edit. The scanned tokens are classified directly
+ * from their characters by a table of character classes and keywords. Which covers the common cases of typing out
+ * identifiers, keywords, and integers, or typing text within a comment or a string.<br/>
+ * <br/>
+ * Any edit which this scanner cannot be certain of is left to the Lexer. Such as any edit that types an operator, or a
+ * delimiter of a comment or string. Even so, the tokens it does scan are only provisional. So the row must still be
+ * lexed again by the Lexer later on, in case the context of the row changes how they are parsed.
+ */
+public class FastScanner {
+    private static final byte OTHER = 0;
+    private static final byte WHITESPACE = 1;
+    private static final byte LETTER = 2;
+    private static final byte DIGIT = 3;
+    private static final byte[] CHARACTER_CLASSES = generateCharacterClasses();
+
+    private static final short INTEGER = StyleClasses.register(IntegerCrystal.class);
+    private static final short BOOLEAN = StyleClasses.register(BooleanCrystal.class);
+    private static final short NULL_KEYWORD = StyleClasses.register(NullKeywordCrystal.class);
+    private static final short TYPE_REFERENCE = StyleClasses.register(TypeReferenceCrystal.class);
+    private static final short COMMENT = StyleClasses.register(CommentCrystal.class);
+    private static final short STRING = StyleClasses.register(StringLiteralCrystal.class);
+    private static final short MULTILINE_COMMENT = StyleClasses.register(MultiLineCommentCrystal.class);
+    private static final short MULTILINE_STRING = StyleClasses.register(MultiLineStringLiteralCrystal.class);
+
+    // The keywords which are not identifiers, indexed by their length.
+    private static final String[][] KEYWORDS = { {}, {}, {}, {}, { "true", "null" }, { "false" } };
+    private static final short[][] KEYWORD_STYLES = { {}, {}, {}, {}, { BOOLEAN, NULL_KEYWORD }, { BOOLEAN } };
+
+    private int[] columns = new int[16];
+    private int[] lengths = new int[16];
+    private short[] styles = new short[16];
+    private int tokenCount;
+
+    private static byte[] generateCharacterClasses() {
+        byte[] characterClasses = new byte[128];
+        characterClasses[' '] = WHITESPACE;
+        characterClasses['\t'] = WHITESPACE;
+        characterClasses['_'] = LETTER;
+        for (char c = 'a'; c <= 'z'; c++) {
+            characterClasses[c] = LETTER;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            characterClasses[c] = LETTER;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            characterClasses[c] = DIGIT;
+        }
+        return characterClasses;
+    }
+
+    private static byte getCharacterClass(char c) {
+        return c < CHARACTER_CLASSES.length ? CHARACTER_CLASSES[c] : OTHER;
+    }
+
+    private static boolean isWordCharacter(char c) {
+        byte characterClass = getCharacterClass(c);
+        return characterClass == LETTER || characterClass == DIGIT;
+    }
+
+    /**
+     * Scan the tokens of a row again after an edit made within that row. The row must begin and end outside of any
+     * multiline token. If successful, the new tokens of the row are available from {@link #getColumns()}, {@link
+     * #getLengths()}, and {@link #getStyles()}.
+     * @param text The full text contents of the file, after the edit.
+     * @param rowOffset The offset of the row.
+     * @param rowLength The length of the row after the edit, not counting its newline.
+     * @param tokenStore The tokens of the file, from before the edit.
+     * @param row The row that was edited.
+     * @param editStart The column of the start of the edit.
+     * @param oldEditEnd The column of the end of the replaced text, before the edit.
+     * @param editEnd The column of the end of the replaced text, after the edit.
+     * @return False if the edit cannot be scanned with certainty, in which case the row must be lexed instead.
+     */
+    public boolean scanEdit(String text, int rowOffset, int rowLength, TokenStore tokenStore, int row, int editStart,
+                            int oldEditEnd, int editEnd) {
+        int delta = editEnd - oldEditEnd;
+        int oldTokenCount = tokenStore.getTokenCount(row);
+
+        // Find the tokens touched by the edit.
+        int firstToken = 0;
+        while (firstToken < oldTokenCount && getTokenEnd(tokenStore, row, firstToken) < editStart) {
+            firstToken++;
+        }
+        int lastToken = oldTokenCount - 1;
+        while (lastToken >= firstToken && tokenStore.getColumn(row, lastToken) > oldEditEnd) {
+            lastToken--;
+        }
+
+        // An edit within the text of a single comment or string only changes the length of that token.
+        if (firstToken == lastToken && isEnclosedBy(tokenStore, row, firstToken, editStart, oldEditEnd)) {
+            return scanEnclosedEdit(text, rowOffset, tokenStore, row, firstToken, delta);
+        }
+
+        // Otherwise, scan the whole words at either end of the edit, along with everything in between them.
+        int scanStart = editStart;
+        while (scanStart > 0 && isWordCharacter(text.charAt(rowOffset + scanStart - 1))) {
+            scanStart--;
+        }
+        int scanEnd = editEnd;
+        while (scanEnd < rowLength && isWordCharacter(text.charAt(rowOffset + scanEnd))) {
+            scanEnd++;
+        }
+        int oldScanEnd = scanEnd - delta;
+        if (scanStart == scanEnd && scanStart > 0 && scanEnd < rowLength &&
+                getCharacterClass(text.charAt(rowOffset + scanStart - 1)) != WHITESPACE &&
+                getCharacterClass(text.charAt(rowOffset + scanEnd)) != WHITESPACE) {
+            // The deletion joins two tokens, such as two operators, which the Lexer may lex as a single token.
+            return false;
+        }
+
+        // Every token touched by the edit must lie entirely within the scanned words.
+        for (int token = 0; token < oldTokenCount; token++) {
+            int column = tokenStore.getColumn(row, token);
+            int tokenEnd = column + tokenStore.getLength(row, token);
+            if (tokenEnd <= scanStart || column >= oldScanEnd) {
+                continue;
+            }
+            short style = tokenStore.getStyle(row, token);
+            if (column < scanStart || tokenEnd > oldScanEnd || style == MULTILINE_COMMENT ||
+                    style == MULTILINE_STRING) {
+                return false;
+            }
+        }
+
+        tokenCount = 0;
+        for (int token = 0; token < oldTokenCount; token++) {
+            int column = tokenStore.getColumn(row, token);
+            if (getTokenEnd(tokenStore, row, token) <= scanStart) {
+                addToken(column, tokenStore.getLength(row, token), tokenStore.getStyle(row, token));
+            }
+        }
+        if (!scanWords(text, rowOffset, scanStart, scanEnd)) {
+            return false;
+        }
+        for (int token = 0; token < oldTokenCount; token++) {
+            int column = tokenStore.getColumn(row, token);
+            if (column >= oldScanEnd) {
+                addToken(column + delta, tokenStore.getLength(row, token), tokenStore.getStyle(row, token));
+            }
+        }
+        return true;
+    }
+
+    private static int getTokenEnd(TokenStore tokenStore, int row, int token) {
+        return tokenStore.getColumn(row, token) + tokenStore.getLength(row, token);
+    }
+
+    /**
+     * @return True if the edit lies strictly between the opening and closing delimiters of a comment or string token.
+     */
+    private static boolean isEnclosedBy(TokenStore tokenStore, int row, int token, int editStart, int oldEditEnd) {
+        short style = tokenStore.getStyle(row, token);
+        if (style != COMMENT && style != STRING) {
+            return false;
+        }
+        int column = tokenStore.getColumn(row, token);
+        int tokenEnd = column + tokenStore.getLength(row, token);
+        return editStart >= column + 2 && oldEditEnd <= tokenEnd - 2;
+    }
+
+    /**
+     * Resize a comment or string token for an edit made within it. So long as the text of the token still contains no
+     * delimiters which could end the token early, or which could have a different meaning within a string.
+     */
+    private boolean scanEnclosedEdit(String text, int rowOffset, TokenStore tokenStore, int row, int enclosingToken,
+                                     int delta) {
+        int column = tokenStore.getColumn(row, enclosingToken);
+        int length = tokenStore.getLength(row, enclosingToken) + delta;
+        short style = tokenStore.getStyle(row, enclosingToken);
+
+        String opening = style == COMMENT ? "~:" : "``";
+        String closing = style == COMMENT ? ":~" : "``";
+        int start = rowOffset + column;
+        int end = start + length;
+        if (!text.startsWith(opening, start) || !text.startsWith(closing, end - 2)) {
+            return false;
+        }
+        for (int i = start + 2; i < end - 2; i++) {
+            char c = text.charAt(i);
+            if (c == '`' || c == '\\' || (c == ':' && text.charAt(i + 1) == '~') ||
+                    (c == '~' && text.charAt(i + 1) == ':')) {
+                return false;
+            }
+        }
+
+        tokenCount = 0;
+        for (int token = 0; token < tokenStore.getTokenCount(row); token++) {
+            int tokenColumn = tokenStore.getColumn(row, token);
+            int tokenLength = tokenStore.getLength(row, token);
+            if (token < enclosingToken) {
+                addToken(tokenColumn, tokenLength, tokenStore.getStyle(row, token));
+            } else if (token == enclosingToken) {
+                addToken(tokenColumn, length, style);
+            } else {
+                addToken(tokenColumn + delta, tokenLength, tokenStore.getStyle(row, token));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Scan a span of text which consists only of words and whitespace.
+     * @return False if the span contains any other characters, or any word which cannot be classified with certainty.
+     */
+    private boolean scanWords(String text, int rowOffset, int scanStart, int scanEnd) {
+        int column = scanStart;
+        while (column < scanEnd) {
+            byte characterClass = getCharacterClass(text.charAt(rowOffset + column));
+            if (characterClass == WHITESPACE) {
+                column++;
+                continue;
+            } else if (characterClass == OTHER) {
+                return false;
+            }
+            int wordStart = column;
+            while (column < scanEnd && isWordCharacter(text.charAt(rowOffset + column))) {
+                column++;
+            }
+            short style = classifyWord(text, rowOffset + wordStart, rowOffset + column);
+            if (style == -1) {
+                return false;
+            }
+            if (style == INTEGER && (isDot(text, rowOffset, wordStart - 1) || isDot(text, rowOffset, column))) {
+                // A decimal number, which may be lexed as a single token.
+                return false;
+            }
+            addToken(wordStart, column - wordStart, style);
+        }
+        return true;
+    }
+
+    private static boolean isDot(String text, int rowOffset, int column) {
+        return column >= 0 && rowOffset + column < text.length() && text.charAt(rowOffset + column) == '.';
+    }
+
+    /**
+     * Classify a word by its characters alone.
+     * @param text The text containing the word.
+     * @param start The start offset of the word.
+     * @param end The end offset of the word.
+     * @return The style class of the word, or -1 if its style class cannot be known without lexing it.
+     */
+    public static short classifyWord(String text, int start, int end) {
+        int length = end - start;
+        char first = text.charAt(start);
+
+        if (getCharacterClass(first) == DIGIT) {
+            for (int i = start + 1; i < end; i++) {
+                if (getCharacterClass(text.charAt(i)) != DIGIT) {
+                    // A number with a type suffix, or in another base.
+                    return -1;
+                }
+            }
+            return INTEGER;
+        }
+        if (isSword(text, start, end)) {
+            // A word of only underscores is a sword, not an identifier.
+            return -1;
+        }
+        if (length < KEYWORDS.length) {
+            String[] keywords = KEYWORDS[length];
+            for (int i = 0; i < keywords.length; i++) {
+                if (text.startsWith(keywords[i], start)) {
+                    return KEYWORD_STYLES[length][i];
+                }
+            }
+        }
+        if (first >= 'A' && first <= 'Z') {
+            if (VikariSyntaxHighlighter.TYPE_KEYWORDS.contains(text.substring(start, end))) {
+                return StyleClasses.TYPE_KEYWORD;
+            }
+            return TYPE_REFERENCE;
+        }
+        return StyleClasses.VARIABLE;
+    }
+
+    private static boolean isSword(String text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) != '_') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addToken(int column, int length, short style) {
+        if (tokenCount == columns.length) {
+            int capacity = tokenCount * 2;
+            columns = Arrays.copyOf(columns, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            styles = Arrays.copyOf(styles, capacity);
+        }
+        columns[tokenCount] = column;
+        lengths[tokenCount] = length;
+        styles[tokenCount] = style;
+        tokenCount++;
+    }
+
+    public int[] getColumns() {
+        return columns;
+    }
+
+    public int[] getLengths() {
+        return lengths;
+    }
+
+    public short[] getStyles() {
+        return styles;
+    }
+
+    public int getTokenCount() {
+        return tokenCount;
+    }
+}
@@ -0,0 +1,97 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+import com.atonementcrystals.dnr.vikari.core.crystal.AtonementCrystal;
+
+import javax.swing.text.AttributeSet;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyleContext;
+import java.awt.Color;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The color rules of a {@link VideColorTheme}, resolved to the AttributeSet for each {@link StyleClasses style class}.
+ * Instances are never modified once they are created. So a single instance is shared by the {@link HighlightSession}s
+ * of all open files, which may read from it on any thread. Changing the color theme only replaces this instance.
+ */
+public class HighlightRules {
+    private final Map<Class<? extends AtonementCrystal>, Color> definedRules;
+    private final Map<IdentifierType, Color> overloadRules;
+    private final Map<Color, AttributeSet> colorAttributeSets;
+    private final AttributeSet defaultAttributeSet;
+    private final AttributeSet[] styleAttributeSets;
+
+    /**
+     * Instantiate a new HighlightRules.
+     * @param definedRules The colors for each crystal type.
+     * @param overloadRules The colors for each IdentifierType which overloads the color of a crystal type.
+     */
+    public HighlightRules(Map<Class<? extends AtonementCrystal>, Color> definedRules,
+                          Map<IdentifierType, Color> overloadRules) {
+        // Copied, as the rules may contain null colors for any rules which failed to load.
+        this.definedRules = new HashMap<>(definedRules);
+        this.overloadRules = new HashMap<>(overloadRules);
+
+        StyleContext styleContext = new StyleContext();
+        Map<Color, AttributeSet> colorAttributeSets = new HashMap<>();
+        for (Color color : definedRules.values()) {
+            if (color != null) {
+                colorAttributeSets.computeIfAbsent(color, c -> createAttributeSet(styleContext, c));
+            }
+        }
+        for (Color color : overloadRules.values()) {
+            if (color != null) {
+                colorAttributeSets.computeIfAbsent(color, c -> createAttributeSet(styleContext, c));
+            }
+        }
+        this.colorAttributeSets = colorAttributeSets;
+        this.defaultAttributeSet = colorAttributeSets.computeIfAbsent(Color.GRAY,
+                c -> createAttributeSet(styleContext, c));
+
+        // Resolve the AttributeSet of every style class known so far.
+        for (Class<? extends AtonementCrystal> type : definedRules.keySet()) {
+            StyleClasses.register(type);
+        }
+        styleAttributeSets = new AttributeSet[StyleClasses.getCount()];
+        for (short styleClass = 0; styleClass < styleAttributeSets.length; styleClass++) {
+            styleAttributeSets[styleClass] = resolve(styleClass);
+        }
+    }
+
+    private static AttributeSet createAttributeSet(StyleContext styleContext, Color color) {
+        return styleContext.addAttribute(SimpleAttributeSet.EMPTY, StyleConstants.Foreground, color);
+    }
+
+    /**
+     * Look up the color rule for a style class.
+     * @param styleClass The id of the style class.
+     * @return The AttributeSet for the color of the style class.
+     */
+    private AttributeSet resolve(short styleClass) {
+        Object type = StyleClasses.get(styleClass);
+        Color color = type instanceof IdentifierType identifierType ? overloadRules.get(identifierType) :
+                definedRules.get(type);
+        return color == null ? defaultAttributeSet : colorAttributeSets.get(color);
+    }
+
+    /**
+     * @param styleClass The id of the style class.
+     * @return The AttributeSet to apply to the document for the style class.
+     */
+    public AttributeSet getAttributeSet(short styleClass) {
+        if (styleClass < styleAttributeSets.length) {
+            return styleAttributeSets[styleClass];
+        }
+        // A crystal class first seen after these rules were created.
+        return resolve(styleClass);
+    }
+
+    /**
+     * @param styleClass The id of the style class.
+     * @return The foreground color of the style class.
+     */
+    public Color getColor(short styleClass) {
+        return StyleConstants.getForeground(getAttributeSet(styleClass));
+    }
+}
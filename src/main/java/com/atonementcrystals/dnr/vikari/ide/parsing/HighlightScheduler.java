@@ -0,0 +1,266 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Owns all highlight jobs for the {@link HighlightSession}s of every open document. Both the work run on the worker
+ * pool, and the jobs which apply its results on the Event Dispatch Thread.<br/>
+ * <br/>
+ * Jobs are run in order of priority. First those of the focused window's session, then those of the sessions of other
+ * visible windows, and then background work. (Such as lexing ahead through the rest of a file, or highlighting a
+ * minimized window.) The jobs of a single session are still run in the order they were scheduled.<br/>
+ * <br/>
+ * Jobs on the Event Dispatch Thread are only run for a limited time each frame, and the rest are left for the next
+ * frame. So applying the results for many windows at once never holds up typing or painting. Any job which is
+ * superseded by a newer job for the same document before it runs is cancelled.
+ */
+public class HighlightScheduler {
+    private static final int FRAME_DELAY_MILLIS = 16;
+    private static final long FRAME_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(8);
+
+    // The key of the jobs which apply the style runs of a document version.
+    private static final Object PUBLISH_KEY = new Object();
+
+    private final ThreadPoolExecutor workerPool;
+    private final AtomicLong sequence;
+    private final List<Job> jobs;
+    private final Timer frameTimer;
+    private final Set<HighlightSession> hiddenSessions;
+    private volatile HighlightSession focusedSession;
+    private boolean runScheduled;
+
+    /**
+     * The priority of a job. Jobs with a lower ordinal are run first.
+     */
+    private enum Priority {
+        FOCUSED,
+        VISIBLE,
+        BACKGROUND
+    }
+
+    /**
+     * Instantiate a new HighlightScheduler.
+     * @param workerCount The number of threads of the worker pool.
+     */
+    public HighlightScheduler(int workerCount) {
+        AtomicInteger threadCount = new AtomicInteger();
+        workerPool = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "Vide-Syntax-Highlighter-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        sequence = new AtomicLong();
+        jobs = new ArrayList<>();
+        hiddenSessions = ConcurrentHashMap.newKeySet();
+
+        frameTimer = new Timer(FRAME_DELAY_MILLIS, event -> runJobs());
+        frameTimer.setRepeats(false);
+    }
+
+    /**
+     * Mark the session of the focused window. Its jobs are run before those of all other sessions.
+     * @param session The session of the focused window.
+     */
+    public void setFocusedSession(HighlightSession session) {
+        focusedSession = session;
+    }
+
+    /**
+     * Mark whether the window of a session is hidden from view, such as when it is minimized. The jobs of a hidden
+     * session are run as background work.
+     * @param session The session of the window.
+     * @param hidden True if the window is hidden.
+     */
+    public void setHidden(HighlightSession session, boolean hidden) {
+        if (hidden) {
+            hiddenSessions.add(session);
+        } else {
+            hiddenSessions.remove(session);
+        }
+    }
+
+    private Priority getPriority(HighlightSession session) {
+        if (session == focusedSession) {
+            return Priority.FOCUSED;
+        }
+        return hiddenSessions.contains(session) ? Priority.BACKGROUND : Priority.VISIBLE;
+    }
+
+    /**
+     * Run a task of a session on the worker pool. Tasks waiting for a worker are run in order of the priority of their
+     * session at the time they were submitted.
+     * @param session The session of the task.
+     * @param task The task to run.
+     * @param background True if the task is background work, regardless of the priority of its session.
+     * @throws java.util.concurrent.RejectedExecutionException If the worker pool is shut down.
+     */
+    void execute(HighlightSession session, Runnable task, boolean background) {
+        Priority priority = background ? Priority.BACKGROUND : getPriority(session);
+        workerPool.execute(new WorkerTask(task, priority, sequence.getAndIncrement()));
+    }
+
+    /**
+     * Schedule a job to apply the results of highlighting a document version on the Event Dispatch Thread. Any such
+     * jobs still waiting to run for older versions of the document are cancelled, as their results are stale.
+     * @param session The session of the document.
+     * @param version The document version that was highlighted.
+     * @param job The job to run.
+     */
+    void publish(HighlightSession session, long version, Runnable job) {
+        enqueue(new Job(session, PUBLISH_KEY, version, job));
+    }
+
+    /**
+     * Schedule a job for a session to run on the Event Dispatch Thread.
+     * @param session The session the job is for.
+     * @param key Identifies the kind of the job. Any job with the same key still waiting to run for the session is
+     *            cancelled. If null, then the job is never cancelled.
+     * @param job The job to run.
+     */
+    public void schedule(HighlightSession session, Object key, Runnable job) {
+        // Newer jobs supersede older jobs with the same key.
+        enqueue(new Job(session, key, sequence.getAndIncrement(), job));
+    }
+
+    /**
+     * Cancel all jobs of a session still waiting to run on the Event Dispatch Thread, and forget its priority. For when
+     * the session is closed.
+     * @param session The closed session.
+     */
+    void cancel(HighlightSession session) {
+        synchronized (jobs) {
+            jobs.removeIf(job -> job.session == session);
+        }
+        hiddenSessions.remove(session);
+        if (focusedSession == session) {
+            focusedSession = null;
+        }
+    }
+
+    private void enqueue(Job job) {
+        boolean scheduleRun;
+        synchronized (jobs) {
+            jobs.removeIf(job::supersedes);
+            jobs.add(job);
+            scheduleRun = !runScheduled;
+            runScheduled = true;
+        }
+        if (scheduleRun) {
+            SwingUtilities.invokeLater(this::runJobs);
+        }
+    }
+
+    /**
+     * Run the waiting jobs in order of priority on the Event Dispatch Thread, until either no jobs are left or the time
+     * budget for this frame is spent.
+     */
+    private void runJobs() {
+        long deadline = System.nanoTime() + FRAME_BUDGET_NANOS;
+        while (true) {
+            Job job;
+            synchronized (jobs) {
+                job = pollNextJob();
+                if (job == null) {
+                    runScheduled = false;
+                    return;
+                }
+            }
+            try {
+                job.task.run();
+            } catch (RuntimeException e) {
+                frameTimer.restart();
+                throw e;
+            }
+            if (System.nanoTime() >= deadline) {
+                frameTimer.restart();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove the next job to run. The priority of each session is checked again, in case the focus changed since its
+     * jobs were scheduled.
+     * @return The job with the highest priority, or null if there are no jobs.
+     */
+    private Job pollNextJob() {
+        int nextIndex = -1;
+        Priority nextPriority = null;
+        for (int i = 0; i < jobs.size(); i++) {
+            Priority priority = getPriority(jobs.get(i).session);
+            if (nextPriority == null || priority.ordinal() < nextPriority.ordinal()) {
+                nextIndex = i;
+                nextPriority = priority;
+            }
+        }
+        return nextIndex == -1 ? null : jobs.remove(nextIndex);
+    }
+
+    /**
+     * Stop the worker pool after it finishes any remaining tasks.
+     */
+    public void shutdown() {
+        workerPool.shutdown();
+    }
+
+    /**
+     * A job to run on the Event Dispatch Thread. Waiting jobs are kept in the order they were scheduled.
+     */
+    private static class Job {
+        private final HighlightSession session;
+        private final Object key;
+        private final long version;
+        private final Runnable task;
+
+        private Job(HighlightSession session, Object key, long version, Runnable task) {
+            this.session = session;
+            this.key = key;
+            this.version = version;
+            this.task = task;
+        }
+
+        private boolean supersedes(Job other) {
+            return key != null && session == other.session && key == other.key && other.version < version;
+        }
+    }
+
+    /**
+     * A task to run on the worker pool, ordered by its priority and then by the order it was submitted.
+     */
+    private static class WorkerTask implements Runnable, Comparable<WorkerTask> {
+        private final Runnable task;
+        private final Priority priority;
+        private final long sequence;
+
+        private WorkerTask(Runnable task, Priority priority, long sequence) {
+            this.task = task;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(WorkerTask other) {
+            int priorityDifference = priority.compareTo(other.priority);
+            if (priorityDifference != 0) {
+                return priorityDifference;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
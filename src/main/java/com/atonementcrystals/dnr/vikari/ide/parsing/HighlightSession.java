@@ -0,0 +1,1251 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+import com.atonementcrystals.dnr.vikari.core.crystal.AtonementCrystal;
+import com.atonementcrystals.dnr.vikari.core.crystal.MultilineToken;
+import com.atonementcrystals.dnr.vikari.ide.gui.VideEditorPane;
+import com.atonementcrystals.dnr.vikari.ide.util.LineIndex;
+import com.atonementcrystals.dnr.vikari.interpreter.Lexer;
+import com.atonementcrystals.dnr.vikari.util.CoordinatePair;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.text.AttributeSet;
+import java.awt.Color;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Formatter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Syntax highlights a single open document. Each session has its own {@link Lexer}, {@link VideParser}, and cached
+ * file data, and only shares the immutable {@link HighlightRules} with the sessions of other documents. So that the
+ * documents of several {@link com.atonementcrystals.dnr.vikari.ide.gui.VideEditorWindow}s can be highlighted at the
+ * same time.<br/>
+ * <br/>
+ * The work for a session is run on the worker pool of the {@link HighlightScheduler} of its {@link
+ * VikariSyntaxHighlighter}, one task at a time and in the order the tasks were queued. So all of the fields below are
+ * only ever accessed by one thread at a time.
+ */
+public class HighlightSession {
+    private static final int LINE_SEPARATOR_LENGTH = System.lineSeparator().length();
+    private static final int MIN_RELEX_ROW_COUNT = 64;
+    private static final int LEX_AHEAD_ROW_COUNT = 2000;
+    private static final int PARALLEL_CHUNK_ROW_COUNT = 1000;
+    private static final int RECONCILE_DELAY_MILLIS = 200;
+
+    private final VikariSyntaxHighlighter syntaxHighlighter;
+    private final Lexer lexer;
+    private final VideParser parser;
+    private final VikariHighlightFileData cachedFileData;
+    private final FastScanner fastScanner;
+    private final Timer reconcileTimer;
+    private final Runnable lexAheadTask;
+    private final Deque<Runnable> tasks;
+    private boolean taskRunning;
+    private int[] rowColumns = new int[16];
+    private int[] rowLengths = new int[16];
+    private short[] rowStyles = new short[16];
+    private int startOffset;
+    private int endOffset;
+    private int startRowNumber;
+    private int endRowNumber;
+    private HighlightRules highlightRules;
+
+    // The span of text classified only by the FastScanner or the Lexer, which must still be lexed and parsed in full.
+    private int provisionalStart = -1;
+    private int provisionalEnd = -1;
+
+    // The document version and editor pane of the most recent highlight.
+    private long textVersion;
+    private VideEditorPane editorPane;
+
+    private boolean enabled;
+    private volatile boolean closed;
+
+    /**
+     * Instantiate a new HighlightSession. (Use {@link VikariSyntaxHighlighter#createSession()}.)
+     * @param syntaxHighlighter The VikariSyntaxHighlighter whose rules and scheduler are used by this session.
+     */
+    HighlightSession(VikariSyntaxHighlighter syntaxHighlighter) {
+        this.syntaxHighlighter = syntaxHighlighter;
+        this.lexer = createLexer();
+        this.parser = createParser();
+        cachedFileData = new VikariHighlightFileData();
+        fastScanner = new FastScanner();
+        tasks = new ArrayDeque<>();
+
+        // Reconcile the provisional rows once there is a pause in typing.
+        reconcileTimer = new Timer(RECONCILE_DELAY_MILLIS, event -> reconcile());
+        reconcileTimer.setRepeats(false);
+        lexAheadTask = this::lexAheadInBackground;
+    }
+
+    /**
+     * @return A new Lexer, configured for syntax highlighting.
+     */
+    static Lexer createLexer() {
+        Lexer lexer = new Lexer();
+        lexer.setErrorReportingEnabled(false);
+        lexer.setLexUnparsableTokens(true);
+        return lexer;
+    }
+
+    /**
+     * @return A new VideParser, configured for syntax highlighting.
+     */
+    static VideParser createParser() {
+        VideParser parser = new VideParser();
+        parser.setErrorReportingEnabled(false);
+        return parser;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Stop highlighting the document, and discard the results of any work still in progress for it. For when the
+     * document is closed, or its VikariSyntaxHighlighter is replaced.
+     */
+    public void close() {
+        closed = true;
+        reconcileTimer.stop();
+        syntaxHighlighter.getScheduler().cancel(this);
+    }
+
+    private boolean isClosed() {
+        return closed || syntaxHighlighter.isShutdown();
+    }
+
+    /**
+     * Queue a task to run on the worker pool after all tasks queued before it for this session.
+     * @param task The task to run.
+     */
+    private void execute(Runnable task) {
+        synchronized (tasks) {
+            tasks.add(task);
+            if (taskRunning) {
+                return;
+            }
+            taskRunning = true;
+        }
+        submitNextTask();
+    }
+
+    /**
+     * Submit the next queued task to the worker pool. Only one task is submitted at a time, so that the tasks of other
+     * sessions are run in between the tasks of this session. (Or before them, if the other sessions have a higher
+     * priority.) Lexing ahead is always submitted as background work.
+     */
+    private void submitNextTask() {
+        try {
+            boolean background;
+            synchronized (tasks) {
+                background = tasks.peek() == lexAheadTask;
+            }
+            syntaxHighlighter.getScheduler().execute(this, this::runNextTask, background);
+        } catch (RejectedExecutionException e) {
+            // The highlighter was shut down. So the remaining tasks are discarded.
+            synchronized (tasks) {
+                tasks.clear();
+                taskRunning = false;
+            }
+        }
+    }
+
+    private void runNextTask() {
+        Runnable task;
+        synchronized (tasks) {
+            task = tasks.poll();
+        }
+        try {
+            if (task != null) {
+                task.run();
+            }
+        } finally {
+            boolean hasNextTask;
+            synchronized (tasks) {
+                hasNextTask = !tasks.isEmpty();
+                taskRunning = hasNextTask;
+            }
+            if (hasNextTask) {
+                submitNextTask();
+            }
+        }
+    }
+
+    /**
+     * Highlight a region of a file after an edit has been made to its contents, along with any rows scrolled into view
+     * that have not yet been highlighted. This method presumes the file has already been highlighted once by the
+     * {@link #highlightEntireFile(DocumentSnapshot, VideEditorPane)} method.<br/>
+     * <br/>
+     * Lexing and parsing is done on a thread of the highlight worker pool. Only the resulting style runs are then
+     * applied to the document back on the Event Dispatch Thread.<br/>
+     * <br/>
+     * Edited rows are highlighted in two tiers. Their tokens are first classified by the Lexer alone, and styled right
+     * away. (Most edits made while typing lie within a single row, and are scanned by the {@link FastScanner} instead
+     * of being lexed.) Once typing pauses for {@link #RECONCILE_DELAY_MILLIS}, those rows are then lexed and parsed in
+     * full by {@link #reconcile()}, and only the rows whose tokens the VideParser classified differently are restyled.
+     * @param snapshot The complete text for the file to highlight, as of the last edit in the batch.
+     * @param editBatch All edits made to the file since the last call to this method. May be empty.
+     * @param firstRow The first row to highlight in addition to the edits, or -1 if there are no such rows.
+     * @param lastRow The last row to highlight in addition to the edits, or -1 if there are no such rows.
+     * @param editorPane The UI component that displays the syntax highlighted text to the user.
+     * @param onPublished Called on the Event Dispatch Thread once the results are applied or discarded.
+     */
+    public void highlightRegion(DocumentSnapshot snapshot, EditBatch editBatch, int firstRow, int lastRow,
+                                VideEditorPane editorPane, Runnable onPublished) {
+        if (!enabled) {
+            onPublished.run();
+            return;
+        }
+        execute(() -> {
+            if (isClosed()) {
+                syntaxHighlighter.getScheduler().schedule(this, null, onPublished);
+                return;
+            }
+            String text = snapshot.getText();
+            long version = snapshot.getVersion();
+            textVersion = version;
+            this.editorPane = editorPane;
+
+            // Highlight again any text from a prior version whose results were discarded as stale.
+            int dirtyStart = editBatch.getStart();
+            int dirtyEnd = editBatch.getEnd();
+            synchronized (cachedFileData) {
+                if (!editBatch.isEmpty() && cachedFileData.hasUnappliedRange()) {
+                    int unappliedStart = editBatch.mapOffset(cachedFileData.getUnappliedStart());
+                    int unappliedEnd = editBatch.mapOffset(cachedFileData.getUnappliedEnd());
+                    dirtyStart = Math.min(dirtyStart, unappliedStart);
+                    dirtyEnd = Math.min(Math.max(dirtyEnd, unappliedEnd), text.length());
+                }
+            }
+
+            // The edited row is scanned before the edits are applied, while its tokens from before the edits are known.
+            boolean scanned = scanEdit(text, editBatch);
+
+            if (!cachedFileData.applyEdit(text, editBatch)) {
+                clearProvisionalRange();
+                lexAndParseInitialRows(text, Math.max(0, lastRow));
+                cachedFileData.setUnappliedRange(version, startOffset, endOffset);
+                publish(version, highlight(text), true, editorPane);
+            } else {
+                cachedFileData.setText(text);
+                mapProvisionalRange(editBatch);
+                int editStartRow = -1;
+                int editEndRow = -1;
+                if (!editBatch.isEmpty()) {
+                    if (scanned) {
+                        storeScannedRow(editBatch, dirtyStart, dirtyEnd);
+                    } else {
+                        lexAndParse(text, dirtyStart, dirtyEnd, false);
+                        addProvisionalRange(startOffset, endOffset);
+                    }
+                    SwingUtilities.invokeLater(reconcileTimer::restart);
+                    editStartRow = startRowNumber;
+                    editEndRow = endRowNumber;
+                    cachedFileData.setUnappliedRange(version, startOffset, endOffset);
+                    publish(version, highlight(text), false, editorPane);
+                }
+
+                // Skip any rows that were already highlighted along with the edits.
+                if (firstRow != -1 && (firstRow < editStartRow || lastRow > editEndRow)) {
+                    lexAndParseRows(text, firstRow, lastRow);
+                    publish(version, highlight(text), false, editorPane);
+                }
+            }
+            scheduleLexAhead();
+            syntaxHighlighter.getScheduler().schedule(this, null, onPublished);
+        });
+    }
+
+    /**
+     * Scan the edited row with the {@link FastScanner}, rather than lexing and parsing it. Only a batch of edits that
+     * lies within a single row, which begins and ends outside of any multiline token, can be scanned.
+     * @param text The full text contents of the file, after the edits.
+     * @param editBatch The edits made to the file, which are not yet applied to the cached file data.
+     * @return True if the row was scanned, and its new tokens are ready to be stored by {@link
+     * #storeScannedRow(EditBatch, int, int)}.
+     */
+    private boolean scanEdit(String text, EditBatch editBatch) {
+        LineIndex lineIndex = cachedFileData.getLineIndex();
+        RowStates rowStates = cachedFileData.getRowStates();
+        if (editBatch.isEmpty() || lineIndex.getLength() != text.length() - editBatch.getDelta() ||
+                rowStates.getRowCount() != lineIndex.getRowCount()) {
+            return false;
+        }
+        int start = editBatch.getStart();
+        int row = lineIndex.getRowOfOffset(start);
+        int rowOffset = lineIndex.getRowStartOffset(row);
+        int oldRowEnd = lineIndex.getRowEndOffset(row);
+        if (row >= cachedFileData.getLexedRowCount() || editBatch.getOldEnd() > oldRowEnd ||
+                rowStates.get(row) != LexerState.NONE ||
+                (row + 1 < rowStates.getRowCount() && rowStates.get(row + 1) != LexerState.NONE)) {
+            return false;
+        }
+        for (int i = start; i < editBatch.getEnd(); i++) {
+            if (text.charAt(i) == '\n') {
+                return false;
+            }
+        }
+        int rowLength = oldRowEnd - rowOffset + editBatch.getDelta();
+        return fastScanner.scanEdit(text, rowOffset, rowLength, cachedFileData.getTokenStore(), row,
+                start - rowOffset, editBatch.getOldEnd() - rowOffset, editBatch.getEnd() - rowOffset);
+    }
+
+    /**
+     * Store the tokens of the row scanned by {@link #scanEdit(String, EditBatch)}, once the edits are applied to the
+     * cached file data. Then prepare the dirty span of text to be passed onto the {@link #highlight(String)} method.
+     * @param editBatch The edits made to the file.
+     * @param dirtyStart The start offset of all text needing to be highlighted. (Encloses the edits.)
+     * @param dirtyEnd The end offset of all text needing to be highlighted. (Encloses the edits.)
+     */
+    private void storeScannedRow(EditBatch editBatch, int dirtyStart, int dirtyEnd) {
+        LineIndex lineIndex = cachedFileData.getLineIndex();
+        int row = lineIndex.getRowOfOffset(editBatch.getStart());
+        cachedFileData.getTokenStore().setRow(row, fastScanner.getColumns(), fastScanner.getLengths(),
+                fastScanner.getStyles(), fastScanner.getTokenCount());
+        addProvisionalRange(lineIndex.getRowStartOffset(row), lineIndex.getRowEndOffset(row));
+
+        startRowNumber = lineIndex.getRowOfOffset(dirtyStart);
+        endRowNumber = lineIndex.getRowOfOffset(dirtyEnd);
+        this.startOffset = lineIndex.getRowStartOffset(startRowNumber);
+        this.endOffset = lineIndex.getRowEndOffset(endRowNumber);
+    }
+
+    private void addProvisionalRange(int start, int end) {
+        if (provisionalStart == -1) {
+            provisionalStart = start;
+            provisionalEnd = end;
+        } else {
+            provisionalStart = Math.min(provisionalStart, start);
+            provisionalEnd = Math.max(provisionalEnd, end);
+        }
+    }
+
+    /**
+     * Map the provisional span of text to its position after a batch of edits.
+     */
+    private void mapProvisionalRange(EditBatch editBatch) {
+        if (provisionalStart == -1 || editBatch.isEmpty()) {
+            return;
+        }
+        provisionalStart = editBatch.mapOffset(provisionalStart);
+        if (provisionalEnd >= editBatch.getOldEnd()) {
+            provisionalEnd += editBatch.getDelta();
+        } else if (provisionalEnd > editBatch.getStart()) {
+            provisionalEnd = editBatch.getEnd();
+        }
+    }
+
+    private void clearProvisionalRange() {
+        provisionalStart = -1;
+        provisionalEnd = -1;
+    }
+
+    /**
+     * The deferred tier of highlighting. Lex and parse the rows which were only classified by the {@link FastScanner}
+     * or the Lexer, so that the VideParser may refine the style classes of their tokens. Only the rows whose tokens are
+     * classified differently than before are then restyled.
+     */
+    private void reconcile() {
+        if (!enabled) {
+            return;
+        }
+        execute(() -> {
+            if (isClosed() || provisionalStart == -1) {
+                return;
+            }
+            String text = cachedFileData.getText();
+            int start = Math.min(provisionalStart, text.length());
+            int end = Math.min(provisionalEnd, text.length());
+            clearProvisionalRange();
+
+            if (!refineRows(text, start, end)) {
+                lexAndParse(text, start, end, true);
+            }
+
+            // The span of the most recent results must also be highlighted again, if they are not yet applied.
+            LineIndex lineIndex = cachedFileData.getLineIndex();
+            synchronized (cachedFileData) {
+                if (cachedFileData.hasUnappliedRange()) {
+                    int unappliedStartRow = lineIndex.getRowOfOffset(
+                            Math.min(cachedFileData.getUnappliedStart(), text.length()));
+                    int unappliedEndRow = lineIndex.getRowOfOffset(
+                            Math.min(cachedFileData.getUnappliedEnd(), text.length()));
+                    if (startRowNumber == -1) {
+                        startRowNumber = unappliedStartRow;
+                        endRowNumber = unappliedEndRow;
+                    } else {
+                        startRowNumber = Math.min(startRowNumber, unappliedStartRow);
+                        endRowNumber = Math.max(endRowNumber, unappliedEndRow);
+                    }
+                }
+            }
+            if (startRowNumber == -1) {
+                return;
+            }
+            this.startOffset = lineIndex.getRowStartOffset(startRowNumber);
+            this.endOffset = lineIndex.getRowEndOffset(endRowNumber);
+            cachedFileData.setUnappliedRange(textVersion, startOffset, endOffset);
+            publish(textVersion, highlight(text), false, editorPane);
+        });
+    }
+
+    /**
+     * Lex and parse the rows enclosing a span of text, and record the tokens of only those rows which the VideParser
+     * classified differently than the cached tokens. The span of those rows is then prepared to be passed onto the
+     * {@link #highlight(String)} method. (Or no rows at all, if none were changed.)<br/>
+     * <br/>
+     * The tokens of the rows are refined in place. So this is only possible when lexing the rows gives the same {@link
+     * LexerState} for each row, and the same Regions for the multiline tokens in them, as are already recorded.
+     * @param text The full text contents of the file.
+     * @param start The start offset of the span of text to refine.
+     * @param end The end offset of the span of text to refine.
+     * @return False if the rows could not be refined in place, and must be lexed and parsed by {@link
+     * #lexAndParse(String, int, int, boolean)} instead.
+     */
+    private boolean refineRows(String text, int start, int end) {
+        LineIndex lineIndex = cachedFileData.getLineIndex();
+        RowStates rowStates = cachedFileData.getRowStates();
+        RegionIndex cachedRegions = cachedFileData.getRegions();
+        int lastRow = lineIndex.getRowCount() - 1;
+        int endRow = lineIndex.getRowOfOffset(end);
+        int lexEndRow = Math.min(lastRow, endRow + 1);
+        if (rowStates.getRowCount() != lineIndex.getRowCount() || lexEndRow >= cachedFileData.getLexedRowCount()) {
+            return false;
+        }
+
+        int startRow = findCheckpointRow(lineIndex, rowStates, cachedRegions, lineIndex.getRowOfOffset(start));
+        LexedRows lexedRows = lexRows(text, lineIndex, startRow, lexEndRow, true);
+        for (int row = startRow; row <= lexEndRow; row++) {
+            if (lexedRows.getState(row) != rowStates.get(row)) {
+                return false;
+            }
+        }
+        int endOffset = lineIndex.getRowEndOffset(endRow);
+        for (Region region : lexedRows.getRegions()) {
+            if (region.getEnd() <= endOffset && !region.equals(cachedRegions.findRegion(region.getStart()))) {
+                return false;
+            }
+        }
+
+        TokenStore tokenStore = cachedFileData.getTokenStore();
+        startRowNumber = -1;
+        endRowNumber = -1;
+        for (int row = startRow; row <= endRow; row++) {
+            if (storeRowIfChanged(tokenStore, row, lexedRows.getRow(row))) {
+                if (startRowNumber == -1) {
+                    startRowNumber = row;
+                }
+                endRowNumber = row;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Send the style runs computed on the highlight worker pool to the Event Dispatch Thread to be applied to the
+     * editor pane's RowStyles, by way of the {@link HighlightScheduler}. If the document was edited again in the
+     * meantime, then the style runs are discarded, as their offsets are no longer valid. The span of text they cover is
+     * instead highlighted again along with the next edit.<br/>
+     * <br/>
+     * Only the style runs for rows within the viewport are applied, and only the rows whose style runs differ from
+     * those they were last painted with are repainted. The rest of the highlighted rows are marked as not yet
+     * highlighted, so that they are highlighted again once they are scrolled into view. (As are all of the highlighted
+     * rows, if the color theme was changed since the style runs were computed.)
+     * @param version The document version that was highlighted.
+     * @param styleRuns The style runs to apply.
+     * @param resetRowStyles Whether all rows of the document should first be marked as not yet highlighted.
+     * @param editorPane The UI component that displays the syntax highlighted text to the user.
+     */
+    private void publish(long version, List<StyleRun> styleRuns, boolean resetRowStyles, VideEditorPane editorPane) {
+        int startRow = startRowNumber;
+        int endRow = endRowNumber;
+        HighlightRules rules = highlightRules;
+
+        syntaxHighlighter.getScheduler().publish(this, version, () -> {
+            if (!isClosed() && editorPane.getDocumentVersion() == version) {
+                RowStyles rowStyles = editorPane.getRowStyles();
+                LineIndex lineIndex = editorPane.getLineIndex();
+                if (resetRowStyles) {
+                    rowStyles.reset(lineIndex.getRowCount());
+                }
+                int[] visibleRows = editorPane.getVisibleRows();
+                int firstVisibleRow = visibleRows[0];
+                int lastVisibleRow = visibleRows[1];
+                boolean currentRules = rules == syntaxHighlighter.getRules();
+
+                int firstChangedRow = -1;
+                int lastChangedRow = -1;
+                int runIndex = 0;
+                for (int row = startRow; row <= endRow; row++) {
+                    int rowStartIndex = runIndex;
+                    while (runIndex < styleRuns.size() && styleRuns.get(runIndex).getRow() == row) {
+                        runIndex++;
+                    }
+                    if (currentRules && row >= firstVisibleRow && row <= lastVisibleRow) {
+                        int rowOffset = lineIndex.getRowStartOffset(row);
+                        if (rowStyles.apply(row, rowOffset, styleRuns.subList(rowStartIndex, runIndex))) {
+                            if (firstChangedRow == -1) {
+                                firstChangedRow = row;
+                            }
+                            lastChangedRow = row;
+                        }
+                    } else {
+                        rowStyles.clear(row);
+                    }
+                }
+                if (firstChangedRow != -1) {
+                    editorPane.repaintRows(firstChangedRow, lastChangedRow);
+                }
+                cachedFileData.clearUnappliedRange(version);
+            }
+        });
+    }
+
+    /**
+     * Debugging method for viewing the cached rows.
+     */
+    private void printRows() {
+        TokenStore tokenStore = cachedFileData.getTokenStore();
+        LineIndex lineIndex = cachedFileData.getLineIndex();
+        String text = cachedFileData.getText();
+        int rowCount = cachedFileData.getLexedRowCount();
+
+        StringBuilder sb = new StringBuilder();
+        Formatter formatter = new Formatter(sb);
+
+        int maxRowNumberCharWidth = String.valueOf(rowCount).length();
+        String rowNumberFormat = "[%0"+ maxRowNumberCharWidth + "d]: ";
+
+        for (int rowNumber = 0; rowNumber < rowCount; rowNumber++) {
+            formatter.format(rowNumberFormat, rowNumber + 1);
+
+            int rowOffset = lineIndex.getRowStartOffset(rowNumber);
+            int tokenCount = tokenStore.getTokenCount(rowNumber);
+            for (int i = 0; i < tokenCount; i++) {
+                int offset = rowOffset + tokenStore.getColumn(rowNumber, i);
+                String identifier = text.substring(offset, offset + tokenStore.getLength(rowNumber, i));
+                Color color = syntaxHighlighter.getRules().getColor(tokenStore.getStyle(rowNumber, i));
+                Map<Color, String> colorNames = syntaxHighlighter.getColorNames();
+                String colorName = colorNames == null ? String.valueOf(color) : colorNames.get(color);
+                formatter.format("%s(\"%s\")", colorName, identifier);
+
+                if ( i < tokenCount - 1) {
+                    sb.append(", ");
+                }
+            }
+            if (rowNumber < rowCount - 1) {
+                sb.append('\n');
+            }
+        }
+
+        String result = sb.toString();
+        System.out.println(result);
+    }
+
+    /**
+     * Debugging method for printing the cached regions.
+     */
+    private void printRegions() {
+        RegionIndex regions = cachedFileData.getRegions();
+        LineIndex lineIndex = cachedFileData.getLineIndex();
+
+        for (Region region : regions.getRegions()) {
+            CoordinatePair start = getLocationFor(lineIndex, region.getStart());
+            CoordinatePair end = getLocationFor(lineIndex, region.getEnd());
+            System.out.printf("Region(start: %s, end: %s) \n", start, end);
+        }
+    }
+
+    /**
+     * Find the location for an offset based on the row data of the line index.
+     * @param lineIndex The line index for the text.
+     * @param offset The offset to find the location for.
+     * @return The CoordinatePair location for the input offset in relation to the rows of the line index.
+     */
+    private CoordinatePair getLocationFor(LineIndex lineIndex, int offset) {
+        int row = lineIndex.getRowOfOffset(offset);
+        int column = offset - lineIndex.getRowStartOffset(row);
+        return new CoordinatePair(row, column);
+    }
+
+    /**
+     * Lex and parse the smallest possible region of text that both encloses the edit but also ensures that any edited
+     * tokens are updated properly by the Lexer and Parser in the cached file row data such that it can be passed onto
+     * the {@link #highlight(String)} method.<br/>
+     * <br/>
+     * Lexing begins at the nearest row checkpoint before the edit, which is a row that does not begin inside a
+     * multiline token. It then ends at the first row after the edit whose {@link LexerState} is unchanged by the edit.
+     * So opening or closing a multiline token only lexes and parses the rows whose state was actually changed.
+     * @param text The full text contents of the file being lexed and parsed.
+     * @param dirtyStart The start offset of all text needing to be highlighted. (Encloses the edits.)
+     * @param dirtyEnd The end offset of all text needing to be highlighted. (Encloses the edits.)
+     * @param parse False to only lex the rows, leaving the parser refinements to {@link #reconcile()}.
+     */
+    private void lexAndParse(String text, int dirtyStart, int dirtyEnd, boolean parse) {
+        LineIndex lineIndex = cachedFileData.getLineIndex();
+        RowStates rowStates = cachedFileData.getRowStates();
+        RegionIndex cachedRegions = cachedFileData.getRegions();
+        int lastRow = lineIndex.getRowCount() - 1;
+        int endRow = lineIndex.getRowOfOffset(dirtyEnd);
+
+        // The states of the rows are only known once they are lexed.
+        lexAhead(text, endRow);
+
+        // An edit starting with a newline begins on the row that the newline terminates.
+        int startRow = findCheckpointRow(lineIndex, rowStates, cachedRegions, lineIndex.getRowOfOffset(dirtyStart));
+
+        // One extra row is always lexed past lexEndRow. So that a multiline token opened on lexEndRow is not mistaken
+        // for one which is terminated by the end of the text, and the state at the start of the next row is known.
+        TokenStore tokenStore = cachedFileData.getTokenStore();
+        List<Region> regions = new ArrayList<>();
+        int lexStartRow = startRow;
+        int lexEndRow = endRow;
+        LexedRows lexedRows = lexRows(text, lineIndex, lexStartRow, Math.min(lastRow, lexEndRow + 1), parse);
+
+        // Lex and parse further until the state after the last lexed row matches the state recorded for the next row.
+        // (Or until reaching rows which have not been lexed yet, whose recorded states are not yet known.)
+        while (lexEndRow < lastRow && lexEndRow + 1 < cachedFileData.getLexedRowCount() &&
+                lexedRows.getState(lexEndRow + 1) != rowStates.get(lexEndRow + 1)) {
+            // Keep all rows before the last checkpoint, as they are unaffected by lexing any further rows.
+            int checkpointRow = lexedRows.getLastCheckpointRow(lexEndRow);
+            int checkpointOffset = lineIndex.getRowStartOffset(checkpointRow);
+            for (int row = lexStartRow; row < checkpointRow; row++) {
+                storeRow(tokenStore, row, lexedRows.getRow(row));
+                rowStates.set(row, lexedRows.getState(row));
+            }
+            for (Region region : lexedRows.getRegions()) {
+                if (region.getEnd() <= checkpointOffset) {
+                    regions.add(region);
+                }
+            }
+
+            // Each pass lexes at least twice as many rows as the last.
+            int rowCount = Math.max(MIN_RELEX_ROW_COUNT, lexEndRow - startRow + 1);
+            lexStartRow = checkpointRow;
+            lexEndRow = Math.min(lastRow, lexEndRow + rowCount);
+            lexedRows = lexRows(text, lineIndex, lexStartRow, Math.min(lastRow, lexEndRow + 1), parse);
+        }
+        storeLexedRows(text, lexedRows, startRow, lexEndRow, regions);
+
+        startRowNumber = startRow;
+        endRowNumber = lexEndRow;
+        this.startOffset = lineIndex.getRowStartOffset(startRow);
+        this.endOffset = lineIndex.getRowEndOffset(lexEndRow);
+    }
+
+    /**
+     * Record the tokens and LexerState of each lexed row, and the Regions of all multiline tokens in them, to the
+     * cached file data. Replacing any previously recorded for those rows.
+     * @param text The full text contents of the file.
+     * @param lexedRows The rows from the final pass of lexing and parsing.
+     * @param startRow The first row lexed across all passes.
+     * @param lexEndRow The last row to record. The LexerState of the row following it is recorded as well.
+     * @param regions The Regions found by earlier passes, which all end before the rows of the final pass.
+     */
+    private void storeLexedRows(String text, LexedRows lexedRows, int startRow, int lexEndRow, List<Region> regions) {
+        LineIndex lineIndex = cachedFileData.getLineIndex();
+        RowStates rowStates = cachedFileData.getRowStates();
+        RegionIndex cachedRegions = cachedFileData.getRegions();
+        TokenStore tokenStore = cachedFileData.getTokenStore();
+        int lastRow = lineIndex.getRowCount() - 1;
+
+        for (int row = lexedRows.startRow; row <= lexEndRow; row++) {
+            storeRow(tokenStore, row, lexedRows.getRow(row));
+        }
+        for (int row = lexedRows.startRow; row <= Math.min(lastRow, lexEndRow + 1); row++) {
+            rowStates.set(row, lexedRows.getState(row));
+        }
+
+        int startOffset = lineIndex.getRowStartOffset(startRow);
+        int endOffset = lineIndex.getRowEndOffset(lexEndRow);
+
+        // Find the multiline token left open at the end of lexEndRow, if any.
+        int openRegionStart = -1;
+        Class<? extends MultilineToken> openRegionType = null;
+        for (Region region : lexedRows.getRegions()) {
+            if (region.getEnd() <= endOffset) {
+                regions.add(region);
+            } else if (region.getStart() < endOffset) {
+                openRegionStart = region.getStart();
+                openRegionType = region.getTokenType();
+            }
+        }
+        if (lexedRows.hasOpenRegion() && lexedRows.getOpenRegionStart() < endOffset) {
+            openRegionStart = lexedRows.getOpenRegionStart();
+            openRegionType = lexedRows.getOpenRegionType();
+        }
+
+        // Replace all Regions in the lexed text.
+        List<Region> replacedRegions = cachedRegions.removeIntersecting(startOffset,
+                Math.max(endOffset, startOffset + 1));
+        for (Region region : regions) {
+            cachedRegions.add(region);
+        }
+        if (openRegionStart != -1) {
+            // The open token continues on into the unchanged rows. So it ends where the replaced Region did. Unless
+            // those rows are not lexed yet, in which case it is presumed to continue to the end of the text.
+            int regionEnd = text.length() + LINE_SEPARATOR_LENGTH + 1;
+            if (lexEndRow + 1 < cachedFileData.getLexedRowCount() && !replacedRegions.isEmpty()) {
+                regionEnd = Math.max(endOffset + 1, replacedRegions.get(replacedRegions.size() - 1).getEnd());
+            }
+            cachedRegions.add(new Region(openRegionStart, regionEnd, openRegionType));
+        }
+        cachedFileData.setLexedRowCount(Math.max(cachedFileData.getLexedRowCount(), lexEndRow + 1));
+    }
+
+    /**
+     * Lex and parse the rows following all rows lexed so far, up through the given row. Their tokens are recorded in
+     * the {@link TokenStore}, so that any of these rows can later be highlighted without lexing them again.<br/>
+     * <br/>
+     * Many rows are lexed in parallel chunks, so long as the chunk boundaries guessed for them turn out to be correct.
+     * @param text The full text contents of the file.
+     * @param endRow The last row to lex.
+     */
+    private void lexAhead(String text, int endRow) {
+        LineIndex lineIndex = cachedFileData.getLineIndex();
+        RowStates rowStates = cachedFileData.getRowStates();
+        RegionIndex cachedRegions = cachedFileData.getRegions();
+        int lastRow = lineIndex.getRowCount() - 1;
+        endRow = Math.min(endRow, lastRow);
+        boolean lexInParallel = syntaxHighlighter.getLexerPool().getParallelism() > 1;
+
+        while (cachedFileData.getLexedRowCount() <= endRow) {
+            int lexedRowCount = cachedFileData.getLexedRowCount();
+            int lexStartRow = findCheckpointRow(lineIndex, rowStates, cachedRegions, lexedRowCount);
+
+            if (lexInParallel && endRow - lexStartRow >= 2 * PARALLEL_CHUNK_ROW_COUNT) {
+                // Stop lexing in parallel if any chunk boundary was wrong. (As the rest are then likely wrong too.)
+                lexInParallel = lexChunks(text, lexStartRow, endRow);
+                continue;
+            }
+
+            // Lex at least as many new rows as are lexed again from the checkpoint. (So that lexing ahead through a
+            // long multiline token does not lex its opening rows again for every chunk.)
+            int rowCount = Math.max(LEX_AHEAD_ROW_COUNT, lexedRowCount - lexStartRow);
+            int lexEndRow = Math.min(lastRow, lexedRowCount + rowCount - 1);
+            LexedRows lexedRows = lexRows(text, lineIndex, lexStartRow, Math.min(lastRow, lexEndRow + 1), true);
+            storeLexedRows(text, lexedRows, lexStartRow, lexEndRow, new ArrayList<>());
+        }
+    }
+
+    /**
+     * Lex and parse a range of rows in parallel chunks, one chunk for each task of the lexer pool. The chunks are then
+     * recorded in order, up until the first chunk whose first row turns out to begin inside a multiline token.
+     * @param text The full text contents of the file.
+     * @param startRow The first row to lex. Must not begin inside a multiline token.
+     * @param endRow The last row to lex.
+     * @return True if all chunks were recorded, or false if any chunks were discarded or failed.
+     */
+    private boolean lexChunks(String text, int startRow, int endRow) {
+        LineIndex lineIndex = cachedFileData.getLineIndex();
+        RowStates rowStates = cachedFileData.getRowStates();
+        int lastRow = lineIndex.getRowCount() - 1;
+        int[] chunkStartRows = ChunkBoundaryScanner.findChunkStartRows(text, lineIndex, startRow, endRow,
+                PARALLEL_CHUNK_ROW_COUNT);
+
+        List<Callable<LexedRows>> chunks = new ArrayList<>();
+        for (int i = 0; i < chunkStartRows.length - 1; i++) {
+            int chunkStartRow = chunkStartRows[i];
+            int chunkEndRow = Math.min(lastRow, chunkStartRows[i + 1]);
+            chunks.add(() -> {
+                LexerWorkerThread worker = (LexerWorkerThread) Thread.currentThread();
+                return lexRows(worker.getLexer(), worker.getParser(), text, lineIndex, chunkStartRow, chunkEndRow);
+            });
+        }
+
+        List<Future<LexedRows>> lexedChunks;
+        try {
+            lexedChunks = syntaxHighlighter.getLexerPool().invokeAll(chunks);
+        } catch (RejectedExecutionException e) {
+            // The highlighter was shut down. So the rows are lexed one chunk at a time instead.
+            return false;
+        }
+
+        for (int i = 0; i < lexedChunks.size(); i++) {
+            int chunkStartRow = chunkStartRows[i];
+            if (rowStates.get(chunkStartRow) != LexerState.NONE) {
+                return false;
+            }
+            try {
+                LexedRows lexedRows = lexedChunks.get(i).get();
+                storeLexedRows(text, lexedRows, chunkStartRow, chunkStartRows[i + 1] - 1, new ArrayList<>());
+            } catch (ExecutionException e) {
+                // The chunk failed. So the remaining rows are lexed one chunk at a time instead.
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lex ahead through the rest of the file in the background, one batch of rows at a time. Each batch is lexed in
+     * parallel chunks, and is queued behind any other work for this session, so that edits are still highlighted
+     * promptly. The {@link HighlightScheduler} also runs each batch behind the work of all other sessions.
+     */
+    private void scheduleLexAhead() {
+        if (isClosed() || cachedFileData.isLexAheadScheduled() || cachedFileData.isFullyLexed()) {
+            return;
+        }
+        cachedFileData.setLexAheadScheduled(true);
+        execute(lexAheadTask);
+    }
+
+    /**
+     * Lex ahead through the next batch of rows, and then schedule the batch after it.
+     */
+    private void lexAheadInBackground() {
+        cachedFileData.setLexAheadScheduled(false);
+        if (!isClosed()) {
+            int rowCount = LEX_AHEAD_ROW_COUNT * syntaxHighlighter.getLexerPool().getParallelism();
+            lexAhead(cachedFileData.getText(), cachedFileData.getLexedRowCount() + rowCount - 1);
+            scheduleLexAhead();
+        }
+    }
+
+    /**
+     * Prepare a range of rows to be passed onto the {@link #highlight(String)} method. For highlighting rows as
+     * they are scrolled into view. The rows only need to be lexed and parsed if they have not been lexed ahead yet.
+     * @param text The full text contents of the file being highlighted.
+     * @param firstRow The first row to highlight.
+     * @param lastRow The last row to highlight.
+     */
+    private void lexAndParseRows(String text, int firstRow, int lastRow) {
+        LineIndex lineIndex = cachedFileData.getLineIndex();
+        lastRow = Math.min(lastRow, lineIndex.getRowCount() - 1);
+        lexAhead(text, lastRow);
+
+        startRowNumber = firstRow;
+        endRowNumber = lastRow;
+        this.startOffset = lineIndex.getRowStartOffset(firstRow);
+        this.endOffset = lineIndex.getRowEndOffset(lastRow);
+    }
+
+    /**
+     * Walk backwards from a row to the nearest row that does not begin inside a multiline token. (The Lexer is only
+     * able to begin lexing from such a row.)
+     * @param lineIndex The line index for the text.
+     * @param rowStates The recorded state for each row.
+     * @param regions The Regions of all multiline tokens.
+     * @param row The row to search from.
+     * @return The nearest checkpoint row at or before the given row.
+     */
+    private int findCheckpointRow(LineIndex lineIndex, RowStates rowStates, RegionIndex regions, int row) {
+        while (row > 0 && rowStates.get(row) != LexerState.NONE) {
+            // Jump to the row of the opening token of the Region which encloses the newline before this row.
+            int rowOffset = lineIndex.getRowStartOffset(row);
+            Region enclosingRegion = regions.findRegion(rowOffset - 1);
+            if (enclosingRegion != null && enclosingRegion.getStart() < rowOffset) {
+                row = lineIndex.getRowOfOffset(enclosingRegion.getStart());
+            } else {
+                row--;
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Convert the list of crystals from being organized on statement boundaries to being organized on row boundaries.
+     * @param lexedStatements The list of lexed and parsed crystals to reorganize.
+     * @param unparsableTokens The list of unparsable tokens as collected by the Lexer.
+     * @param startRow The starting row number for the row data.
+     * @param endRow The ending row number for the row data.
+     * @return A list of crystals structured such that each row is organized in its own list. Empty rows necessitate an
+     * empty list in the result set. (To preserve row-number-based traversals of the output of this method.)
+     */
+    private static List<List<AtonementCrystal>> convertToRows(List<List<AtonementCrystal>> lexedStatements,
+                                                              List<AtonementCrystal> unparsableTokens,
+                                                              int startRow, int endRow) {
+        List<AtonementCrystal> crystals = new ArrayList<>();
+        for (List<AtonementCrystal> lexedStatement : lexedStatements) {
+            crystals.addAll(lexedStatement);
+        }
+
+        // Only sort if any unparsable tokens are present. (The statements of crystals are all already in order.)
+        if (!unparsableTokens.isEmpty()) {
+            crystals.addAll(unparsableTokens);
+            crystals.sort(Comparator.comparing(AtonementCrystal::getCoordinates));
+        }
+        List<List<AtonementCrystal>> rows = new ArrayList<>();
+
+        // Simplify handling for the single row case.
+        if (startRow == endRow) {
+            rows.add(crystals);
+            return rows;
+        }
+
+        // Initialize the rows list by the number of rows.
+        for (int i = startRow; i <= endRow; i++) {
+            rows.add(new ArrayList<>());
+        }
+
+        // Group crystals by row number into the final list of rows.
+        for (AtonementCrystal crystal : crystals) {
+            CoordinatePair location = crystal.getCoordinates();
+            int crystalRowNumber = location.getRow();
+            int listIndex = crystalRowNumber - startRow;
+            List<AtonementCrystal> row = rows.get(listIndex);
+            row.add(crystal);
+        }
+        return rows;
+    }
+
+    /**
+     * Record the tokens of a lexed and parsed row in the token store.
+     * @param tokenStore The token store to update.
+     * @param row The row number.
+     * @param crystals The crystals of the row, in order.
+     */
+    private void storeRow(TokenStore tokenStore, int row, List<AtonementCrystal> crystals) {
+        int tokenCount = classifyRow(crystals);
+        tokenStore.setRow(row, rowColumns, rowLengths, rowStyles, tokenCount);
+    }
+
+    /**
+     * Record the tokens of a lexed and parsed row in the token store, only if they differ from the tokens already
+     * recorded for the row.
+     * @param tokenStore The token store to update.
+     * @param row The row number.
+     * @param crystals The crystals of the row, in order.
+     * @return True if the tokens of the row were changed.
+     */
+    private boolean storeRowIfChanged(TokenStore tokenStore, int row, List<AtonementCrystal> crystals) {
+        int tokenCount = classifyRow(crystals);
+        boolean changed = tokenCount != tokenStore.getTokenCount(row);
+        for (int i = 0; i < tokenCount && !changed; i++) {
+            changed = rowColumns[i] != tokenStore.getColumn(row, i) || rowLengths[i] != tokenStore.getLength(row, i) ||
+                    rowStyles[i] != tokenStore.getStyle(row, i);
+        }
+        if (changed) {
+            tokenStore.setRow(row, rowColumns, rowLengths, rowStyles, tokenCount);
+        }
+        return changed;
+    }
+
+    /**
+     * Fill the row buffers with the column, length, and style class of each crystal of a row.
+     * @param crystals The crystals of the row, in order.
+     * @return The number of tokens in the row.
+     */
+    private int classifyRow(List<AtonementCrystal> crystals) {
+        int tokenCount = crystals.size();
+        if (tokenCount > rowColumns.length) {
+            int capacity = Math.max(tokenCount, rowColumns.length * 2);
+            rowColumns = new int[capacity];
+            rowLengths = new int[capacity];
+            rowStyles = new short[capacity];
+        }
+        for (int i = 0; i < tokenCount; i++) {
+            AtonementCrystal crystal = crystals.get(i);
+            rowColumns[i] = crystal.getCoordinates().getColumn();
+            rowLengths[i] = crystal.getIdentifier().length();
+            rowStyles[i] = StyleClasses.of(crystal);
+        }
+        return tokenCount;
+    }
+
+    /**
+     * Compute the syntax highlighting for the previously lexed and parsed region. (As just processed by {@link
+     * #lexAndParse(String, int, int, boolean)}. With the color rules of the current color theme.
+     * @param text The full text contents of the file being highlighted.
+     * @return The style runs to apply to the document for the region. Consecutive tokens on a row with the same style,
+     * which are separated only by whitespace, are merged into a single style run.
+     */
+    private List<StyleRun> highlight(String text) {
+        TokenStore tokenStore = cachedFileData.getTokenStore();
+        LineIndex lineIndex = cachedFileData.getLineIndex();
+        List<StyleRun> styleRuns = new ArrayList<>();
+        HighlightRules rules = syntaxHighlighter.getRules();
+        highlightRules = rules;
+
+        // For each row
+        for (int rowNumber = startRowNumber; rowNumber <= endRowNumber; rowNumber++) {
+            int rowOffset = lineIndex.getRowStartOffset(rowNumber);
+            int tokenCount = tokenStore.getTokenCount(rowNumber);
+            StyleRun previousRun = null;
+
+            // For each token
+            for (int token = 0; token < tokenCount; token++) {
+                int offset = rowOffset + tokenStore.getColumn(rowNumber, token);
+                int length = tokenStore.getLength(rowNumber, token);
+                AttributeSet attributeSet = rules.getAttributeSet(tokenStore.getStyle(rowNumber, token));
+
+                // Merge the token into the previous style run, if possible.
+                if (previousRun != null && previousRun.getAttributeSet() == attributeSet) {
+                    int previousEnd = previousRun.getOffset() + previousRun.getLength();
+                    if (previousEnd <= offset && isWhitespace(text, previousEnd, offset)) {
+                        int mergedLength = offset + length - previousRun.getOffset();
+                        previousRun = new StyleRun(rowNumber, previousRun.getOffset(), mergedLength, attributeSet);
+                        styleRuns.set(styleRuns.size() - 1, previousRun);
+                        continue;
+                    }
+                }
+                previousRun = new StyleRun(rowNumber, offset, length, attributeSet);
+                styleRuns.add(previousRun);
+            }
+        }
+        return styleRuns;
+    }
+
+    /**
+     * @return True if the text between the start and end offsets consists only of spaces and tabs.
+     */
+    private static boolean isWhitespace(String text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c != ' ' && c != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Highlight the entire file contents. Lexing and parsing is done on a thread of the highlight worker pool.<br/>
+     * <br/>
+     * Only the rows up through the viewport are highlighted right away, so that the visible text is colored as soon as
+     * possible. The rest of the file is then lexed in the background, and each further row is highlighted once it is
+     * scrolled into view.
+     * @param snapshot The text to lex and parse.
+     * @param editorPane The UI component that displays the syntax highlighted text to the user.
+     */
+    public void highlightEntireFile(DocumentSnapshot snapshot, VideEditorPane editorPane) {
+        if (enabled) {
+            int lastVisibleRow = editorPane.getVisibleRows()[1];
+            execute(() -> {
+                if (isClosed()) {
+                    return;
+                }
+                String text = snapshot.getText();
+                textVersion = snapshot.getVersion();
+                this.editorPane = editorPane;
+                clearProvisionalRange();
+                lexAndParseInitialRows(text, lastVisibleRow);
+                List<StyleRun> styleRuns = highlight(text);
+                publish(snapshot.getVersion(), styleRuns, true, editorPane);
+                scheduleLexAhead();
+            });
+        }
+    }
+
+    /**
+     * Discard all cached data for the file, and then lex and parse its rows from the start of the file up through the
+     * given row. The algorithm for doing so can be greatly simplified in this case. (In comparison to the additional
+     * complexity required for {@link #lexAndParse(String, int, int, boolean)}.
+     * @param text The text to lex and parse.
+     * @param endRow The last row to lex and parse.
+     */
+    private void lexAndParseInitialRows(String text, int endRow) {
+        cachedFileData.reset(text);
+        LineIndex lineIndex = cachedFileData.getLineIndex();
+
+        int lastRow = lineIndex.getRowCount() - 1;
+        endRow = Math.min(endRow, lastRow);
+        LexedRows lexedRows = lexRows(text, lineIndex, 0, Math.min(lastRow, endRow + 1), true);
+        storeLexedRows(text, lexedRows, 0, endRow, new ArrayList<>());
+
+        startRowNumber = 0;
+        endRowNumber = endRow;
+        this.startOffset = 0;
+        this.endOffset = lineIndex.getRowEndOffset(endRow);
+    }
+
+    /**
+     * Lex and parse a range of rows of the text, and then calculate the Regions of all multiline tokens in those rows
+     * and the {@link LexerState} at the start of each row.
+     * @param text The full text contents of the file.
+     * @param lineIndex The line index for the text.
+     * @param startRow The first row to lex and parse. Must not begin inside a multiline token.
+     * @param endRow The last row to lex and parse.
+     * @param parse False to only lex the rows, so that their tokens are classified by the Lexer alone.
+     * @return The lexed and parsed rows.
+     */
+    private LexedRows lexRows(String text, LineIndex lineIndex, int startRow, int endRow, boolean parse) {
+        return lexRows(lexer, parse ? parser : null, text, lineIndex, startRow, endRow);
+    }
+
+    /**
+     * Lex and parse a range of rows of the text with the given Lexer and VideParser. (So that chunks of the text can be
+     * lexed on other threads than the highlight worker.)
+     * @param lexer The Lexer to lex the rows with.
+     * @param parser The VideParser to parse the rows with, or null to only lex the rows.
+     * @param text The full text contents of the file.
+     * @param lineIndex The line index for the text.
+     * @param startRow The first row to lex and parse. Must not begin inside a multiline token.
+     * @param endRow The last row to lex and parse.
+     * @return The lexed and parsed rows.
+     */
+    private static LexedRows lexRows(Lexer lexer, VideParser parser, String text, LineIndex lineIndex, int startRow,
+                                     int endRow) {
+        int startOffset = lineIndex.getRowStartOffset(startRow);
+        int endOffset = lineIndex.getRowEndOffset(endRow);
+        String textRegion = text.substring(startOffset, endOffset);
+
+        lexer.reset();
+        lexer.setLineNumberOffset(startRow);
+        List<List<AtonementCrystal>> lexedStatements = lexer.lex(textRegion);
+
+        if (parser != null) {
+            parser.reset();
+            parser.parse(null, lexedStatements);
+        }
+
+        List<List<AtonementCrystal>> rows = convertToRows(lexedStatements, lexer.getUnparsableTokens(), startRow, endRow);
+        LexedRows lexedRows = new LexedRows(startRow, rows);
+        int[] rowOffsets = getRowOffsets(lineIndex, startRow, rows.size());
+        calculateRegions(rowOffsets, lexedRows);
+        return lexedRows;
+    }
+
+    /**
+     * Calculate the Regions of all multiline tokens in the lexed rows, as well as the state at the start of each row.
+     * @param rowOffsets The offset of each of the lexed rows.
+     * @param lexedRows The lexed and parsed row data to update.
+     */
+    private static void calculateRegions(int[] rowOffsets, LexedRows lexedRows) {
+        List<List<AtonementCrystal>> rows = lexedRows.rows;
+        Class<? extends MultilineToken> tokenType = null;
+        int regionStart = -1;
+        int regionEnd;
+
+        // rowIndex is not the absolute row number, but rather the relative index into the list of updated rows.
+        for (int rowIndex = 0; rowIndex < rows.size(); rowIndex++) {
+            lexedRows.states[rowIndex] = LexerState.of(tokenType);
+            List<AtonementCrystal> row = rows.get(rowIndex);
+            for (AtonementCrystal crystal : row) {
+                if (crystal instanceof MultilineToken multilineToken) {
+                    if (multilineToken.isOpeningToken()) {
+                        if (tokenType != null) {
+                            throw new IllegalStateException("Malformed row data. Expected null tokenType, but it was " +
+                                    tokenType.getName());
+                        } else {
+                            tokenType = multilineToken.getClass();
+                        }
+                        CoordinatePair location = crystal.getCoordinates();
+                        int column = location.getColumn();
+                        int rowOffset = rowOffsets[rowIndex];
+                        regionStart = rowOffset + column;
+                    } else {
+                        // The following checks are for both middle and closing multiline tokens.
+                        if (tokenType == null) {
+                            throw new IllegalStateException("Malformed row data. Expected non-null tokenType, but it " +
+                                    "was null.");
+                        } else if (tokenType != crystal.getClass()) {
+                            String prevTypeName = tokenType.getName();
+                            String currentTypeName = crystal.getClass().getName();
+                            throw new IllegalStateException("Malformed row data. Expected tokenTypes to be equivalent," +
+                                    ", but previous is " + prevTypeName + " and current is " + currentTypeName);
+                        }
+                        if (multilineToken.isClosingToken()) {
+                            // Note that a closing token will always have a column value of zero.
+                            int rowOffset = rowOffsets[rowIndex];
+                            int tokenLength = crystal.getIdentifier().length();
+                            regionEnd = rowOffset + tokenLength;
+                            lexedRows.regions.add(new Region(regionStart, regionEnd, tokenType));
+                            // Clear regionStart and tokenType so that later unclosed tokens are detectable.
+                            regionStart = -1;
+                            tokenType = null;
+                        }
+                    }
+                }
+            }
+        }
+        lexedRows.states[rows.size()] = LexerState.of(tokenType);
+
+        // Record an unclosed multiline token terminating the lexed rows.
+        lexedRows.openRegionStart = regionStart;
+        lexedRows.openRegionType = tokenType;
+    }
+
+    /**
+     * Look up the row offsets for a range of rows. A row offset is the index of a newline character plus one.
+     * @param lineIndex The line index for the text.
+     * @param startRow The first row of the range.
+     * @param rowCount The number of rows in the range.
+     * @return An array of row offsets for the range of rows.
+     */
+    private static int[] getRowOffsets(LineIndex lineIndex, int startRow, int rowCount) {
+        int[] rowOffsets = new int[rowCount];
+        for (int offsetsIndex = 0; offsetsIndex < rowCount; offsetsIndex++) {
+            rowOffsets[offsetsIndex] = lineIndex.getRowStartOffset(startRow + offsetsIndex);
+        }
+        return rowOffsets;
+    }
+
+
+    /**
+     * The row data, Regions, and row states resulting from lexing and parsing a range of rows.
+     */
+    private static class LexedRows {
+        private final int startRow;
+        private final List<List<AtonementCrystal>> rows;
+        private final List<Region> regions;
+        private final LexerState[] states;
+        private int openRegionStart = -1;
+        private Class<? extends MultilineToken> openRegionType;
+
+        LexedRows(int startRow, List<List<AtonementCrystal>> rows) {
+            this.startRow = startRow;
+            this.rows = rows;
+            this.regions = new ArrayList<>();
+            // Includes the state at the start of the row following the last row.
+            this.states = new LexerState[rows.size() + 1];
+        }
+
+        List<AtonementCrystal> getRow(int row) {
+            return rows.get(row - startRow);
+        }
+
+        LexerState getState(int row) {
+            return states[row - startRow];
+        }
+
+        /**
+         * @param maxRow The last row to consider.
+         * @return The last lexed row up to maxRow which does not begin inside a multiline token.
+         */
+        int getLastCheckpointRow(int maxRow) {
+            for (int i = maxRow - startRow; i > 0; i--) {
+                if (states[i] == LexerState.NONE) {
+                    return startRow + i;
+                }
+            }
+            return startRow;
+        }
+
+        /**
+         * @return The Regions of all multiline tokens closed within the lexed rows.
+         */
+        List<Region> getRegions() {
+            return regions;
+        }
+
+        boolean hasOpenRegion() {
+            return openRegionStart != -1;
+        }
+
+        int getOpenRegionStart() {
+            return openRegionStart;
+        }
+
+        Class<? extends MultilineToken> getOpenRegionType() {
+            return openRegionType;
+        }
+    }
+}
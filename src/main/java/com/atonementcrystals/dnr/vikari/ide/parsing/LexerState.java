@@ -0,0 +1,31 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+import com.atonementcrystals.dnr.vikari.core.crystal.MultiLineCommentCrystal;
+import com.atonementcrystals.dnr.vikari.core.crystal.MultilineToken;
+import com.atonementcrystals.dnr.vikari.core.crystal.literal.MultiLineStringLiteralCrystal;
+
+/**
+ * The state of the {@link com.atonementcrystals.dnr.vikari.interpreter.Lexer} at the start of a row. Which is whether
+ * or not the row begins inside of a multiline token, and if so, which kind.
+ */
+public enum LexerState {
+    NONE,
+    MULTILINE_COMMENT,
+    MULTILINE_STRING,
+    OTHER_MULTILINE_TOKEN;
+
+    /**
+     * @param tokenType The type of an unclosed multiline token, or null if there is none.
+     * @return The LexerState for a row beginning inside of the given type of multiline token.
+     */
+    public static LexerState of(Class<? extends MultilineToken> tokenType) {
+        if (tokenType == null) {
+            return NONE;
+        } else if (tokenType == MultiLineCommentCrystal.class) {
+            return MULTILINE_COMMENT;
+        } else if (tokenType == MultiLineStringLiteralCrystal.class) {
+            return MULTILINE_STRING;
+        }
+        return OTHER_MULTILINE_TOKEN;
+    }
+}
@@ -0,0 +1,35 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+import com.atonementcrystals.dnr.vikari.interpreter.Lexer;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * A worker thread of the ForkJoinPool which lexes and parses the chunks of a file in parallel. Each worker has its own
+ * {@link Lexer} and {@link VideParser}, as neither can be used by more than one thread at a time.
+ */
+public class LexerWorkerThread extends ForkJoinWorkerThread {
+    private final Lexer lexer;
+    private final VideParser parser;
+
+    public LexerWorkerThread(ForkJoinPool pool) {
+        super(pool);
+        lexer = HighlightSession.createLexer();
+        parser = HighlightSession.createParser();
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        setName("Vide-Lexer-" + getPoolIndex());
+    }
+
+    public Lexer getLexer() {
+        return lexer;
+    }
+
+    public VideParser getParser() {
+        return parser;
+    }
+}
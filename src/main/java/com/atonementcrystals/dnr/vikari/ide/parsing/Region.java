@@ -45,11 +45,9 @@ public class Region implements Comparable<Region> {
     }
 
     /**
-     * Regions ordinarily will never intersect. Because the TreeMap they are stored in always stores non-overlapping
-     * Regions, each representing a different sequential multiline token. So if a smaller Region is intersecting another
-     * Region's bounds, it will return zero from this method. This way {@link java.util.Map#remove(Object)} can be used
-     * to search the TreeMap for a match of all Regions intersecting an edit. This is performant for the algorithm for
-     * processing single-line edits.
+     * Regions ordinarily will never intersect. Because the {@link RegionIndex} they are stored in always stores
+     * non-overlapping Regions, each representing a different sequential multiline token. So if a smaller Region is
+     * intersecting another Region's bounds, it will return zero from this method.
      * @param other The other Region to be compared.
      * @return Zero if the region intersect. Otherwise, it returns the difference found between either the startRow
      * values, or the endRow values (if the startRow values are found to be equal).
@@ -0,0 +1,244 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Stores the non-overlapping Regions of the multiline tokens of a Vikari code file, in order of their offsets. The
+ * Regions are stored in a balanced tree (a treap) so that both finding all Regions intersecting an edit, and shifting
+ * all Regions following an edit, are done in O(log n) time.<br/>
+ * <br/>
+ * Shifts are applied lazily. Each node records a pending shift which has not yet been applied to the Regions of its
+ * children, and which is only pushed down to them as the tree is walked. So the start and end values of a Region
+ * still stored in the index are only up to date once it is returned by one of the methods of this class.
+ */
+public class RegionIndex {
+    private final Random random = new Random();
+    private Node root;
+
+    private static class Node {
+        final Region region;
+        final int priority;
+        int pendingShift;
+        int size;
+        Node left;
+        Node right;
+
+        Node(Region region, int priority) {
+            this.region = region;
+            this.priority = priority;
+            this.size = 1;
+        }
+
+        void shift(int offset) {
+            region.update(offset);
+            pendingShift += offset;
+        }
+
+        void pushDown() {
+            if (pendingShift != 0) {
+                if (left != null) left.shift(pendingShift);
+                if (right != null) right.shift(pendingShift);
+                pendingShift = 0;
+            }
+        }
+
+        void update() {
+            size = 1 + size(left) + size(right);
+        }
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public void clear() {
+        root = null;
+    }
+
+    /**
+     * Add a Region to the index. Any Regions which intersect it are replaced.
+     * @param region The Region to add.
+     */
+    public void add(Region region) {
+        removeIntersecting(region.getStart(), region.getEnd());
+        Node[] split = splitByStart(root, region.getStart());
+        Node node = new Node(region, random.nextInt());
+        root = merge(merge(split[0], node), split[1]);
+    }
+
+    /**
+     * Find the Region containing the given offset.
+     * @param offset The offset to search for.
+     * @return The Region containing the offset, or null if there is no such Region.
+     */
+    public Region findRegion(int offset) {
+        Node node = root;
+        while (node != null) {
+            node.pushDown();
+            Region region = node.region;
+            if (offset < region.getStart()) {
+                node = node.left;
+            } else if (offset >= region.getEnd()) {
+                node = node.right;
+            } else {
+                return region;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove all Regions intersecting the span of text between the start and end offsets.
+     * @param start The start offset of the span.
+     * @param end The end offset of the span. Must be greater than the start offset.
+     * @return The removed Regions, in order.
+     */
+    public List<Region> removeIntersecting(int start, int end) {
+        // As the Regions never overlap, those intersecting the span are contiguous.
+        Node[] before = splitByEnd(root, start);
+        Node[] after = splitByStart(before[1], end);
+
+        List<Region> removed = new ArrayList<>();
+        collect(after[0], removed);
+        root = merge(before[0], after[1]);
+        return removed;
+    }
+
+    /**
+     * Remove all Regions which start at or after the given offset.
+     * @param offset The offset to remove Regions from.
+     */
+    public void removeFrom(int offset) {
+        root = splitByStart(root, offset)[0];
+    }
+
+    /**
+     * Shift all Regions which start at or after the given offset.
+     * @param offset The offset to shift Regions from.
+     * @param length The amount to shift the Regions by. If negative, they are shifted backwards.
+     */
+    public void shiftFrom(int offset, int length) {
+        if (length == 0) {
+            return;
+        }
+        Node[] split = splitByStart(root, offset);
+        if (split[1] != null) {
+            split[1].shift(length);
+        }
+        root = merge(split[0], split[1]);
+    }
+
+    /**
+     * Map all Regions through a batch of edits. Regions after the edits are shifted by the net length of the edits.
+     * Regions touched by the edits are clamped to the edited text instead, and are dropped if nothing remains of them.
+     * @param editBatch The batch of edits to map the Regions through.
+     */
+    public void applyEdit(EditBatch editBatch) {
+        int start = editBatch.getStart();
+        int oldEnd = editBatch.getOldEnd();
+        List<Region> touched = removeIntersecting(start, Math.max(oldEnd, start + 1));
+        shiftFrom(oldEnd, editBatch.getDelta());
+
+        for (Region region : touched) {
+            int newStart = editBatch.mapOffset(region.getStart());
+            int newEnd = region.getEnd() >= oldEnd ? region.getEnd() + editBatch.getDelta() : editBatch.getEnd();
+            if (newStart < newEnd) {
+                add(new Region(newStart, newEnd, region.getTokenType()));
+            }
+        }
+    }
+
+    /**
+     * @return All Regions in the index, in order.
+     */
+    public List<Region> getRegions() {
+        List<Region> regions = new ArrayList<>();
+        collect(root, regions);
+        return regions;
+    }
+
+    private static void collect(Node node, List<Region> regions) {
+        if (node != null) {
+            node.pushDown();
+            collect(node.left, regions);
+            regions.add(node.region);
+            collect(node.right, regions);
+        }
+    }
+
+    /**
+     * Split the tree into all Regions which start before the offset, and all remaining Regions.
+     */
+    private static Node[] splitByStart(Node node, int offset) {
+        if (node == null) {
+            return new Node[] { null, null };
+        }
+        node.pushDown();
+        if (node.region.getStart() < offset) {
+            Node[] result = splitByStart(node.right, offset);
+            node.right = result[0];
+            node.update();
+            result[0] = node;
+            return result;
+        } else {
+            Node[] result = splitByStart(node.left, offset);
+            node.left = result[1];
+            node.update();
+            result[1] = node;
+            return result;
+        }
+    }
+
+    /**
+     * Split the tree into all Regions which end at or before the offset, and all remaining Regions.
+     */
+    private static Node[] splitByEnd(Node node, int offset) {
+        if (node == null) {
+            return new Node[] { null, null };
+        }
+        node.pushDown();
+        if (node.region.getEnd() <= offset) {
+            Node[] result = splitByEnd(node.right, offset);
+            node.right = result[0];
+            node.update();
+            result[0] = node;
+            return result;
+        } else {
+            Node[] result = splitByEnd(node.left, offset);
+            node.left = result[1];
+            node.update();
+            result[1] = node;
+            return result;
+        }
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.pushDown();
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        } else {
+            right.pushDown();
+            right.left = merge(left, right.left);
+            right.update();
+            return right;
+        }
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+}
@@ -0,0 +1,57 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+import java.util.Arrays;
+
+/**
+ * Records the {@link LexerState} at the start of every row of a file, one byte per row. These serve as checkpoints
+ * for lexing: the Lexer can resume from any row which does not begin inside a multiline token. And lexing can stop at
+ * any row whose newly lexed state matches the state recorded for it here, as every following row is then unchanged.
+ */
+public class RowStates {
+    private static final LexerState[] STATES = LexerState.values();
+
+    private byte[] states;
+    private int rowCount;
+
+    public RowStates() {
+        reset(1);
+    }
+
+    /**
+     * Discard all recorded states, and begin every row with a state of {@link LexerState#NONE}.
+     * @param rowCount The number of rows.
+     */
+    public void reset(int rowCount) {
+        this.states = new byte[Math.max(16, rowCount)];
+        this.rowCount = rowCount;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public LexerState get(int row) {
+        return STATES[states[row]];
+    }
+
+    public void set(int row, LexerState state) {
+        states[row] = (byte) state.ordinal();
+    }
+
+    /**
+     * Replace a range of rows with a range of new rows, which each begin with a state of {@link LexerState#NONE}.
+     * @param row The first row to replace.
+     * @param removedCount The number of rows to remove.
+     * @param insertedCount The number of rows to insert in their place.
+     */
+    public void replace(int row, int removedCount, int insertedCount) {
+        int newRowCount = rowCount - removedCount + insertedCount;
+        if (newRowCount > states.length) {
+            states = Arrays.copyOf(states, Math.max(newRowCount, states.length * 2));
+        }
+        int tailStart = row + removedCount;
+        System.arraycopy(states, tailStart, states, row + insertedCount, rowCount - tailStart);
+        Arrays.fill(states, row, row + insertedCount, (byte) LexerState.NONE.ordinal());
+        rowCount = newRowCount;
+    }
+}
@@ -0,0 +1,216 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+import javax.swing.text.AttributeSet;
+import javax.swing.text.StyleConstants;
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Holds the style runs of each row of a document, which the editor pane's views paint the row's text with. The
+ * document itself is never styled. So highlighting a row neither fires document events nor restructures the document's
+ * elements, and only the rows whose style runs changed need to be repainted.<br/>
+ * <br/>
+ * A row with no record is not yet highlighted. Such as a row which has never been in view. A row whose text was edited
+ * keeps its style runs until it is highlighted again, so that it is not painted without color in the meantime. But it
+ * is stale, and so also counts as not yet highlighted. Rows are inserted and removed along with the edits made to the
+ * document, and style runs are recorded by their column rather than their offset, so that each record stays valid for
+ * its row.
+ */
+public class RowStyles {
+    private AppliedRow[] rows;
+    private int rowCount;
+
+    /**
+     * The style runs applied to a single row, ordered by column.
+     */
+    private static class AppliedRow {
+        final int[] columns;
+        final int[] lengths;
+        final AttributeSet[] attributeSets;
+        final Color[] colors;
+        boolean stale;
+
+        AppliedRow(int size) {
+            columns = new int[size];
+            lengths = new int[size];
+            attributeSets = new AttributeSet[size];
+            colors = new Color[size];
+        }
+    }
+
+    public RowStyles() {
+        reset(1);
+    }
+
+    /**
+     * Discard the records for all rows.
+     * @param rowCount The number of rows.
+     */
+    public void reset(int rowCount) {
+        this.rows = new AppliedRow[Math.max(16, rowCount)];
+        this.rowCount = rowCount;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public boolean isHighlighted(int row) {
+        return rows[row] != null && !rows[row].stale;
+    }
+
+    /**
+     * Discard the record for a row, so that it is highlighted again once it is in view.
+     * @param row The row to clear.
+     */
+    public void clear(int row) {
+        rows[row] = null;
+    }
+
+    /**
+     * Find the first row in a range of rows which is not yet highlighted.
+     * @param startRow The first row of the range.
+     * @param endRow The last row of the range.
+     * @return The first row which is not yet highlighted, or -1 if all rows in the range are highlighted.
+     */
+    public int findFirstUnhighlighted(int startRow, int endRow) {
+        endRow = Math.min(rowCount - 1, endRow);
+        for (int row = Math.max(0, startRow); row <= endRow; row++) {
+            if (!isHighlighted(row)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the last row in a range of rows which is not yet highlighted.
+     * @param startRow The first row of the range.
+     * @param endRow The last row of the range.
+     * @return The last row which is not yet highlighted, or -1 if all rows in the range are highlighted.
+     */
+    public int findLastUnhighlighted(int startRow, int endRow) {
+        startRow = Math.max(0, startRow);
+        for (int row = Math.min(rowCount - 1, endRow); row >= startRow; row--) {
+            if (!isHighlighted(row)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Record the style runs for a row.
+     * @param row The row the style runs are for.
+     * @param rowOffset The offset of the start of the row.
+     * @param styleRuns The style runs for the row, in order.
+     * @return True if the style runs differ from those the row was last painted with, and so the row must be
+     * repainted.
+     */
+    public boolean apply(int row, int rowOffset, List<StyleRun> styleRuns) {
+        AppliedRow previous = rows[row];
+        AppliedRow current = new AppliedRow(styleRuns.size());
+        boolean changed = previous == null || previous.stale || previous.columns.length != styleRuns.size();
+
+        for (int i = 0; i < styleRuns.size(); i++) {
+            StyleRun styleRun = styleRuns.get(i);
+            current.columns[i] = styleRun.getOffset() - rowOffset;
+            current.lengths[i] = styleRun.getLength();
+            current.attributeSets[i] = styleRun.getAttributeSet();
+            current.colors[i] = StyleConstants.getForeground(styleRun.getAttributeSet());
+
+            if (!changed && (previous.columns[i] != current.columns[i] || previous.lengths[i] != current.lengths[i] ||
+                    !previous.colors[i].equals(current.colors[i]))) {
+                changed = true;
+            }
+        }
+        rows[row] = current;
+        return changed;
+    }
+
+    /**
+     * @param row The row.
+     * @return The number of style runs recorded for the row. Zero if the row has no record.
+     */
+    public int getRunCount(int row) {
+        AppliedRow appliedRow = row < rowCount ? rows[row] : null;
+        return appliedRow == null ? 0 : appliedRow.columns.length;
+    }
+
+    public int getColumn(int row, int index) {
+        return rows[row].columns[index];
+    }
+
+    public int getLength(int row, int index) {
+        return rows[row].lengths[index];
+    }
+
+    public AttributeSet getAttributeSet(int row, int index) {
+        return rows[row].attributeSets[index];
+    }
+
+    public Color getColor(int row, int index) {
+        return rows[row].colors[index];
+    }
+
+    /**
+     * Move the style runs of a stale row along with an edit made within the row, so that it is painted with roughly the
+     * right colors until it is highlighted again. As for the character attributes of a styled document, inserted text
+     * takes on the style run it directly follows, and style runs within removed text are removed with it.
+     * @param row The edited row.
+     * @param column The column of the edit.
+     * @param delta The length of the inserted text, or the negated length of the removed text.
+     */
+    public void shiftColumns(int row, int column, int delta) {
+        AppliedRow appliedRow = rows[row];
+        if (appliedRow == null) {
+            return;
+        }
+        for (int i = 0; i < appliedRow.columns.length; i++) {
+            int start = shiftColumn(appliedRow.columns[i], column, delta);
+            int end = shiftColumn(appliedRow.columns[i] + appliedRow.lengths[i], column, delta);
+            appliedRow.columns[i] = start;
+            appliedRow.lengths[i] = end - start;
+        }
+    }
+
+    private static int shiftColumn(int position, int column, int delta) {
+        if (delta > 0) {
+            return position < column ? position : position + delta;
+        }
+        int removedEnd = column - delta;
+        if (position <= column) {
+            return position;
+        }
+        return position >= removedEnd ? position + delta : column;
+    }
+
+    /**
+     * Replace a range of rows with a range of new rows, which are not yet highlighted. The first new row keeps the
+     * style runs of the first replaced row, as a stale record.
+     * @param row The first row to replace.
+     * @param removedCount The number of rows to remove.
+     * @param insertedCount The number of rows to insert in their place.
+     */
+    public void replace(int row, int removedCount, int insertedCount) {
+        AppliedRow firstRow = removedCount > 0 && insertedCount > 0 ? rows[row] : null;
+        if (firstRow != null) {
+            firstRow.stale = true;
+        }
+        int newRowCount = rowCount - removedCount + insertedCount;
+        if (newRowCount > rows.length) {
+            rows = Arrays.copyOf(rows, Math.max(newRowCount, rows.length * 2));
+        }
+        int tailStart = row + removedCount;
+        System.arraycopy(rows, tailStart, rows, row + insertedCount, rowCount - tailStart);
+        Arrays.fill(rows, row, row + insertedCount, null);
+        if (firstRow != null) {
+            rows[row] = firstRow;
+        }
+        if (newRowCount < rowCount) {
+            Arrays.fill(rows, newRowCount, rowCount, null);
+        }
+        rowCount = newRowCount;
+    }
+}
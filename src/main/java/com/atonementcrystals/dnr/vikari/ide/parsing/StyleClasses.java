@@ -0,0 +1,131 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+import com.atonementcrystals.dnr.vikari.core.crystal.AtonementCrystal;
+import com.atonementcrystals.dnr.vikari.core.crystal.identifier.ReferenceCrystal;
+import com.atonementcrystals.dnr.vikari.core.crystal.identifier.TokenType;
+import com.atonementcrystals.dnr.vikari.core.crystal.identifier.TypeReferenceCrystal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Classifies each token by its style class. Which is the kind of the token for the purposes of syntax highlighting,
+ * regardless of the color that any {@link VideColorTheme} gives to it. Tokens are cached with their style class rather
+ * than their color, so that the color theme can be changed without lexing and parsing any files again.<br/>
+ * <br/>
+ * A style class is either the class of a crystal, or one of the IdentifierTypes which overload the color of a crystal.
+ * Each is given a small id the first time it is seen. Ids are never reused, so they are valid for as long as Vide runs.
+ */
+public class StyleClasses {
+    private static final Map<Object, Short> ids = new ConcurrentHashMap<>();
+    private static final List<Object> styleClasses = new ArrayList<>();
+
+    /** Resolves each crystal class only once, so that classifying a token does no hashing of its class. */
+    private static final ClassValue<CrystalStyle> CRYSTAL_STYLES = new ClassValue<>() {
+        @Override
+        protected CrystalStyle computeValue(Class<?> type) {
+            return new CrystalStyle(type);
+        }
+    };
+
+    public static final short VARIABLE = register(IdentifierType.VARIABLE);
+    public static final short QUOTED_IDENTIFIER = register(IdentifierType.QUOTED_IDENTIFIER);
+    public static final short TYPE_KEYWORD = register(IdentifierType.TYPE_KEYWORD);
+
+    static {
+        // Register the crystal types of all tokens up front, so that their ids are known to every HighlightRules.
+        for (TokenType tokenType : TokenType.values()) {
+            if (tokenType.getJavaType() != null) {
+                register(tokenType.getJavaType());
+            }
+        }
+        for (List<Class<? extends AtonementCrystal>> types :
+                VikariSyntaxHighlighter.IDENTIFIER_TYPE_MAPPINGS.values()) {
+            for (Class<? extends AtonementCrystal> type : types) {
+                register(type);
+            }
+        }
+    }
+
+    /**
+     * Determine the style class of a crystal.
+     * @param crystal The crystal to classify.
+     * @return The id of the style class.
+     */
+    public static short of(AtonementCrystal crystal) {
+        CrystalStyle crystalStyle = CRYSTAL_STYLES.get(crystal.getClass());
+        switch (crystalStyle.overload) {
+            case NONE:
+                return crystalStyle.styleClass;
+            case REFERENCE:
+                return ((ReferenceCrystal) crystal).isQuotedIdentifier() ? QUOTED_IDENTIFIER : VARIABLE;
+                // TODO: Implement highlighting rules for function calls and declarations.
+                //       (FUNCTION_DECLARATION, FUNCTION_CALL, CONSTRUCTOR_DECLARATION, CONSTRUCTOR_CALL.)
+            case TYPE_REFERENCE:
+                return VikariSyntaxHighlighter.TYPE_KEYWORDS.contains(crystal.getIdentifier()) ? TYPE_KEYWORD :
+                        crystalStyle.styleClass;
+            default:
+                throw new IllegalStateException("Unexpected overload: " + crystalStyle.overload);
+        }
+    }
+
+    /**
+     * Give a style class an id, if it does not have one yet.
+     * @param styleClass The crystal class or IdentifierType.
+     * @return The id of the style class.
+     */
+    public static synchronized short register(Object styleClass) {
+        Short id = ids.get(styleClass);
+        if (id == null) {
+            id = (short) styleClasses.size();
+            styleClasses.add(styleClass);
+            ids.put(styleClass, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return The number of style classes with an id so far.
+     */
+    public static synchronized int getCount() {
+        return styleClasses.size();
+    }
+
+    /**
+     * @param id The id of the style class.
+     * @return The crystal class or IdentifierType of the style class.
+     */
+    public static synchronized Object get(short id) {
+        return styleClasses.get(id);
+    }
+
+    /**
+     * Which of the IdentifierType overloads, if any, may apply to the tokens of a crystal class.
+     */
+    private enum Overload {
+        NONE,
+        REFERENCE,
+        TYPE_REFERENCE
+    }
+
+    /**
+     * The style class of a crystal class, along with whether the style class may be overloaded for each token.
+     */
+    private static class CrystalStyle {
+        private final short styleClass;
+        private final Overload overload;
+
+        private CrystalStyle(Class<?> type) {
+            styleClass = register(type);
+            if (ReferenceCrystal.class.isAssignableFrom(type)) {
+                overload = Overload.REFERENCE;
+            } else if (TypeReferenceCrystal.class.isAssignableFrom(type)) {
+                overload = Overload.TYPE_REFERENCE;
+            } else {
+                overload = Overload.NONE;
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+import javax.swing.text.AttributeSet;
+
+/**
+ * A single span of text in a document to be styled with the given attributes. Style runs are computed by the
+ * {@link VikariSyntaxHighlighter} off of the Event Dispatch Thread, and then later applied to the document on it.
+ */
+public class StyleRun {
+    private final int row;
+    private final int offset;
+    private final int length;
+    private final AttributeSet attributeSet;
+
+    public StyleRun(int row, int offset, int length, AttributeSet attributeSet) {
+        this.row = row;
+        this.offset = offset;
+        this.length = length;
+        this.attributeSet = attributeSet;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public AttributeSet getAttributeSet() {
+        return attributeSet;
+    }
+}
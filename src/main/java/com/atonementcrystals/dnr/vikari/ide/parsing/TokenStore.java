@@ -0,0 +1,264 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stores the column, length, and style class of every token of a file, grouped by row. This is all that is needed to
+ * highlight a row again without lexing and parsing it again. So the tokens are stored in primitive arrays rather than
+ * as {@link com.atonementcrystals.dnr.vikari.core.crystal.AtonementCrystal} objects, to keep the tokens of even very
+ * large files in memory.<br/>
+ * <br/>
+ * The rows are split into blocks of consecutive rows, which each store their tokens in their own arrays. So that
+ * replacing the tokens of a row, or inserting and removing rows, only needs to copy the tokens of a single block.
+ */
+public class TokenStore {
+    private static final int MAX_BLOCK_ROW_COUNT = 512;
+
+    private final List<Block> blocks = new ArrayList<>();
+    private int rowCount;
+
+    // The most recently located block, to speed up accessing consecutive rows.
+    private int cursorBlockIndex;
+    private int cursorStartRow;
+
+    private static class Block {
+        int rowCount;
+        int[] rowStarts;
+        int[] columns;
+        int[] lengths;
+        short[] styles;
+
+        Block(int rowCount) {
+            this.rowCount = rowCount;
+            this.rowStarts = new int[rowCount + 1];
+            this.columns = new int[0];
+            this.lengths = new int[0];
+            this.styles = new short[0];
+        }
+
+        int getTokenCount() {
+            return rowStarts[rowCount];
+        }
+
+        void ensureTokenCapacity(int tokenCount) {
+            if (tokenCount > columns.length) {
+                int capacity = Math.max(tokenCount, columns.length * 3 / 2);
+                columns = Arrays.copyOf(columns, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                styles = Arrays.copyOf(styles, capacity);
+            }
+        }
+    }
+
+    public TokenStore() {
+        reset(1);
+    }
+
+    /**
+     * Discard all tokens, and begin with the given number of empty rows.
+     * @param rowCount The number of rows.
+     */
+    public void reset(int rowCount) {
+        blocks.clear();
+        addEmptyBlocks(0, rowCount);
+        this.rowCount = rowCount;
+        resetCursor();
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @param row The row to get the token count for.
+     * @return The number of tokens on the row.
+     */
+    public int getTokenCount(int row) {
+        Block block = locate(row);
+        int rowIndex = row - cursorStartRow;
+        return block.rowStarts[rowIndex + 1] - block.rowStarts[rowIndex];
+    }
+
+    /**
+     * @param row The row of the token.
+     * @param token The index of the token within the row.
+     * @return The column of the token.
+     */
+    public int getColumn(int row, int token) {
+        Block block = locate(row);
+        return block.columns[block.rowStarts[row - cursorStartRow] + token];
+    }
+
+    /**
+     * @param row The row of the token.
+     * @param token The index of the token within the row.
+     * @return The length of the token.
+     */
+    public int getLength(int row, int token) {
+        Block block = locate(row);
+        return block.lengths[block.rowStarts[row - cursorStartRow] + token];
+    }
+
+    /**
+     * @param row The row of the token.
+     * @param token The index of the token within the row.
+     * @return The {@link StyleClasses style class} of the token.
+     */
+    public short getStyle(int row, int token) {
+        Block block = locate(row);
+        return block.styles[block.rowStarts[row - cursorStartRow] + token];
+    }
+
+    /**
+     * Replace all tokens of a row.
+     * @param row The row to replace the tokens of.
+     * @param columns The columns of the new tokens.
+     * @param lengths The lengths of the new tokens.
+     * @param styles The style classes of the new tokens.
+     * @param tokenCount The number of new tokens. (The arrays may be longer.)
+     */
+    public void setRow(int row, int[] columns, int[] lengths, short[] styles, int tokenCount) {
+        Block block = locate(row);
+        int rowIndex = row - cursorStartRow;
+        int start = block.rowStarts[rowIndex];
+        int end = block.rowStarts[rowIndex + 1];
+        int delta = tokenCount - (end - start);
+        int blockTokenCount = block.getTokenCount();
+
+        if (delta != 0) {
+            block.ensureTokenCapacity(blockTokenCount + delta);
+            int tailLength = blockTokenCount - end;
+            System.arraycopy(block.columns, end, block.columns, end + delta, tailLength);
+            System.arraycopy(block.lengths, end, block.lengths, end + delta, tailLength);
+            System.arraycopy(block.styles, end, block.styles, end + delta, tailLength);
+            for (int i = rowIndex + 1; i <= block.rowCount; i++) {
+                block.rowStarts[i] += delta;
+            }
+        }
+        System.arraycopy(columns, 0, block.columns, start, tokenCount);
+        System.arraycopy(lengths, 0, block.lengths, start, tokenCount);
+        System.arraycopy(styles, 0, block.styles, start, tokenCount);
+    }
+
+    /**
+     * Replace a range of rows with a range of new rows, which have no tokens.
+     * @param row The first row to replace.
+     * @param removedCount The number of rows to remove.
+     * @param insertedCount The number of rows to insert in their place.
+     */
+    public void replace(int row, int removedCount, int insertedCount) {
+        int startIndex = splitBlockAt(row);
+        int endIndex = splitBlockAt(row + removedCount);
+        blocks.subList(startIndex, endIndex).clear();
+        addEmptyBlocks(startIndex, insertedCount);
+        rowCount += insertedCount - removedCount;
+
+        // Merge the small blocks left on either side of the replaced rows.
+        int insertedBlockCount = (insertedCount + MAX_BLOCK_ROW_COUNT - 1) / MAX_BLOCK_ROW_COUNT;
+        int lastIndex = Math.min(blocks.size() - 1, startIndex + insertedBlockCount);
+        for (int index = lastIndex; index > 0 && index >= startIndex; index--) {
+            Block previous = blocks.get(index - 1);
+            Block block = blocks.get(index);
+            if (previous.rowCount + block.rowCount <= MAX_BLOCK_ROW_COUNT) {
+                blocks.set(index - 1, merge(previous, block));
+                blocks.remove(index);
+            }
+        }
+        if (blocks.isEmpty()) {
+            blocks.add(new Block(0));
+        }
+        resetCursor();
+    }
+
+    /**
+     * Insert blocks of empty rows.
+     */
+    private void addEmptyBlocks(int index, int rowCount) {
+        List<Block> newBlocks = new ArrayList<>();
+        for (int remaining = rowCount; remaining > 0; remaining -= MAX_BLOCK_ROW_COUNT) {
+            newBlocks.add(new Block(Math.min(remaining, MAX_BLOCK_ROW_COUNT)));
+        }
+        blocks.addAll(index, newBlocks);
+    }
+
+    /**
+     * Split the block containing the given row, so that the row begins a block.
+     * @return The index of the block beginning with the row. (Or the number of blocks, for the row after the last.)
+     */
+    private int splitBlockAt(int row) {
+        int startRow = 0;
+        for (int index = 0; index < blocks.size(); index++) {
+            Block block = blocks.get(index);
+            if (row == startRow) {
+                return index;
+            }
+            if (row < startRow + block.rowCount) {
+                blocks.set(index, copyRows(block, 0, row - startRow));
+                blocks.add(index + 1, copyRows(block, row - startRow, block.rowCount));
+                return index + 1;
+            }
+            startRow += block.rowCount;
+        }
+        return blocks.size();
+    }
+
+    private static Block copyRows(Block block, int fromRow, int toRow) {
+        Block copy = new Block(toRow - fromRow);
+        int start = block.rowStarts[fromRow];
+        int end = block.rowStarts[toRow];
+        copy.columns = Arrays.copyOfRange(block.columns, start, end);
+        copy.lengths = Arrays.copyOfRange(block.lengths, start, end);
+        copy.styles = Arrays.copyOfRange(block.styles, start, end);
+        for (int i = 0; i <= copy.rowCount; i++) {
+            copy.rowStarts[i] = block.rowStarts[fromRow + i] - start;
+        }
+        return copy;
+    }
+
+    private static Block merge(Block first, Block second) {
+        Block merged = new Block(first.rowCount + second.rowCount);
+        int firstTokenCount = first.getTokenCount();
+        int secondTokenCount = second.getTokenCount();
+        merged.ensureTokenCapacity(firstTokenCount + secondTokenCount);
+
+        System.arraycopy(first.columns, 0, merged.columns, 0, firstTokenCount);
+        System.arraycopy(first.lengths, 0, merged.lengths, 0, firstTokenCount);
+        System.arraycopy(first.styles, 0, merged.styles, 0, firstTokenCount);
+        System.arraycopy(second.columns, 0, merged.columns, firstTokenCount, secondTokenCount);
+        System.arraycopy(second.lengths, 0, merged.lengths, firstTokenCount, secondTokenCount);
+        System.arraycopy(second.styles, 0, merged.styles, firstTokenCount, secondTokenCount);
+
+        System.arraycopy(first.rowStarts, 0, merged.rowStarts, 0, first.rowCount);
+        for (int i = 0; i <= second.rowCount; i++) {
+            merged.rowStarts[first.rowCount + i] = second.rowStarts[i] + firstTokenCount;
+        }
+        return merged;
+    }
+
+    /**
+     * Find the block containing the given row, and move the cursor to it.
+     */
+    private Block locate(int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Row " + row + " is out of bounds for row count " + rowCount + ".");
+        }
+        while (row < cursorStartRow) {
+            cursorBlockIndex--;
+            cursorStartRow -= blocks.get(cursorBlockIndex).rowCount;
+        }
+        Block block = blocks.get(cursorBlockIndex);
+        while (row >= cursorStartRow + block.rowCount) {
+            cursorStartRow += block.rowCount;
+            cursorBlockIndex++;
+            block = blocks.get(cursorBlockIndex);
+        }
+        return block;
+    }
+
+    private void resetCursor() {
+        cursorBlockIndex = 0;
+        cursorStartRow = 0;
+    }
+}
@@ -107,9 +107,8 @@ public class VideColorThemeProcessor {
             }
         }
 
-        // Install the defined color theme rules for the syntax highlighter.
-        syntaxHighlighter.setDefinedRules(definedRules);
-        syntaxHighlighter.setOverloadRules(overloadRules);
+        // Compile the defined color theme rules into a table by style class, and install it in the syntax highlighter.
+        syntaxHighlighter.setRules(new HighlightRules(definedRules, overloadRules));
 
         // Fetch the color theme rules for the editor.
         VideColorTheme.Editor editorConfig = videColorTheme.getEditor();
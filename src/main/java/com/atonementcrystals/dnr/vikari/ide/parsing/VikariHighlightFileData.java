@@ -1,57 +1,176 @@
 package com.atonementcrystals.dnr.vikari.ide.parsing;
 
-import com.atonementcrystals.dnr.vikari.core.crystal.AtonementCrystal;
-
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-import java.util.TreeMap;
+import com.atonementcrystals.dnr.vikari.ide.util.LineIndex;
 
 /**
  * For tracking all cached data relating to lexing and parsing a Vikari code file for the purposes of performant updates
  * to syntax highlighting the contents of said file in a VideEditorWindow.
  */
 public class VikariHighlightFileData {
-    private List<List<AtonementCrystal>> rows;
-    private final TreeMap<Region, Region> multilineTokenRegions;
+    private final TokenStore tokenStore;
+    private final RegionIndex multilineTokenRegions;
+    private final LineIndex lineIndex;
+    private final RowStates rowStates;
+
+    // The text as of the most recent highlight, and the number of rows of it that have been lexed so far.
+    private String text;
+    private int lexedRowCount;
+    private boolean lexAheadScheduled;
+
+    // The span of text highlighted by the most recently processed version whose results are not yet applied.
+    private long processedVersion = -1;
+    private int unappliedStart = -1;
+    private int unappliedEnd = -1;
 
     public VikariHighlightFileData() {
-        this.rows = new ArrayList<>();
-        this.multilineTokenRegions = new TreeMap<>();
+        this.tokenStore = new TokenStore();
+        this.multilineTokenRegions = new RegionIndex();
+        this.lineIndex = new LineIndex();
+        this.rowStates = new RowStates();
+        this.text = "";
     }
 
-    public List<List<AtonementCrystal>> getRows() {
-        return rows;
+    /**
+     * Discard all cached data, so that the text can be lexed again from the start.
+     * @param text The full text of the file.
+     */
+    public void reset(String text) {
+        this.text = text;
+        lineIndex.reset(text);
+        rowStates.reset(lineIndex.getRowCount());
+        tokenStore.reset(lineIndex.getRowCount());
+        multilineTokenRegions.clear();
+        lexedRowCount = 0;
     }
 
-    public void setRows(List<List<AtonementCrystal>> rows) {
-        this.rows = rows;
+    /**
+     * @return The tokens of every row lexed so far. (Rows which are not yet lexed have no tokens.)
+     */
+    public TokenStore getTokenStore() {
+        return tokenStore;
     }
 
-    public TreeMap<Region, Region> getRegions() {
+    public RegionIndex getRegions() {
         return multilineTokenRegions;
     }
 
-    public void addRegion(Region region) {
-        multilineTokenRegions.put(region, region);
+    public LineIndex getLineIndex() {
+        return lineIndex;
+    }
+
+    public RowStates getRowStates() {
+        return rowStates;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @return The number of rows from the start of the file that have been lexed. The LexerState of each of these
+     * rows, and of the row following them, is known. As are the Regions of all multiline tokens opened in them.
+     */
+    public int getLexedRowCount() {
+        return lexedRowCount;
+    }
+
+    public void setLexedRowCount(int lexedRowCount) {
+        this.lexedRowCount = lexedRowCount;
+    }
+
+    public boolean isFullyLexed() {
+        return lexedRowCount >= lineIndex.getRowCount();
     }
 
-    public void updateRegion(Region oldRegion, Region newRegion) {
-        multilineTokenRegions.remove(oldRegion);
-        multilineTokenRegions.put(newRegion, newRegion);
+    public boolean isLexAheadScheduled() {
+        return lexAheadScheduled;
     }
 
-    public void updateRegions(Region updateRegion) {
-        Iterator<Region> it = multilineTokenRegions.keySet().iterator();
+    public void setLexAheadScheduled(boolean lexAheadScheduled) {
+        this.lexAheadScheduled = lexAheadScheduled;
+    }
+
+    /**
+     * Update the line index, row states, tokens, and Regions for a batch of edits made to the file. Rows inserted by
+     * the edits are given a state of {@link LexerState#NONE} and no tokens until they are lexed. An empty batch only
+     * checks that the cached data is in step with the text.
+     * @param text The full text of the file, after the edits.
+     * @param editBatch The edits made to the file since the cached data was last updated.
+     * @return False if the cached data had fallen out of step with the text, such as after edits made while
+     * highlighting was disabled. In which case the file must be lexed and parsed again in its entirety.
+     */
+    public boolean applyEdit(String text, EditBatch editBatch) {
+        if (lineIndex.getLength() != text.length() - editBatch.getDelta() ||
+                rowStates.getRowCount() != lineIndex.getRowCount() ||
+                tokenStore.getRowCount() != lineIndex.getRowCount()) {
+            return false;
+        }
+        if (editBatch.isEmpty()) {
+            return true;
+        }
+        int start = editBatch.getStart();
+        int startRow = lineIndex.getRowOfOffset(start);
+        int oldEndRow = lineIndex.getRowOfOffset(editBatch.getOldEnd());
+
+        lineIndex.remove(start, editBatch.getOldEnd() - start);
+        lineIndex.insert(start, text, start, editBatch.getEnd());
+        int newEndRow = lineIndex.getRowOfOffset(editBatch.getEnd());
+
+        rowStates.replace(startRow + 1, oldEndRow - startRow, newEndRow - startRow);
+        tokenStore.replace(startRow, oldEndRow - startRow + 1, newEndRow - startRow + 1);
+        if (startRow < lexedRowCount) {
+            // The rows after an edit which extends past the lexed rows are not yet known.
+            lexedRowCount = oldEndRow < lexedRowCount ? lexedRowCount + newEndRow - oldEndRow : startRow + 1;
+        }
+        multilineTokenRegions.applyEdit(editBatch);
+        return true;
+    }
+
+    public void addRegion(Region region) {
+        multilineTokenRegions.add(region);
     }
 
     public Region findRegion(int offset) {
-        // tokenType is not used for searches. (As we don't know the type we'll encounter beforehand.)
-        Region searchRegion = new Region(offset, offset + 1, null);
-        return multilineTokenRegions.get(searchRegion);
+        return multilineTokenRegions.findRegion(offset);
+    }
+
+    /**
+     * Record the span of text that was highlighted for the given document version. It is kept until the results are
+     * applied, so that it can be highlighted again by the next version if those results are discarded as stale.
+     * @param version The document version that was highlighted.
+     * @param start The start offset of the highlighted span.
+     * @param end The end offset of the highlighted span.
+     */
+    public synchronized void setUnappliedRange(long version, int start, int end) {
+        processedVersion = version;
+        unappliedStart = start;
+        unappliedEnd = end;
+    }
+
+    /**
+     * Forget the unapplied span of text, if the given version is the most recently processed one.
+     * @param version The document version whose results were just applied to the document.
+     */
+    public synchronized void clearUnappliedRange(long version) {
+        if (version == processedVersion) {
+            unappliedStart = -1;
+            unappliedEnd = -1;
+        }
+    }
+
+    public synchronized boolean hasUnappliedRange() {
+        return unappliedStart != -1;
+    }
+
+    public synchronized int getUnappliedStart() {
+        return unappliedStart;
     }
 
-    public Region findRegion(Region searchRegion) {
-        return multilineTokenRegions.get(searchRegion);
+    public synchronized int getUnappliedEnd() {
+        return unappliedEnd;
     }
 }
@@ -1,26 +1,139 @@
 package com.atonementcrystals.dnr.vikari.ide.undo;
 
+import com.atonementcrystals.dnr.vikari.ide.util.GlobalUserSettings;
+
 import javax.swing.text.BadLocationException;
 import javax.swing.text.StyledDocument;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
- * Manages the undo history for one VideEditorWindow instance.
+ * Manages the undo history for one VideEditorWindow instance.<br/>
+ * <br/>
+ * The history is stored compactly. The cursors and flags of each item are kept in a ring of primitive arrays, and the
+ * text of every item is appended to one shared char buffer, where each item only records its offset. So an item costs
+ * a few bytes plus two bytes per char of its text. Discarding the redo entries after an edit only moves the end of
+ * both, in O(1) time.<br/>
+ * <br/>
+ * The memory used by the history is capped. Once the cap is exceeded, the oldest items are evicted until it fits
+ * again. Though the newest item is always kept, even if it alone exceeds the cap.<br/>
+ * <br/>
+ * Related edits are coalesced into one item, so that a run of typing is undone in one step. A single char inserted
+ * at the end of the last item, or removed next to it by backspace or delete, is merged into it. The group is closed
+ * when the caret moves elsewhere, after a pause, at the start of a new word, or by any edit of more than one char.
  */
 public class UndoHistory {
-    private final List<UndoHistoryItem> historyItems;
-    private int position = -1;
-    private final StyledDocument document;
+    // The bytes used for each item by the item arrays: startCursors, endCursors, textOffsets, ids, and flags.
+    private static final int ITEM_BYTES = 4 + 4 + 8 + 4 + 1;
+    private static final int INITIAL_ITEM_CAPACITY = 64;
+    private static final int INITIAL_TEXT_CAPACITY = 1024;
+
+    private static final byte FLAG_REMOVE_TEXT = 1;
+    private static final byte FLAG_FINISHED = 2;
+
+    private StyledDocument document;
     private boolean enabled;
+    private long memoryLimit;
+    private boolean coalescingEnabled;
+    private long coalescingTimeoutMillis;
+    private long lastEditTimeMillis;
+
+    // A ring of items, beginning with the oldest item at head.
+    private int[] startCursors;
+    private int[] endCursors;
+    private long[] textOffsets;
+    private int[] ids;
+    private byte[] flags;
+    private int head;
+    private int count;
+
+    // The index of the last applied item relative to head, or -1 if none are applied.
+    private int position;
+    private int nextId;
+
+    // The state id of the text before the oldest item.
+    private int baseId;
+
+    // The text of the items, in order. The chars of text[i] are at absolute offset textBufferStart + i. The text of
+    // the items begins at absolute offset textStart, and ends at textEnd.
+    private char[] text;
+    private long textBufferStart;
+    private long textStart;
+    private long textEnd;
 
     public UndoHistory(StyledDocument document) {
         this.document = document;
-        this.historyItems = new ArrayList<>();
+        this.memoryLimit = GlobalUserSettings.DEFAULT_UNDO_HISTORY_MEMORY_LIMIT;
+        this.coalescingEnabled = GlobalUserSettings.DEFAULT_UNDO_COALESCING_ENABLED;
+        this.coalescingTimeoutMillis = GlobalUserSettings.DEFAULT_UNDO_COALESCING_TIMEOUT_MILLIS;
+        clear();
+    }
+
+    /**
+     * Set the document to undo and redo edits of. For when the editor's document is replaced by a document holding the
+     * same text.
+     * @param document The new document.
+     */
+    public void setDocument(StyledDocument document) {
+        this.document = document;
+    }
+
+    /**
+     * Set the maximum number of bytes the history may use. The oldest items are evicted right away if they exceed it.
+     * @param memoryLimit The memory limit in bytes.
+     */
+    public void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+        evictOldestItems();
+    }
+
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * Set whether related edits are coalesced into one item. Disabling it closes the current group.
+     * @param coalescingEnabled True to coalesce edits, or false to add every edit as its own item.
+     */
+    public void setCoalescingEnabled(boolean coalescingEnabled) {
+        this.coalescingEnabled = coalescingEnabled;
+        finishLastItem();
+    }
+
+    public boolean isCoalescingEnabled() {
+        return coalescingEnabled;
+    }
+
+    /**
+     * Set the longest pause between two edits that still lets them be coalesced.
+     * @param coalescingTimeoutMillis The pause in milliseconds.
+     */
+    public void setCoalescingTimeoutMillis(long coalescingTimeoutMillis) {
+        this.coalescingTimeoutMillis = coalescingTimeoutMillis;
+    }
+
+    public long getCoalescingTimeoutMillis() {
+        return coalescingTimeoutMillis;
     }
 
+    /**
+     * @return The number of bytes used by the items of the history.
+     */
+    public long getMemoryUsage() {
+        return count * (long) ITEM_BYTES + (textEnd - textStart) * 2;
+    }
+
+    /**
+     * @return The number of items in the history, including those which can be redone.
+     */
+    public int getItemCount() {
+        return count;
+    }
+
+    /**
+     * @return An id of the current state of the text, as of the last applied item. Each item added gets a new id which
+     *         is never reused. So two equal positions always mean the same text, even once items are evicted.
+     */
     public int getPosition() {
-        return position;
+        return position >= 0 ? ids[slot(position)] : baseId;
     }
 
     public void setEnabled(boolean enabled) {
@@ -32,165 +145,289 @@ public class UndoHistory {
     }
 
     public boolean canUndo() {
-        return !historyItems.isEmpty() && position >= 0;
+        return position >= 0;
     }
 
     public void undo() {
         enabled = false;
-        UndoHistoryItem historyItem = historyItems.get(position--);
-        historyItem.setFinished(true);
-        if (historyItem.getType() == UndoHistoryItemType.INSERT_TEXT) {
-            // remove inserted text.
-            int startCursor = historyItem.getStartCursor();
-            int length = historyItem.getEndCursor() - startCursor;
-
-            try {
+        int slot = slot(position--);
+        flags[slot] |= FLAG_FINISHED;
+        int startCursor = startCursors[slot];
+        int length = endCursors[slot] - startCursor;
+
+        try {
+            if ((flags[slot] & FLAG_REMOVE_TEXT) == 0) {
+                // remove inserted text.
                 document.remove(startCursor, length);
-            } catch (BadLocationException e) {
-                throw new RuntimeException(e);
-            }
-        } else if (historyItem.getType() == UndoHistoryItemType.REMOVE_TEXT) {
-            // insert removed text.
-            int startCursor = historyItem.getStartCursor();
-            String removedText = historyItem.getMergedModifiedText();
-
-            try {
-                document.insertString(startCursor, removedText, null);
-            } catch (BadLocationException e) {
-                throw new RuntimeException(e);
+            } else {
+                // insert removed text.
+                document.insertString(startCursor, getText(slot), null);
             }
+        } catch (BadLocationException e) {
+            throw new RuntimeException(e);
         }
         enabled = true;
     }
 
     public boolean canRedo() {
-        return !historyItems.isEmpty() && position < historyItems.size() - 1;
+        return position < count - 1;
     }
 
     public void redo() {
         enabled = false;
-        UndoHistoryItem historyItem = historyItems.get(++position);
-        historyItem.setFinished(true);
-        if (historyItem.getType() == UndoHistoryItemType.INSERT_TEXT) {
-            // insert inserted text.
-            int startCursor = historyItem.getStartCursor();
-            String removedText = historyItem.getMergedModifiedText();
-            try {
-                document.insertString(startCursor, removedText, null);
-            } catch (BadLocationException e) {
-                throw new RuntimeException(e);
-            }
+        int slot = slot(++position);
+        flags[slot] |= FLAG_FINISHED;
+        int startCursor = startCursors[slot];
+        int length = endCursors[slot] - startCursor;
 
-        } else if (historyItem.getType() == UndoHistoryItemType.REMOVE_TEXT) {
-            // remove removed text.
-            int startCursor = historyItem.getStartCursor();
-            int length = historyItem.getEndCursor() - startCursor;
-
-            try {
+        try {
+            if ((flags[slot] & FLAG_REMOVE_TEXT) == 0) {
+                // insert inserted text.
+                document.insertString(startCursor, getText(slot), null);
+            } else {
+                // remove removed text.
                 document.remove(startCursor, length);
-            } catch (BadLocationException e) {
-                throw new RuntimeException(e);
             }
+        } catch (BadLocationException e) {
+            throw new RuntimeException(e);
         }
         enabled = true;
     }
 
-    public void addHistoryItem(UndoHistoryItem item) {
-        addHistoryItem_SingleCharacterEdits(item);
-//        addHistoryItem_MergeRelatedEdits(item);
-    }
-
     /**
-     * The original version of the add algorithm.
+     * Add an item after the last applied item, or merge it into the last applied item if they are related. Any items
+     * which could have been redone are discarded.
      * @param item The UndoHistoryItem to add.
      */
-    public void addHistoryItem_SingleCharacterEdits(UndoHistoryItem item) {
+    public void addHistoryItem(UndoHistoryItem item) {
+        addHistoryItem(item, System.currentTimeMillis());
+    }
+
+    void addHistoryItem(UndoHistoryItem item, long timeMillis) {
         if (!enabled) {
             return;
         }
-        if (position == -1) {
-            historyItems.add(++position, item);
-        } else {
-            historyItems.add(++position, item);
-            // remove dead entries
-            for (int i = position + 1; i < historyItems.size(); i++) {
-                historyItems.remove(i);
+
+        // Discard the redo entries.
+        count = position + 1;
+        textEnd = count == 0 ? textStart : textOffsets[slot(count - 1)] + getLength(slot(count - 1));
+
+        String modifiedText = item.getModifiedText();
+        boolean removeText = item.getType() == UndoHistoryItemType.REMOVE_TEXT;
+        long elapsedMillis = timeMillis - lastEditTimeMillis;
+        lastEditTimeMillis = timeMillis;
+
+        if (count > 0) {
+            int lastSlot = slot(count - 1);
+            if (elapsedMillis <= coalescingTimeoutMillis && merge(lastSlot, removeText, item.getStartCursor(),
+                    modifiedText)) {
+                evictOldestItems();
+                return;
             }
+            flags[lastSlot] |= FLAG_FINISHED;
         }
+
+        ensureItemCapacity(count + 1);
+        long textOffset = appendText(modifiedText);
+
+        // Only single chars can be merged with the edits after them.
+        boolean finished = item.isFinished() || !coalescingEnabled || modifiedText.length() != 1;
+
+        int slot = slot(count);
+        startCursors[slot] = item.getStartCursor();
+        endCursors[slot] = item.getStartCursor() + modifiedText.length();
+        textOffsets[slot] = textOffset;
+        ids[slot] = nextId++;
+        flags[slot] = (byte) ((removeText ? FLAG_REMOVE_TEXT : 0) | (finished ? FLAG_FINISHED : 0));
+        count++;
+        position++;
+
+        evictOldestItems();
     }
 
     /**
-     * The new version of the add algorithm. Merges related edits together.
-     * @param item The UndoHistoryItem to add.
+     * Merge a single char edit into the last item, if the last item is not yet finished and the edit continues it.
+     * The last item gets a new id, as the text it leads to is changed.
+     * @return True if the edit was merged.
      */
-    public void addHistoryItem_MergeRelatedEdits(UndoHistoryItem item) {
-        if (!enabled) {
-            return;
+    private boolean merge(int slot, boolean removeText, int startCursor, String modifiedText) {
+        if (!coalescingEnabled || (flags[slot] & FLAG_FINISHED) != 0 || modifiedText.length() != 1 ||
+                ((flags[slot] & FLAG_REMOVE_TEXT) != 0) != removeText) {
+            return false;
         }
-        if (position == -1) {
-            historyItems.add(++position, item);
+
+        char c = modifiedText.charAt(0);
+        int length = getLength(slot);
+        if (!removeText || startCursor == startCursors[slot]) {
+            // Typed text, or text removed by the delete key, continues from the end of the item.
+            int expectedStartCursor = removeText ? startCursors[slot] : endCursors[slot];
+            if (startCursor != expectedStartCursor || isWordStart(getChar(slot, length - 1), c)) {
+                return false;
+            }
+            appendText(modifiedText);
         } else {
-            // TODO: Implement changes.
-//            UndoHistoryItem last = historyItems.get(position);
-//            if (!last.isFinished() && mergable(last, item)) {
-//                merge(last, item);
-//            } else {
-            historyItems.add(++position, item);
-//            }
-
-            // remove dead entries
-            for (int i = position + 1; i < historyItems.size(); i++) {
-                historyItems.remove(i);
+            // Text removed by the backspace key continues from the start of the item.
+            if (startCursor + 1 != startCursors[slot] || isWordStart(c, getChar(slot, 0))) {
+                return false;
             }
+            appendText(modifiedText);
+            int offset = (int) (textOffsets[slot] - textBufferStart);
+            System.arraycopy(text, offset, text, offset + 1, length);
+            text[offset] = c;
+            startCursors[slot]--;
         }
+        endCursors[slot] = startCursors[slot] + length + 1;
+        ids[slot] = nextId++;
+        return true;
+    }
+
+    /**
+     * @return True if a new word starts between the two chars. Which ends a group of coalesced edits.
+     */
+    private static boolean isWordStart(char before, char after) {
+        return Character.isWhitespace(before) && !Character.isWhitespace(after);
     }
 
-    private boolean mergable(UndoHistoryItem existingItem, UndoHistoryItem newItem) {
-        if (existingItem.getType() == UndoHistoryItemType.INSERT_TEXT &&
-                newItem.getType() == UndoHistoryItemType.INSERT_TEXT) {
-            // end of existing cursor must be adjacent to start of new cursor
-            int existingEndCursor = existingItem.getEndCursor();
-            int newStartCursor = newItem.getStartCursor();
-            return existingEndCursor + 1 == newStartCursor;
-        } else if (existingItem.getType() == UndoHistoryItemType.REMOVE_TEXT &&
-                newItem.getType() == UndoHistoryItemType.REMOVE_TEXT) {
-            // start of existing cursor must be adjacent to end of new cursor
-            int existingStartCursor = existingItem.getStartCursor();
-            int newEndCursor = newItem.getEndCursor();
-            return existingStartCursor - 1 == newEndCursor;
+    /**
+     * Finish the last applied item, so that no further edits are merged into it.
+     */
+    public void finishLastItem() {
+        if (position >= 0) {
+            flags[slot(position)] |= FLAG_FINISHED;
         }
-        return false;
     }
 
-    private void merge(UndoHistoryItem existingItem, UndoHistoryItem newItem) {
-        if (existingItem.getType() == UndoHistoryItemType.INSERT_TEXT &&
-                newItem.getType() == UndoHistoryItemType.INSERT_TEXT) {
+    /**
+     * Finish the last applied item once the caret moves away from where its edits would continue, or selects text.
+     * @param dot The dot of the caret.
+     * @param mark The mark of the caret.
+     */
+    public void caretMoved(int dot, int mark) {
+        if (position < 0) {
+            return;
+        }
+        int slot = slot(position);
+        int editCursor = (flags[slot] & FLAG_REMOVE_TEXT) != 0 ? startCursors[slot] : endCursors[slot];
+        if (dot != mark || dot != editCursor) {
+            flags[slot] |= FLAG_FINISHED;
+        }
+    }
 
-            List<Character> modifiedText = existingItem.getModifiedText();
-            for (int i = 0; i < newItem.getModifiedText().size(); i++) {
-                Character c = newItem.getModifiedText().get(i);
-                modifiedText.add(c);
-            }
-            existingItem.setEndCursor(newItem.getEndCursor());
+    /**
+     * Evict the oldest items until the history fits within its memory limit. Only items which are applied can be
+     * evicted, and the last applied item is always kept.
+     */
+    private void evictOldestItems() {
+        while (position > 0 && getMemoryUsage() > memoryLimit) {
+            baseId = ids[head];
+            textStart = textOffsets[head] + getLength(head);
+            head = (head + 1) % ids.length;
+            count--;
+            position--;
+        }
+        compactText(0);
+    }
 
-        } else if (existingItem.getType() == UndoHistoryItemType.REMOVE_TEXT &&
-                newItem.getType() == UndoHistoryItemType.REMOVE_TEXT) {
+    private int slot(int index) {
+        return (head + index) % ids.length;
+    }
 
-            List<Character> modifiedText = existingItem.getModifiedText();
-            for (int i = newItem.getModifiedText().size() - 1; i >= 0; i--) {
-                Character c = newItem.getModifiedText().get(i);
-                modifiedText.add(0, c);
-            }
-            existingItem.setStartCursor(newItem.getStartCursor());
+    private int getLength(int slot) {
+        return endCursors[slot] - startCursors[slot];
+    }
 
-        } else {
-            throw new IllegalStateException("Merged UndoHistoryItem types should be the same," +
-                    "but are different: existingItem: " + existingItem + ", newItem: " + newItem);
+    private char getChar(int slot, int index) {
+        return text[(int) (textOffsets[slot] - textBufferStart) + index];
+    }
+
+    private String getText(int slot) {
+        int offset = (int) (textOffsets[slot] - textBufferStart);
+        return new String(text, offset, getLength(slot));
+    }
+
+    /**
+     * Append the text of a new item to the end of the text buffer.
+     * @return The absolute offset of the appended text.
+     */
+    private long appendText(String modifiedText) {
+        compactText(modifiedText.length());
+        int end = (int) (textEnd - textBufferStart);
+        modifiedText.getChars(0, modifiedText.length(), text, end);
+        long textOffset = textEnd;
+        textEnd += modifiedText.length();
+        return textOffset;
+    }
+
+    /**
+     * Move the text of the items to the front of the text buffer once the evicted text before it takes up over half of
+     * the buffer. And resize the buffer if it is either too small to append the given number of chars, or mostly empty.
+     * @param appendLength The number of chars about to be appended.
+     */
+    private void compactText(int appendLength) {
+        int liveLength = (int) (textEnd - textStart);
+        int deadLength = (int) (textStart - textBufferStart);
+        int requiredLength = liveLength + appendLength;
+
+        int capacity = text.length;
+        if (requiredLength > capacity) {
+            capacity = Math.max(requiredLength, capacity * 2);
+        } else if (capacity > INITIAL_TEXT_CAPACITY && requiredLength < capacity / 4) {
+            capacity = Math.max(INITIAL_TEXT_CAPACITY, requiredLength * 2);
+        }
+
+        if (capacity != text.length) {
+            char[] newText = new char[capacity];
+            System.arraycopy(text, deadLength, newText, 0, liveLength);
+            text = newText;
+            textBufferStart = textStart;
+        } else if (deadLength + requiredLength > capacity || deadLength > capacity / 2) {
+            System.arraycopy(text, deadLength, text, 0, liveLength);
+            textBufferStart = textStart;
         }
     }
 
+    private void ensureItemCapacity(int requiredCount) {
+        if (requiredCount <= ids.length) {
+            return;
+        }
+        int capacity = ids.length * 2;
+        int[] newStartCursors = new int[capacity];
+        int[] newEndCursors = new int[capacity];
+        long[] newTextOffsets = new long[capacity];
+        int[] newIds = new int[capacity];
+        byte[] newFlags = new byte[capacity];
+        for (int i = 0; i < count; i++) {
+            int slot = slot(i);
+            newStartCursors[i] = startCursors[slot];
+            newEndCursors[i] = endCursors[slot];
+            newTextOffsets[i] = textOffsets[slot];
+            newIds[i] = ids[slot];
+            newFlags[i] = flags[slot];
+        }
+        startCursors = newStartCursors;
+        endCursors = newEndCursors;
+        textOffsets = newTextOffsets;
+        ids = newIds;
+        flags = newFlags;
+        head = 0;
+    }
+
     public void clear() {
-        historyItems.clear();
+        startCursors = new int[INITIAL_ITEM_CAPACITY];
+        endCursors = new int[INITIAL_ITEM_CAPACITY];
+        textOffsets = new long[INITIAL_ITEM_CAPACITY];
+        ids = new int[INITIAL_ITEM_CAPACITY];
+        flags = new byte[INITIAL_ITEM_CAPACITY];
+        head = 0;
+        count = 0;
         position = -1;
+
+        // Keep the ids unique across clears, so that an old position never matches the cleared history.
+        baseId = nextId++;
+
+        text = new char[INITIAL_TEXT_CAPACITY];
+        textBufferStart = 0;
+        textStart = 0;
+        textEnd = 0;
     }
 }
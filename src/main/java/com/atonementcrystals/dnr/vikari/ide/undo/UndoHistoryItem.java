@@ -1,25 +1,20 @@
 package com.atonementcrystals.dnr.vikari.ide.undo;
 
-import java.util.LinkedList;
-
 /**
- * Models one entry for the UndoHistory.
+ * Models one entry for the UndoHistory. The UndoHistory copies the text of each entry into its own shared buffer.
  */
 public class UndoHistoryItem {
     private final UndoHistoryItemType type;
     private int startCursor;
     private int endCursor;
-    private final LinkedList<Character> modifiedText;
+    private final String modifiedText;
     private boolean finished;
 
     public UndoHistoryItem(UndoHistoryItemType type, int startCursor, int endCursor, String edit) {
         this.type = type;
         this.startCursor = startCursor;
         this.endCursor = endCursor;
-        this.modifiedText = new LinkedList<>();
-        for (Character c : edit.toCharArray()) {
-            this.modifiedText.add(c);
-        }
+        this.modifiedText = edit;
         this.finished = false;
     }
 
@@ -47,26 +42,17 @@ public class UndoHistoryItem {
         return endCursor;
     }
 
-    public LinkedList<Character> getModifiedText() {
+    public String getModifiedText() {
         return modifiedText;
     }
 
-    @SuppressWarnings("unused")
     public boolean isFinished() {
         return finished;
     }
 
-    public String getMergedModifiedText() {
-        StringBuilder sb = new StringBuilder();
-        for (char c : modifiedText) {
-            sb.append(c);
-        }
-        return sb.toString();
-    }
-
     @Override
     public String toString() {
         return String.format("UndoHistoryItem{type=%s,startCursor=%d,endCursor=%d,modifiedText=\"%s\",finished=%b}",
-                type,startCursor, endCursor, getMergedModifiedText(), finished);
+                type,startCursor, endCursor, modifiedText, finished);
     }
 }
@@ -7,6 +7,12 @@ public class GlobalUserSettings {
 
     public static final String USER_HOME = System.getProperty("user.home");
     public static final String LAST_VIEWED_DIRECTORY_KEY = "lastViewedDirectory";
+    public static final String UNDO_HISTORY_MEMORY_LIMIT_KEY = "undoHistoryMemoryLimit";
+    public static final long DEFAULT_UNDO_HISTORY_MEMORY_LIMIT = 32L * 1024 * 1024;
+    public static final String UNDO_COALESCING_ENABLED_KEY = "undoCoalescingEnabled";
+    public static final boolean DEFAULT_UNDO_COALESCING_ENABLED = true;
+    public static final String UNDO_COALESCING_TIMEOUT_MILLIS_KEY = "undoCoalescingTimeoutMillis";
+    public static final long DEFAULT_UNDO_COALESCING_TIMEOUT_MILLIS = 1000;
 
     public static String getLastViewedDirectory() {
         return preferences.get(LAST_VIEWED_DIRECTORY_KEY, USER_HOME);
@@ -15,4 +21,37 @@ public class GlobalUserSettings {
     public static void setLastViewedDirectory(String lastViewedDirectory) {
         preferences.put(LAST_VIEWED_DIRECTORY_KEY, lastViewedDirectory);
     }
+
+    /**
+     * @return The maximum number of bytes the undo history of each editor window may use.
+     */
+    public static long getUndoHistoryMemoryLimit() {
+        return preferences.getLong(UNDO_HISTORY_MEMORY_LIMIT_KEY, DEFAULT_UNDO_HISTORY_MEMORY_LIMIT);
+    }
+
+    public static void setUndoHistoryMemoryLimit(long undoHistoryMemoryLimit) {
+        preferences.putLong(UNDO_HISTORY_MEMORY_LIMIT_KEY, undoHistoryMemoryLimit);
+    }
+
+    /**
+     * @return True if runs of typed or removed chars are undone together, rather than one char at a time.
+     */
+    public static boolean isUndoCoalescingEnabled() {
+        return preferences.getBoolean(UNDO_COALESCING_ENABLED_KEY, DEFAULT_UNDO_COALESCING_ENABLED);
+    }
+
+    public static void setUndoCoalescingEnabled(boolean undoCoalescingEnabled) {
+        preferences.putBoolean(UNDO_COALESCING_ENABLED_KEY, undoCoalescingEnabled);
+    }
+
+    /**
+     * @return The longest pause in milliseconds between two edits which are undone together.
+     */
+    public static long getUndoCoalescingTimeoutMillis() {
+        return preferences.getLong(UNDO_COALESCING_TIMEOUT_MILLIS_KEY, DEFAULT_UNDO_COALESCING_TIMEOUT_MILLIS);
+    }
+
+    public static void setUndoCoalescingTimeoutMillis(long undoCoalescingTimeoutMillis) {
+        preferences.putLong(UNDO_COALESCING_TIMEOUT_MILLIS_KEY, undoCoalescingTimeoutMillis);
+    }
 }
@@ -0,0 +1,345 @@
+package com.atonementcrystals.dnr.vikari.ide.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+/**
+ * Maps between offsets into a text and the rows of that text in O(log n) time. The length of each row is stored in a
+ * balanced tree (a treap keyed implicitly by row number), where every node also tracks the total length, number of
+ * rows, and longest row length of its subtree. The index is kept up to date by passing it every insertion and
+ * removal made to the text, so that the text never needs to be scanned for newlines again after it is first
+ * indexed.<br/>
+ * <br/>
+ * The length of each row includes its terminating newline character. The final row has no newline, and so it may be
+ * empty. Therefore, the index for an empty text has exactly one row of length zero.
+ */
+public class LineIndex {
+    private final Random random = new Random();
+    private Node root;
+
+    private static class Node {
+        int length;
+        int totalLength;
+        int rowCount;
+        int maxLength;
+        final int priority;
+        Node left;
+        Node right;
+
+        Node(int length, int priority) {
+            this.length = length;
+            this.priority = priority;
+            update();
+        }
+
+        void update() {
+            totalLength = length + totalLength(left) + totalLength(right);
+            rowCount = 1 + rowCount(left) + rowCount(right);
+            maxLength = Math.max(length, Math.max(maxLength(left), maxLength(right)));
+        }
+    }
+
+    /**
+     * Instantiate a new LineIndex for an empty text.
+     */
+    public LineIndex() {
+        reset("");
+    }
+
+    /**
+     * Instantiate a new LineIndex for the given text.
+     * @param text The text to index.
+     */
+    public LineIndex(CharSequence text) {
+        reset(text);
+    }
+
+    /**
+     * Discard the current index, and index the given text from scratch in O(n) time.
+     * @param text The text to index.
+     */
+    public void reset(CharSequence text) {
+        // Build the treap from the sorted sequence of rows in linear time with a stack. (As for a Cartesian tree.)
+        Deque<Node> rightSpine = new ArrayDeque<>();
+        int rowStart = 0;
+        int textLength = text.length();
+        for (int i = 0; i <= textLength; i++) {
+            if (i == textLength || text.charAt(i) == '\n') {
+                int rowEnd = i == textLength ? i : i + 1;
+                Node node = newNode(rowEnd - rowStart);
+                Node lastPopped = null;
+                while (!rightSpine.isEmpty() && rightSpine.peek().priority < node.priority) {
+                    lastPopped = rightSpine.pop();
+                    lastPopped.update();
+                    if (!rightSpine.isEmpty()) {
+                        rightSpine.peek().right = lastPopped;
+                    }
+                }
+                node.left = lastPopped;
+                if (!rightSpine.isEmpty()) {
+                    rightSpine.peek().right = node;
+                }
+                rightSpine.push(node);
+                rowStart = rowEnd;
+            }
+        }
+        // Finalize the subtree totals along the right spine, from the bottom up.
+        Node node = null;
+        while (!rightSpine.isEmpty()) {
+            Node parent = rightSpine.pop();
+            parent.right = node;
+            parent.update();
+            node = parent;
+        }
+        root = node;
+    }
+
+    /**
+     * Take over the index of another LineIndex in O(1) time. The other LineIndex is left indexing an empty text.
+     * @param other The LineIndex to take the index of.
+     */
+    public void replaceWith(LineIndex other) {
+        root = other.root;
+        other.reset("");
+    }
+
+    /**
+     * @return The number of rows in the text.
+     */
+    public int getRowCount() {
+        return rowCount(root);
+    }
+
+    /**
+     * @return The total length of the text.
+     */
+    public int getLength() {
+        return totalLength(root);
+    }
+
+    /**
+     * @return The length of the longest row, including its newline. Used to lay out rows of a monospace font without
+     * measuring their text.
+     */
+    public int getMaxRowLength() {
+        return maxLength(root);
+    }
+
+    /**
+     * Find the row containing the given offset. A newline character belongs to the row it terminates.
+     * @param offset The offset into the text.
+     * @return The zero-based row number of the offset. Offsets past the end of the text return the final row.
+     */
+    public int getRowOfOffset(int offset) {
+        if (offset >= getLength()) {
+            return getRowCount() - 1;
+        }
+        int row = 0;
+        Node node = root;
+        while (node != null) {
+            int leftLength = totalLength(node.left);
+            if (offset < leftLength) {
+                node = node.left;
+            } else {
+                offset -= leftLength;
+                if (offset < node.length) {
+                    return row + rowCount(node.left);
+                }
+                offset -= node.length;
+                row += rowCount(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return Math.max(0, row - 1);
+    }
+
+    /**
+     * @param row The zero-based row number.
+     * @return The offset of the first character of the row.
+     */
+    public int getRowStartOffset(int row) {
+        checkRow(row);
+        int offset = 0;
+        Node node = root;
+        while (node != null) {
+            int leftCount = rowCount(node.left);
+            if (row < leftCount) {
+                node = node.left;
+            } else if (row == leftCount) {
+                return offset + totalLength(node.left);
+            } else {
+                offset += totalLength(node.left) + node.length;
+                row -= leftCount + 1;
+                node = node.right;
+            }
+        }
+        throw new IllegalStateException("Unreachable code. Row was already checked to be in bounds.");
+    }
+
+    /**
+     * @param row The zero-based row number.
+     * @return The offset just past the last character of the row, not counting its newline.
+     */
+    public int getRowEndOffset(int row) {
+        int end = getRowStartOffset(row) + getRowLength(row);
+        return row < getRowCount() - 1 ? end - 1 : end;
+    }
+
+    /**
+     * @param row The zero-based row number.
+     * @return The length of the row, including its newline.
+     */
+    public int getRowLength(int row) {
+        checkRow(row);
+        Node node = root;
+        while (node != null) {
+            int leftCount = rowCount(node.left);
+            if (row < leftCount) {
+                node = node.left;
+            } else if (row == leftCount) {
+                return node.length;
+            } else {
+                row -= leftCount + 1;
+                node = node.right;
+            }
+        }
+        throw new IllegalStateException("Unreachable code. Row was already checked to be in bounds.");
+    }
+
+    /**
+     * Update the index for an insertion of text.
+     * @param offset The offset the text was inserted at.
+     * @param text The inserted text.
+     */
+    public void insert(int offset, CharSequence text) {
+        insert(offset, text, 0, text.length());
+    }
+
+    /**
+     * Update the index for an insertion of a subsequence of the given text.
+     * @param offset The offset the text was inserted at.
+     * @param text The text containing the inserted subsequence.
+     * @param start The start index of the inserted subsequence in the text.
+     * @param end The end index of the inserted subsequence in the text.
+     */
+    public void insert(int offset, CharSequence text, int start, int end) {
+        if (start == end) {
+            return;
+        }
+        int row = getRowOfOffset(offset);
+        int column = offset - getRowStartOffset(row);
+        int rowLength = getRowLength(row);
+
+        Node[] split = split(root, row);
+        Node[] rest = split(split[1], 1);
+
+        // The first new row keeps the start of the old row, and the last new row keeps the remainder of it.
+        Node middle = null;
+        int pieceStart = start;
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == '\n') {
+                int length = i + 1 - pieceStart;
+                if (pieceStart == start) {
+                    length += column;
+                }
+                middle = merge(middle, newNode(length));
+                pieceStart = i + 1;
+            }
+        }
+        int lastLength = end - pieceStart + rowLength - column;
+        if (pieceStart == start) {
+            lastLength += column;
+        }
+        middle = merge(middle, newNode(lastLength));
+
+        root = merge(merge(split[0], middle), rest[1]);
+    }
+
+    /**
+     * Update the index for a removal of text.
+     * @param offset The offset of the removed text.
+     * @param length The length of the removed text.
+     */
+    public void remove(int offset, int length) {
+        if (length == 0) {
+            return;
+        }
+        int endOffset = offset + length;
+        int startRow = getRowOfOffset(offset);
+        int endRow = getRowOfOffset(endOffset);
+        int startRowOffset = getRowStartOffset(startRow);
+        int endRowOffset = getRowStartOffset(endRow);
+        int endRowLength = getRowLength(endRow);
+
+        // The rows spanned by the removal are joined into one row.
+        int joinedLength = (offset - startRowOffset) + (endRowOffset + endRowLength - endOffset);
+
+        Node[] split = split(root, startRow);
+        Node[] rest = split(split[1], endRow - startRow + 1);
+        root = merge(merge(split[0], newNode(joinedLength)), rest[1]);
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= getRowCount()) {
+            throw new IndexOutOfBoundsException("Row " + row + " is out of bounds for row count " + getRowCount());
+        }
+    }
+
+    private Node newNode(int length) {
+        return new Node(length, random.nextInt());
+    }
+
+    /**
+     * Split the tree into the first count rows, and all remaining rows.
+     */
+    private static Node[] split(Node node, int count) {
+        if (node == null) {
+            return new Node[] { null, null };
+        }
+        int leftCount = rowCount(node.left);
+        if (count <= leftCount) {
+            Node[] result = split(node.left, count);
+            node.left = result[1];
+            node.update();
+            result[1] = node;
+            return result;
+        } else {
+            Node[] result = split(node.right, count - leftCount - 1);
+            node.right = result[0];
+            node.update();
+            result[0] = node;
+            return result;
+        }
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        } else {
+            right.left = merge(left, right.left);
+            right.update();
+            return right;
+        }
+    }
+
+    private static int totalLength(Node node) {
+        return node == null ? 0 : node.totalLength;
+    }
+
+    private static int maxLength(Node node) {
+        return node == null ? 0 : node.maxLength;
+    }
+
+    private static int rowCount(Node node) {
+        return node == null ? 0 : node.rowCount;
+    }
+}
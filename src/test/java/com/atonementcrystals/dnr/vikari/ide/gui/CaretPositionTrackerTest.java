@@ -0,0 +1,41 @@
+package com.atonementcrystals.dnr.vikari.ide.gui;
+
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class CaretPositionTrackerTest {
+
+    @Test
+    @Order(1)
+    public void testLineColumnAndSelection() {
+        VideEditorPane textEditorPane = new VideEditorPane();
+        textEditorPane.getLineIndex().reset("foo << 5\nbar << 6\nbaz");
+        int[] changeCount = new int[1];
+        CaretPositionTracker tracker = new CaretPositionTracker(textEditorPane, () -> changeCount[0]++);
+
+        // 1. The caret alone.
+        tracker.update(12, 12);
+        assertEquals(2, tracker.getLine(), "Unexpected line.");
+        assertEquals(4, tracker.getColumn(), "Unexpected column.");
+        assertEquals(0, tracker.getSelectionLength(), "Unexpected selection length.");
+        assertEquals(0, tracker.getSelectedLineCount(), "Unexpected selected line count.");
+        assertEquals(1, changeCount[0], "Expected one change.");
+
+        // 2. The same position again is not a change.
+        tracker.update(12, 12);
+        assertEquals(1, changeCount[0], "Expected no change.");
+
+        // 3. A selection spanning three lines, made backwards.
+        tracker.update(2, 20);
+        assertEquals(1, tracker.getLine(), "Unexpected line.");
+        assertEquals(3, tracker.getColumn(), "Unexpected column.");
+        assertEquals(18, tracker.getSelectionLength(), "Unexpected selection length.");
+        assertEquals(3, tracker.getSelectedLineCount(), "Unexpected selected line count.");
+        assertEquals(2, changeCount[0], "Expected a second change.");
+    }
+}
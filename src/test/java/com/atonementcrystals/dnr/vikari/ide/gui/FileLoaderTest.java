@@ -0,0 +1,125 @@
+package com.atonementcrystals.dnr.vikari.ide.gui;
+
+import com.atonementcrystals.dnr.vikari.ide.gui.document.VideDocument;
+import com.atonementcrystals.dnr.vikari.ide.util.LineIndex;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.swing.text.DefaultEditorKit;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class FileLoaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Records the callbacks of a FileLoader, and completes once the file is loaded or fails to load.
+     */
+    private static class RecordingListener implements FileLoader.Listener {
+        private final List<String> firstScreens = new ArrayList<>();
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private LineIndex lineIndex;
+        private Object lineSeparator;
+
+        @Override
+        public void firstScreenLoaded(String text) {
+            firstScreens.add(text);
+        }
+
+        @Override
+        public void progress(long bytesRead, long fileSize) {
+        }
+
+        @Override
+        public void loaded(VideDocument document, LineIndex lineIndex) {
+            this.lineIndex = lineIndex;
+            this.lineSeparator = document.getProperty(DefaultEditorKit.EndOfLineStringProperty);
+            try {
+                result.complete(document.getText(0, document.getLength()));
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public void failed(IOException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private RecordingListener load(File file, int firstScreenRowCount) throws Exception {
+        RecordingListener listener = new RecordingListener();
+        new FileLoader(file, firstScreenRowCount, listener).start();
+        listener.result.get(30, TimeUnit.SECONDS);
+        return listener;
+    }
+
+    @Test
+    @Order(1)
+    public void testLoadedText() throws Exception {
+        // Long enough to be read in several chunks, with multibyte characters split across chunks.
+        StringBuilder sb = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            String lineSeparator = i % 3 == 0 ? "\r\n" : i % 3 == 1 ? "\r" : "\n";
+            sb.append("\tfoo << \u00e9\u4e2d\ud83d\ude00 ").append(i).append(lineSeparator);
+            expected.append("  foo << \u00e9\u4e2d\ud83d\ude00 ").append(i).append('\n');
+        }
+        File file = tempDir.resolve("test.DNR").toFile();
+        Files.writeString(file.toPath(), sb, StandardCharsets.UTF_8);
+
+        RecordingListener listener = load(file, 10);
+        String text = listener.result.get();
+        assertEquals(expected.toString(), text, "Unexpected loaded text.");
+        assertEquals(new LineIndex(text).getRowCount(), listener.lineIndex.getRowCount(), "Unexpected row count.");
+        assertEquals(text.length(), listener.lineIndex.getLength(), "Unexpected indexed length.");
+        assertEquals("\r\n", listener.lineSeparator, "Expected the first line separator of the file.");
+
+        assertEquals(1, listener.firstScreens.size(), "Expected the first screen to be loaded once.");
+        String firstScreen = listener.firstScreens.get(0);
+        assertTrue(text.startsWith(firstScreen), "The first screen should be a prefix of the loaded text.");
+        assertEquals(10, new LineIndex(firstScreen).getRowCount() - 1, "Expected ten full rows in the first screen.");
+    }
+
+    @Test
+    @Order(2)
+    public void testLineSeparator() throws Exception {
+        File file = tempDir.resolve("test.DNR").toFile();
+        for (String lineSeparator : List.of("\r\n", "\r", "\n")) {
+            Files.writeString(file.toPath(), "foo" + lineSeparator + "bar" + lineSeparator);
+            RecordingListener listener = load(file, 10);
+            assertEquals("foo\nbar\n", listener.result.get(), "Unexpected loaded text.");
+            assertEquals(lineSeparator, listener.lineSeparator, "Unexpected line separator.");
+        }
+
+        // A "\r\n" split across two reads.
+        Files.writeString(file.toPath(), "a".repeat(64 * 1024 - 1) + "\r\nfoo");
+        assertEquals("\r\n", load(file, 10).lineSeparator, "Unexpected line separator across reads.");
+
+        Files.writeString(file.toPath(), "foo");
+        assertEquals("\n", load(file, 10).lineSeparator, "Expected a file without line separators to use \"\\n\".");
+    }
+
+    @Test
+    @Order(3)
+    public void testMissingFile() {
+        File file = tempDir.resolve("missing.DNR").toFile();
+        Exception e = assertThrows(Exception.class, () -> load(file, 10));
+        assertInstanceOf(IOException.class, e.getCause(), "Expected the load to fail with an IOException.");
+    }
+}
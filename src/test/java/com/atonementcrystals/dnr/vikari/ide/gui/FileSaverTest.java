@@ -0,0 +1,136 @@
+package com.atonementcrystals.dnr.vikari.ide.gui;
+
+import com.atonementcrystals.dnr.vikari.ide.gui.document.VideDocument;
+import com.atonementcrystals.dnr.vikari.ide.util.LineIndex;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.swing.text.DefaultEditorKit;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class FileSaverTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static boolean save(FileSaver fileSaver, File file, String text) throws Exception {
+        return fileSaver.save(file, text, "\n").get(30, TimeUnit.SECONDS);
+    }
+
+    @Test
+    @Order(1)
+    public void testSave() throws Exception {
+        FileSaver fileSaver = new FileSaver();
+        File file = tempDir.resolve("test.DNR").toFile();
+
+        // Long enough to be encoded in several chunks.
+        String text = "foo << \u00e9\u4e2d\ud83d\ude00\n".repeat(20000);
+        assertTrue(save(fileSaver, file, text), "Expected a new file to be written.");
+        assertEquals(text, Files.readString(file.toPath(), StandardCharsets.UTF_8), "Unexpected saved text.");
+        assertFalse(save(fileSaver, file, text), "Expected saving the same text to be skipped.");
+
+        assertTrue(save(fileSaver, file, "bar"), "Expected changed text to be written.");
+        assertEquals("bar", Files.readString(file.toPath()), "Unexpected saved text.");
+        try (Stream<Path> paths = Files.list(tempDir)) {
+            assertEquals(List.of(file.toPath()), paths.toList(), "Expected no temporary files to be left.");
+        }
+    }
+
+    @Test
+    @Order(2)
+    public void testExternalChange() throws Exception {
+        FileSaver fileSaver = new FileSaver();
+        File file = tempDir.resolve("test.DNR").toFile();
+        assertTrue(save(fileSaver, file, "foo"), "Expected a new file to be written.");
+
+        Files.writeString(file.toPath(), "bar");
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(0));
+        assertTrue(save(fileSaver, file, "foo"), "Expected a file changed on disk to be written.");
+        assertEquals("foo", Files.readString(file.toPath()), "Unexpected saved text.");
+    }
+
+    @Test
+    @Order(3)
+    public void testSavesRunInOrder() throws Exception {
+        FileSaver fileSaver = new FileSaver();
+        File file = tempDir.resolve("test.DNR").toFile();
+        CompletableFuture<Boolean> lastSave = null;
+        for (int i = 0; i < 50; i++) {
+            lastSave = fileSaver.save(file, "foo " + i, "\n");
+        }
+        lastSave.get(30, TimeUnit.SECONDS);
+        assertEquals("foo 49", Files.readString(file.toPath()), "Expected the last save to be written last.");
+    }
+
+    @Test
+    @Order(4)
+    public void testLineSeparator() throws Exception {
+        File file = tempDir.resolve("test.DNR").toFile();
+        // Long enough to be encoded in several chunks, with a line separator at a chunk boundary.
+        String text = "a".repeat(64 * 1024 - 1) + "\r\n" + "foo << 5\r\n".repeat(20000);
+        Files.writeString(file.toPath(), text);
+
+        // Load the file as an editor window does.
+        CompletableFuture<VideDocument> loadedDocument = new CompletableFuture<>();
+        FileLoader fileLoader = new FileLoader(file, 10, new FileLoader.Listener() {
+            @Override
+            public void firstScreenLoaded(String text) {
+            }
+
+            @Override
+            public void progress(long bytesRead, long fileSize) {
+            }
+
+            @Override
+            public void loaded(VideDocument document, LineIndex lineIndex) {
+                loadedDocument.complete(document);
+            }
+
+            @Override
+            public void failed(IOException e) {
+                loadedDocument.completeExceptionally(e);
+            }
+        });
+        fileLoader.start();
+        VideDocument document = loadedDocument.get(30, TimeUnit.SECONDS);
+        String lineSeparator = (String) document.getProperty(DefaultEditorKit.EndOfLineStringProperty);
+        String loadedText = document.getText(0, document.getLength());
+
+        FileSaver fileSaver = new FileSaver();
+        fileSaver.setLoadedFile(file, fileLoader.getContentHash(), fileLoader.getLastModifiedTime(),
+                fileLoader.getFileSize());
+        assertFalse(fileSaver.save(file, loadedText, lineSeparator).get(30, TimeUnit.SECONDS),
+                "Expected saving an unchanged CRLF file to be skipped.");
+
+        assertTrue(fileSaver.save(file, loadedText + "bar\n", lineSeparator).get(30, TimeUnit.SECONDS),
+                "Expected changed text to be written.");
+        assertEquals(text + "bar\r\n", Files.readString(file.toPath()),
+                "Expected the CRLF line separators to be kept.");
+    }
+
+    @Test
+    @Order(5)
+    public void testFailedSave() {
+        FileSaver fileSaver = new FileSaver();
+        File file = tempDir.resolve("missing").resolve("test.DNR").toFile();
+        CompletionException e = assertThrows(CompletionException.class, () -> fileSaver.save(file, "foo", "\n").join());
+        assertInstanceOf(UncheckedIOException.class, e.getCause(), "Expected the save to fail with an IOException.");
+    }
+}
@@ -0,0 +1,96 @@
+package com.atonementcrystals.dnr.vikari.ide.gui.document;
+
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.GapContent;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class PieceTableContentTest {
+
+    private static String randomText(Random random) {
+        String alphabet = "abc <<\n";
+        int length = random.nextInt(10) == 0 ? 5000 + random.nextInt(5000) : 1 + random.nextInt(8);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Apply the same random edits to a PieceTableContent and to a GapContent, and check that both always have the
+     * same text and the same position offsets.
+     */
+    @Test
+    @Order(1)
+    public void testRandomEditsMatchGapContent() throws BadLocationException {
+        Random random = new Random(17);
+        PieceTableContent content = new PieceTableContent();
+        GapContent expectedContent = new GapContent();
+        List<Position> positions = new ArrayList<>();
+        List<Position> expectedPositions = new ArrayList<>();
+
+        for (int i = 0; i < 2000; i++) {
+            int length = expectedContent.length();
+            int operation = random.nextInt(10);
+            if (operation < 5 || length == 1) {
+                int where = random.nextInt(length);
+                String text = randomText(random);
+                content.insertString(where, text);
+                expectedContent.insertString(where, text);
+            } else if (operation < 8) {
+                int where = random.nextInt(length - 1);
+                int count = random.nextInt(Math.min(20, length - 1 - where)) + 1;
+                content.remove(where, count);
+                expectedContent.remove(where, count);
+            } else {
+                int offset = random.nextInt(length);
+                positions.add(content.createPosition(offset));
+                expectedPositions.add(expectedContent.createPosition(offset));
+            }
+
+            assertEquals(expectedContent.length(), content.length(), "Unexpected content length.");
+            for (int j = 0; j < positions.size(); j++) {
+                assertEquals(expectedPositions.get(j).getOffset(), positions.get(j).getOffset(),
+                        "Unexpected offset for position " + j + " after edit " + i + ".");
+            }
+        }
+        assertEquals(expectedContent.getString(0, expectedContent.length()), content.getString(0, content.length()),
+                "Unexpected content text.");
+
+        for (int i = 0; i < 100; i++) {
+            int where = random.nextInt(content.length());
+            int length = random.nextInt(content.length() - where + 1);
+            Segment segment = new Segment();
+            content.getChars(where, length, segment);
+            assertEquals(expectedContent.getString(where, length), segment.toString(), "Unexpected segment text.");
+        }
+    }
+
+    @Test
+    @Order(2)
+    public void testSnapshot() throws BadLocationException {
+        PieceTableContent content = new PieceTableContent();
+        content.insertString(0, "foo << 5\nbar << 6");
+        CharSequence snapshot = content.createSnapshot(content.length() - 1);
+
+        content.remove(0, 3);
+        content.insertString(3, "baz");
+
+        assertEquals("foo << 5\nbar << 6", snapshot.toString(), "A snapshot should be unaffected by later edits.");
+        assertEquals('b', snapshot.charAt(9), "Unexpected character in snapshot.");
+        assertEquals("bar", snapshot.subSequence(9, 12).toString(), "Unexpected subsequence of snapshot.");
+        assertEquals(" <<baz 5\nbar << 6\n", content.getString(0, content.length()), "Unexpected content text.");
+    }
+}
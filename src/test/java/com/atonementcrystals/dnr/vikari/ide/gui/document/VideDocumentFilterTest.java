@@ -0,0 +1,65 @@
+package com.atonementcrystals.dnr.vikari.ide.gui.document;
+
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class VideDocumentFilterTest {
+
+    /**
+     * Create a document with a VideDocumentFilter, which records the text of each removal to the given list.
+     */
+    private static DefaultStyledDocument createDocument(List<String> removedTexts) {
+        DefaultStyledDocument document = new DefaultStyledDocument();
+        VideDocumentFilter documentFilter = new VideDocumentFilter();
+        document.setDocumentFilter(documentFilter);
+        document.addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                removedTexts.add(documentFilter.getRemovedText(e.getOffset(), e.getLength()));
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        return document;
+    }
+
+    @Test
+    @Order(1)
+    public void testRemovedText() throws BadLocationException {
+        List<String> removedTexts = new ArrayList<>();
+        DefaultStyledDocument document = createDocument(removedTexts);
+        document.insertString(0, "foo << 5\nbar << 6", null);
+
+        document.remove(4, 2);
+        document.replace(0, 3, "baz", null);
+
+        assertEquals(List.of("<<", "foo"), removedTexts, "Unexpected removed text.");
+        assertEquals("baz  5\nbar << 6", document.getText(0, document.getLength()), "Unexpected document text.");
+    }
+
+    @Test
+    @Order(2)
+    public void testTabsToSpaces() throws BadLocationException {
+        DefaultStyledDocument document = createDocument(new ArrayList<>());
+        document.insertString(0, "\tfoo", null);
+        assertEquals("  foo", document.getText(0, document.getLength()), "Expected tabs to be replaced with spaces.");
+    }
+}
@@ -0,0 +1,113 @@
+package com.atonementcrystals.dnr.vikari.ide.journal;
+
+import com.atonementcrystals.dnr.vikari.ide.gui.FileSaver;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class EditJournalTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Copy the journal file of an open EditJournal into a separate recovery directory. As the journal file is left
+     * behind if Vide crashes.
+     */
+    private Path copyJournal(Path directory) throws IOException {
+        Path recoveryDirectory = Files.createDirectories(tempDir.resolve("recovery"));
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (Path path : paths.toList()) {
+                Files.copy(path, recoveryDirectory.resolve(path.getFileName()));
+            }
+        }
+        return recoveryDirectory;
+    }
+
+    @Test
+    @Order(1)
+    public void testReplaySnapshot() throws Exception {
+        Path directory = tempDir.resolve("journal");
+        EditJournal editJournal = new EditJournal(directory);
+        editJournal.setEnabled(true);
+        editJournal.reset(null, "foo << 5", false);
+        editJournal.recordInsert(8, "\nbar << 6");
+        editJournal.recordRemove(4, 2);
+        editJournal.awaitWrites();
+
+        assertTrue(RecoveredJournal.findAll(directory).isEmpty(), "The journal of an open window is not recoverable.");
+
+        List<RecoveredJournal> journals = RecoveredJournal.findAll(copyJournal(directory));
+        assertEquals(1, journals.size(), "Expected one recovered journal.");
+        assertNull(journals.get(0).getFile(), "Expected the journal of a new file.");
+        assertEquals("foo  5\nbar << 6", journals.get(0).replay(), "Unexpected recovered text.");
+
+        editJournal.discard();
+        try (Stream<Path> paths = Files.list(directory)) {
+            assertFalse(paths.findAny().isPresent(), "Expected the journal file to be deleted.");
+        }
+    }
+
+    @Test
+    @Order(2)
+    public void testReplayFile() throws Exception {
+        File file = tempDir.resolve("test.DNR").toFile();
+        byte[] bytes = "foo\r\n\tbar".getBytes();
+        Files.write(file.toPath(), bytes);
+
+        Path directory = tempDir.resolve("journal");
+        EditJournal editJournal = new EditJournal(directory);
+        editJournal.reset(file, FileSaver.createContentDigest().digest(bytes));
+        editJournal.awaitWrites();
+        assertFalse(Files.exists(directory), "Expected no journal file before the first edit.");
+
+        editJournal.recordInsert(0, "baz ");
+        editJournal.awaitWrites();
+        RecoveredJournal journal = RecoveredJournal.findAll(copyJournal(directory)).get(0);
+        assertEquals(file.getAbsoluteFile(), journal.getFile(), "Unexpected file of the journal.");
+        assertEquals("baz foo\n  bar", journal.replay(), "Unexpected recovered text.");
+
+        Files.writeString(file.toPath(), "changed");
+        assertThrows(IOException.class, journal::replay, "Expected a changed file to not be replayed.");
+        editJournal.discard();
+    }
+
+    @Test
+    @Order(3)
+    public void testIncompleteRecord() throws Exception {
+        Path directory = tempDir.resolve("journal");
+        EditJournal editJournal = new EditJournal(directory);
+        editJournal.reset(null, "", true);
+        editJournal.recordInsert(0, "foo");
+        editJournal.recordInsert(3, "bar");
+        editJournal.awaitWrites();
+
+        // Cut the last record short, as if Vide crashed while writing it.
+        Path recoveryDirectory = copyJournal(directory);
+        Path journalPath;
+        try (Stream<Path> paths = Files.list(recoveryDirectory)) {
+            journalPath = paths.findFirst().orElseThrow();
+        }
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        RecoveredJournal journal = RecoveredJournal.findAll(recoveryDirectory).get(0);
+        assertEquals("foo", journal.replay(), "Expected the incomplete record to be ignored.");
+        editJournal.discard();
+    }
+}
@@ -0,0 +1,35 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+import com.atonementcrystals.dnr.vikari.ide.util.LineIndex;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class ChunkBoundaryScannerTest {
+    private static int[] findChunkStartRows(String text, int startRow, int endRow, int chunkRowCount) {
+        LineIndex lineIndex = new LineIndex(text);
+        return ChunkBoundaryScanner.findChunkStartRows(text, lineIndex, startRow, endRow, chunkRowCount);
+    }
+
+    @Test
+    @Order(1)
+    public void testChunksOfEqualSize() {
+        String text = "a\nb\nc\nd\ne\nf\ng";
+        assertArrayEquals(new int[] { 0, 2, 4, 6, 7 }, findChunkStartRows(text, 0, 6, 2), "Unexpected chunk rows.");
+        assertArrayEquals(new int[] { 1, 4, 6 }, findChunkStartRows(text, 1, 5, 3), "Unexpected chunk rows.");
+        assertArrayEquals(new int[] { 0, 7 }, findChunkStartRows(text, 0, 6, 10), "Unexpected chunk rows.");
+    }
+
+    @Test
+    @Order(2)
+    public void testChunksSkipMultilineTokens() {
+        // Rows 2 through 4 begin inside a multiline comment, and rows 6 and 7 begin inside a multiline string.
+        String text = "a\nb ~:c\nd\ne\n:~ f\ng ``h\ni\nj``\nk ~:l:~ `~`\nm";
+        assertArrayEquals(new int[] { 0, 1, 5, 8, 9, 10 }, findChunkStartRows(text, 0, 9, 1),
+                "Unexpected chunk rows.");
+    }
+}
@@ -0,0 +1,120 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+import com.atonementcrystals.dnr.vikari.core.crystal.CommentCrystal;
+import com.atonementcrystals.dnr.vikari.core.crystal.GenericCrystal;
+import com.atonementcrystals.dnr.vikari.core.crystal.identifier.TypeReferenceCrystal;
+import com.atonementcrystals.dnr.vikari.core.crystal.literal.BooleanCrystal;
+import com.atonementcrystals.dnr.vikari.core.crystal.number.IntegerCrystal;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class FastScannerTest {
+    private static final short VARIABLE = StyleClasses.VARIABLE;
+    private static final short TYPE_REFERENCE = StyleClasses.register(TypeReferenceCrystal.class);
+    private static final short INTEGER = StyleClasses.register(IntegerCrystal.class);
+    private static final short BOOLEAN = StyleClasses.register(BooleanCrystal.class);
+    private static final short COMMENT = StyleClasses.register(CommentCrystal.class);
+    private static final short GENERIC = StyleClasses.register(GenericCrystal.class);
+
+    /**
+     * Create a TokenStore of a single row, with tokens given as triples of column, length, and style class.
+     */
+    private static TokenStore createRow(int... tokens) {
+        int tokenCount = tokens.length / 3;
+        int[] columns = new int[tokenCount];
+        int[] lengths = new int[tokenCount];
+        short[] styles = new short[tokenCount];
+        for (int i = 0; i < tokenCount; i++) {
+            columns[i] = tokens[i * 3];
+            lengths[i] = tokens[i * 3 + 1];
+            styles[i] = (short) tokens[i * 3 + 2];
+        }
+        TokenStore tokenStore = new TokenStore();
+        tokenStore.setRow(0, columns, lengths, styles, tokenCount);
+        return tokenStore;
+    }
+
+    private static void assertTokens(FastScanner fastScanner, int... tokens) {
+        assertEquals(tokens.length / 3, fastScanner.getTokenCount(), "Unexpected token count.");
+        for (int i = 0; i < fastScanner.getTokenCount(); i++) {
+            assertEquals(tokens[i * 3], fastScanner.getColumns()[i], "Unexpected column for token " + i + ".");
+            assertEquals(tokens[i * 3 + 1], fastScanner.getLengths()[i], "Unexpected length for token " + i + ".");
+            assertEquals(tokens[i * 3 + 2], fastScanner.getStyles()[i], "Unexpected style for token " + i + ".");
+        }
+    }
+
+    @Test
+    @Order(1)
+    public void testClassifyWord() {
+        assertEquals(VARIABLE, FastScanner.classifyWord("foo_bar", 0, 7), "Unexpected style for a variable.");
+        assertEquals(TYPE_REFERENCE, FastScanner.classifyWord("Foo", 0, 3), "Unexpected style for a type.");
+        assertEquals(StyleClasses.TYPE_KEYWORD, FastScanner.classifyWord("Type", 0, 4),
+                "Unexpected style for a type keyword.");
+        assertEquals(INTEGER, FastScanner.classifyWord("123", 0, 3), "Unexpected style for an integer.");
+        assertEquals(BOOLEAN, FastScanner.classifyWord("false", 0, 5), "Unexpected style for a boolean.");
+        assertEquals(-1, FastScanner.classifyWord("5L", 0, 2), "A number with a suffix must be lexed.");
+        assertEquals(-1, FastScanner.classifyWord("_", 0, 1), "A sword must be lexed.");
+        assertEquals(-1, FastScanner.classifyWord("__", 0, 2), "A sword must be lexed.");
+    }
+
+    @Test
+    @Order(2)
+    public void testScanWords() {
+        FastScanner fastScanner = new FastScanner();
+
+        // "a + foo" -> "a + fo1o"
+        TokenStore tokenStore = createRow(0, 1, VARIABLE, 2, 1, GENERIC, 4, 3, VARIABLE);
+        assertTrue(fastScanner.scanEdit("a + fo1o", 0, 8, tokenStore, 0, 6, 6, 7), "Expected the edit to be scanned.");
+        assertTokens(fastScanner, 0, 1, VARIABLE, 2, 1, GENERIC, 4, 4, VARIABLE);
+
+        // "a + foo" -> "a + 12 foo"
+        assertTrue(fastScanner.scanEdit("a + 12 foo", 0, 10, tokenStore, 0, 4, 4, 7),
+                "Expected the edit to be scanned.");
+        assertTokens(fastScanner, 0, 1, VARIABLE, 2, 1, GENERIC, 4, 2, INTEGER, 7, 3, VARIABLE);
+
+        // "a + foo" -> "a +foo"
+        assertTrue(fastScanner.scanEdit("a +foo", 0, 6, tokenStore, 0, 3, 4, 3), "Expected the edit to be scanned.");
+        assertTokens(fastScanner, 0, 1, VARIABLE, 2, 1, GENERIC, 3, 3, VARIABLE);
+    }
+
+    @Test
+    @Order(3)
+    public void testScanEnclosedEdit() {
+        FastScanner fastScanner = new FastScanner();
+
+        // "x ~:abc:~ y" -> "x ~:abXc:~ y"
+        TokenStore tokenStore = createRow(0, 1, VARIABLE, 2, 7, COMMENT, 10, 1, VARIABLE);
+        assertTrue(fastScanner.scanEdit("x ~:abXc:~ y", 0, 12, tokenStore, 0, 6, 6, 7),
+                "Expected the edit to be scanned.");
+        assertTokens(fastScanner, 0, 1, VARIABLE, 2, 8, COMMENT, 11, 1, VARIABLE);
+
+        // "x ~:abc:~ y" -> "x ~:ab:~c:~ y"
+        assertFalse(fastScanner.scanEdit("x ~:ab:~c:~ y", 0, 13, tokenStore, 0, 6, 6, 8),
+                "Closing a comment early must be lexed.");
+    }
+
+    @Test
+    @Order(4)
+    public void testAmbiguousEdits() {
+        FastScanner fastScanner = new FastScanner();
+
+        // "a < b" -> "a << b"
+        TokenStore tokenStore = createRow(0, 1, VARIABLE, 2, 1, GENERIC, 4, 1, VARIABLE);
+        assertFalse(fastScanner.scanEdit("a << b", 0, 6, tokenStore, 0, 3, 3, 4), "An operator must be lexed.");
+
+        // "a < < b" -> "a << b"
+        tokenStore = createRow(0, 1, VARIABLE, 2, 1, GENERIC, 4, 1, GENERIC, 6, 1, VARIABLE);
+        assertFalse(fastScanner.scanEdit("a << b", 0, 6, tokenStore, 0, 3, 4, 3),
+                "Joining two operators must be lexed.");
+
+        // "x << 1.5" -> "x << 1.25"
+        tokenStore = createRow(0, 1, VARIABLE, 2, 2, GENERIC, 5, 3, GENERIC);
+        assertFalse(fastScanner.scanEdit("x << 1.25", 0, 9, tokenStore, 0, 7, 7, 8),
+                "A decimal number must be lexed.");
+    }
+}
@@ -0,0 +1,81 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import javax.swing.SwingUtilities;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class HighlightSchedulerTest {
+    private static final Object RESTYLE_JOB_KEY = new Object();
+
+    private VikariSyntaxHighlighter syntaxHighlighter;
+    private HighlightScheduler scheduler;
+    private List<String> jobsRun;
+
+    @BeforeEach
+    public void setUp() {
+        syntaxHighlighter = new VikariSyntaxHighlighter();
+        syntaxHighlighter.setRules(new HighlightRules(new HashMap<>(), new HashMap<>()));
+        scheduler = syntaxHighlighter.getScheduler();
+        jobsRun = new ArrayList<>();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        syntaxHighlighter.shutdown();
+    }
+
+    /**
+     * Schedule the jobs on the Event Dispatch Thread, so that none of them run until all of them are scheduled. Then
+     * wait for all of them to run.
+     */
+    private void runJobs(Runnable scheduleJobs) throws Exception {
+        SwingUtilities.invokeAndWait(scheduleJobs);
+        SwingUtilities.invokeAndWait(() -> {});
+    }
+
+    @Test
+    @Order(1)
+    public void testSupersededJobs() throws Exception {
+        HighlightSession session = syntaxHighlighter.createSession();
+        runJobs(() -> {
+            scheduler.publish(session, 1, () -> jobsRun.add("publish 1"));
+            scheduler.schedule(session, null, () -> jobsRun.add("callback"));
+            scheduler.schedule(session, RESTYLE_JOB_KEY, () -> jobsRun.add("restyle 1"));
+            scheduler.publish(session, 2, () -> jobsRun.add("publish 2"));
+            scheduler.publish(session, 2, () -> jobsRun.add("publish 2 again"));
+            scheduler.schedule(session, RESTYLE_JOB_KEY, () -> jobsRun.add("restyle 2"));
+        });
+        assertEquals(List.of("callback", "publish 2", "publish 2 again", "restyle 2"), jobsRun,
+                "Only the superseded jobs should be cancelled.");
+    }
+
+    @Test
+    @Order(2)
+    public void testPriorities() throws Exception {
+        HighlightSession hidden = syntaxHighlighter.createSession();
+        HighlightSession visible = syntaxHighlighter.createSession();
+        HighlightSession focused = syntaxHighlighter.createSession();
+        scheduler.setHidden(hidden, true);
+        scheduler.setFocusedSession(focused);
+
+        runJobs(() -> {
+            scheduler.schedule(hidden, null, () -> jobsRun.add("hidden"));
+            scheduler.schedule(visible, null, () -> jobsRun.add("visible 1"));
+            scheduler.schedule(focused, null, () -> jobsRun.add("focused"));
+            scheduler.schedule(visible, null, () -> jobsRun.add("visible 2"));
+        });
+        assertEquals(List.of("focused", "visible 1", "visible 2", "hidden"), jobsRun,
+                "Jobs should run in order of the priority of their session.");
+    }
+}
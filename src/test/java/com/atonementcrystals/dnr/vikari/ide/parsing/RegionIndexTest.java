@@ -0,0 +1,124 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class RegionIndexTest {
+
+    /**
+     * Create an index of the Regions [0, 5), [10, 15), [20, 25), ... for the given number of Regions.
+     */
+    private static RegionIndex createRegionIndex(int regionCount) {
+        RegionIndex regionIndex = new RegionIndex();
+        for (int i = 0; i < regionCount; i++) {
+            regionIndex.add(new Region(i * 10, i * 10 + 5, null));
+        }
+        return regionIndex;
+    }
+
+    private static void assertRegion(int expectedStart, int expectedEnd, Region region) {
+        assertNotNull(region, "Expected a Region.");
+        assertEquals(expectedStart, region.getStart(), "Unexpected Region start.");
+        assertEquals(expectedEnd, region.getEnd(), "Unexpected Region end.");
+    }
+
+    @Test
+    @Order(1)
+    public void testAdd() {
+        RegionIndex regionIndex = new RegionIndex();
+        regionIndex.add(new Region(20, 25, null));
+        regionIndex.add(new Region(0, 5, null));
+        regionIndex.add(new Region(10, 15, null));
+
+        List<Region> regions = regionIndex.getRegions();
+        assertEquals(3, regions.size(), "Unexpected number of Regions.");
+        assertRegion(0, 5, regions.get(0));
+        assertRegion(10, 15, regions.get(1));
+        assertRegion(20, 25, regions.get(2));
+
+        // Intersecting Regions are replaced.
+        regionIndex.add(new Region(12, 22, null));
+        regions = regionIndex.getRegions();
+        assertEquals(2, regions.size(), "Unexpected number of Regions.");
+        assertRegion(0, 5, regions.get(0));
+        assertRegion(12, 22, regions.get(1));
+    }
+
+    @Test
+    @Order(2)
+    public void testFindRegion() {
+        RegionIndex regionIndex = createRegionIndex(100);
+
+        assertRegion(0, 5, regionIndex.findRegion(0));
+        assertRegion(0, 5, regionIndex.findRegion(4));
+        assertNull(regionIndex.findRegion(5), "Expected no Region at the end offset of a Region.");
+        assertRegion(500, 505, regionIndex.findRegion(502));
+        assertNull(regionIndex.findRegion(1000), "Expected no Region past the last Region.");
+    }
+
+    @Test
+    @Order(3)
+    public void testRemoveIntersecting() {
+        RegionIndex regionIndex = createRegionIndex(10);
+
+        // 1. Span between two Regions.
+        List<Region> removed = regionIndex.removeIntersecting(5, 10);
+        assertTrue(removed.isEmpty(), "Expected no intersected Regions.");
+        assertEquals(10, regionIndex.size(), "Unexpected number of Regions.");
+
+        // 2. Span intersecting three Regions.
+        removed = regionIndex.removeIntersecting(14, 31);
+        assertEquals(3, removed.size(), "Unexpected number of intersected Regions.");
+        assertRegion(10, 15, removed.get(0));
+        assertRegion(20, 25, removed.get(1));
+        assertRegion(30, 35, removed.get(2));
+        assertEquals(7, regionIndex.size(), "Unexpected number of Regions.");
+        assertNull(regionIndex.findRegion(20), "Expected intersected Regions to be removed.");
+    }
+
+    @Test
+    @Order(4)
+    public void testShiftFrom() {
+        RegionIndex regionIndex = createRegionIndex(100);
+
+        // 1. Shift forwards.
+        regionIndex.shiftFrom(500, 3);
+        assertRegion(490, 495, regionIndex.findRegion(490));
+        assertRegion(503, 508, regionIndex.findRegion(503));
+        assertRegion(993, 998, regionIndex.findRegion(993));
+
+        // 2. Shift backwards, starting from the middle of a Region.
+        regionIndex.shiftFrom(492, -2);
+        assertRegion(490, 495, regionIndex.findRegion(490));
+        assertRegion(501, 506, regionIndex.findRegion(501));
+
+        // 3. Shifted Regions are all still in order.
+        List<Region> regions = regionIndex.getRegions();
+        for (int i = 1; i < regions.size(); i++) {
+            assertTrue(regions.get(i - 1).getEnd() <= regions.get(i).getStart(), "Expected ordered Regions.");
+        }
+        assertRegion(991, 996, regions.get(regions.size() - 1));
+    }
+
+    @Test
+    @Order(5)
+    public void testRemoveFrom() {
+        RegionIndex regionIndex = createRegionIndex(10);
+        regionIndex.shiftFrom(50, 1);
+
+        regionIndex.removeFrom(42);
+        List<Region> regions = regionIndex.getRegions();
+        assertEquals(5, regions.size(), "Unexpected number of Regions.");
+        assertRegion(40, 45, regions.get(4));
+
+        regionIndex.removeFrom(0);
+        assertTrue(regionIndex.isEmpty(), "Expected an empty RegionIndex.");
+    }
+}
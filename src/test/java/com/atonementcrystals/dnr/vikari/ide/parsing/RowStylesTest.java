@@ -0,0 +1,98 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import javax.swing.text.AttributeSet;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyleContext;
+import java.awt.Color;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class RowStylesTest {
+    private static final AttributeSet RED = createAttributeSet(Color.RED);
+    private static final AttributeSet BLUE = createAttributeSet(Color.BLUE);
+
+    private static AttributeSet createAttributeSet(Color color) {
+        StyleContext styleContext = new StyleContext();
+        return styleContext.addAttribute(SimpleAttributeSet.EMPTY, StyleConstants.Foreground, color);
+    }
+
+    @Test
+    @Order(1)
+    public void testApplyReportsChangedRows() {
+        RowStyles rowStyles = new RowStyles();
+        rowStyles.reset(2);
+
+        // 1. A row which is not yet highlighted is always changed.
+        assertFalse(rowStyles.isHighlighted(1), "Expected row 1 to not yet be highlighted.");
+        assertTrue(rowStyles.apply(1, 4, List.of(new StyleRun(1, 4, 3, RED), new StyleRun(1, 8, 3, RED),
+                new StyleRun(1, 12, 3, BLUE))), "Expected row 1 to be changed.");
+        assertTrue(rowStyles.isHighlighted(1), "Expected row 1 to be highlighted.");
+        assertEquals(Color.RED, rowStyles.getColor(1, 1), "Unexpected color.");
+
+        // 2. Identical style runs leave the row unchanged.
+        assertFalse(rowStyles.apply(1, 4, List.of(new StyleRun(1, 4, 3, RED), new StyleRun(1, 8, 3, RED),
+                new StyleRun(1, 12, 3, BLUE))), "Expected row 1 to be unchanged.");
+        assertTrue(rowStyles.apply(1, 4, List.of(new StyleRun(1, 4, 3, RED), new StyleRun(1, 8, 3, BLUE),
+                new StyleRun(1, 12, 3, BLUE))), "Expected row 1 to be changed.");
+
+        // 3. Style runs are matched by column, so they remain valid after rows are inserted before them.
+        rowStyles.replace(0, 1, 2);
+        assertFalse(rowStyles.isHighlighted(0), "Expected an edited row to not be highlighted.");
+        assertTrue(rowStyles.isHighlighted(2), "Expected a shifted row to remain highlighted.");
+        assertFalse(rowStyles.apply(2, 5, List.of(new StyleRun(2, 5, 3, RED), new StyleRun(2, 9, 3, BLUE),
+                new StyleRun(2, 13, 3, BLUE))), "Expected row 2 to be unchanged.");
+    }
+
+    @Test
+    @Order(2)
+    public void testEditedRowKeepsStyleRuns() {
+        RowStyles rowStyles = new RowStyles();
+        rowStyles.reset(1);
+        rowStyles.apply(0, 0, List.of(new StyleRun(0, 0, 3, RED), new StyleRun(0, 4, 3, BLUE)));
+
+        // 1. Text inserted at the end of a style run extends it, and moves the style runs after it.
+        rowStyles.replace(0, 1, 1);
+        rowStyles.shiftColumns(0, 3, 2);
+        assertFalse(rowStyles.isHighlighted(0), "Expected an edited row to not be highlighted.");
+        assertEquals(2, rowStyles.getRunCount(0), "Expected the edited row to keep its style runs.");
+        assertEquals(5, rowStyles.getLength(0, 0), "Unexpected length of the extended style run.");
+        assertEquals(6, rowStyles.getColumn(0, 1), "Unexpected column of the moved style run.");
+
+        // 2. Removed text is removed from the style runs it overlaps.
+        rowStyles.shiftColumns(0, 4, -3);
+        assertEquals(4, rowStyles.getLength(0, 0), "Unexpected length of the first style run.");
+        assertEquals(4, rowStyles.getColumn(0, 1), "Unexpected column of the second style run.");
+        assertEquals(2, rowStyles.getLength(0, 1), "Unexpected length of the second style run.");
+
+        // 3. Highlighting the row again always repaints it.
+        assertTrue(rowStyles.apply(0, 0, List.of(new StyleRun(0, 0, 4, RED), new StyleRun(0, 4, 2, BLUE))),
+                "Expected a stale row to be changed.");
+        assertTrue(rowStyles.isHighlighted(0), "Expected row 0 to be highlighted.");
+    }
+
+    @Test
+    @Order(3)
+    public void testFindUnhighlighted() {
+        RowStyles rowStyles = new RowStyles();
+        rowStyles.reset(10);
+        for (int row = 2; row < 8; row++) {
+            rowStyles.apply(row, 0, List.of());
+        }
+
+        assertEquals(0, rowStyles.findFirstUnhighlighted(0, 9), "Unexpected first unhighlighted row.");
+        assertEquals(9, rowStyles.findLastUnhighlighted(0, 9), "Unexpected last unhighlighted row.");
+        assertEquals(-1, rowStyles.findFirstUnhighlighted(2, 7), "Expected no unhighlighted rows.");
+
+        rowStyles.clear(5);
+        assertEquals(5, rowStyles.findFirstUnhighlighted(2, 7), "Unexpected first unhighlighted row.");
+        assertEquals(5, rowStyles.findLastUnhighlighted(2, 7), "Unexpected last unhighlighted row.");
+    }
+}
@@ -0,0 +1,57 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+import com.atonementcrystals.dnr.vikari.core.crystal.AtonementCrystal;
+import com.atonementcrystals.dnr.vikari.core.crystal.identifier.TypeReferenceCrystal;
+import com.atonementcrystals.dnr.vikari.core.crystal.number.IntegerCrystal;
+import com.atonementcrystals.dnr.vikari.interpreter.Lexer;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class StyleClassesTest {
+
+    /**
+     * Lex and parse a single statement, and find the crystal with the given identifier.
+     */
+    private static AtonementCrystal lexCrystal(String sourceString, String identifier) {
+        Lexer lexer = HighlightSession.createLexer();
+        VideParser parser = HighlightSession.createParser();
+        List<List<AtonementCrystal>> lexedStatements = lexer.lex(sourceString);
+        parser.parse(null, lexedStatements);
+
+        for (AtonementCrystal crystal : lexedStatements.get(0)) {
+            if (crystal.getIdentifier().equals(identifier)) {
+                return crystal;
+            }
+        }
+        throw new IllegalStateException("No crystal found for identifier: " + identifier);
+    }
+
+    @Test
+    @Order(1)
+    public void testCrystalClasses() {
+        AtonementCrystal integer = lexCrystal("foo << 5", "5");
+        assertEquals(StyleClasses.register(IntegerCrystal.class), StyleClasses.of(integer),
+                "Unexpected style class for an integer.");
+        assertEquals(IntegerCrystal.class, StyleClasses.get(StyleClasses.of(integer)),
+                "Unexpected crystal class for the style class of an integer.");
+    }
+
+    @Test
+    @Order(2)
+    public void testOverloadedClasses() {
+        assertEquals(StyleClasses.VARIABLE, StyleClasses.of(lexCrystal("foo << 5", "foo")),
+                "Unexpected style class for a variable.");
+        assertEquals(StyleClasses.TYPE_KEYWORD, StyleClasses.of(lexCrystal("foo:Type << Integer", "Type")),
+                "Unexpected style class for a type keyword.");
+        assertEquals(StyleClasses.register(TypeReferenceCrystal.class),
+                StyleClasses.of(lexCrystal("foo:Type << Integer", "Integer")),
+                "Unexpected style class for a type reference.");
+    }
+}
@@ -0,0 +1,103 @@
+package com.atonementcrystals.dnr.vikari.ide.parsing;
+
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class TokenStoreTest {
+
+    /**
+     * Set the tokens of a row to tokenCount tokens, each derived from the given seed.
+     */
+    private static void setRow(TokenStore tokenStore, int row, int seed, int tokenCount) {
+        int[] columns = new int[tokenCount];
+        int[] lengths = new int[tokenCount];
+        short[] styles = new short[tokenCount];
+        for (int i = 0; i < tokenCount; i++) {
+            columns[i] = seed + i * 3;
+            lengths[i] = i + 1;
+            styles[i] = (short) (seed % 7);
+        }
+        tokenStore.setRow(row, columns, lengths, styles, tokenCount);
+    }
+
+    private static void assertRow(TokenStore tokenStore, int row, int seed, int tokenCount) {
+        assertEquals(tokenCount, tokenStore.getTokenCount(row), "Unexpected token count for row " + row + ".");
+        for (int i = 0; i < tokenCount; i++) {
+            assertEquals(seed + i * 3, tokenStore.getColumn(row, i), "Unexpected column for row " + row + ".");
+            assertEquals(i + 1, tokenStore.getLength(row, i), "Unexpected length for row " + row + ".");
+            assertEquals(seed % 7, tokenStore.getStyle(row, i), "Unexpected style for row " + row + ".");
+        }
+    }
+
+    @Test
+    @Order(1)
+    public void testSetRow() {
+        TokenStore tokenStore = new TokenStore();
+        tokenStore.reset(3);
+
+        setRow(tokenStore, 1, 10, 4);
+        setRow(tokenStore, 0, 20, 2);
+        assertRow(tokenStore, 0, 20, 2);
+        assertRow(tokenStore, 1, 10, 4);
+        assertRow(tokenStore, 2, 0, 0);
+
+        // Replacing a row with fewer tokens shifts the tokens of the following rows.
+        setRow(tokenStore, 0, 30, 1);
+        assertRow(tokenStore, 0, 30, 1);
+        assertRow(tokenStore, 1, 10, 4);
+    }
+
+    @Test
+    @Order(2)
+    public void testRandomEdits() {
+        Random random = new Random(1);
+        TokenStore tokenStore = new TokenStore();
+        tokenStore.reset(2000);
+
+        // Each row is modeled by its seed and token count.
+        List<int[]> expectedRows = new ArrayList<>();
+        for (int row = 0; row < 2000; row++) {
+            int seed = random.nextInt(100);
+            int tokenCount = random.nextInt(5);
+            setRow(tokenStore, row, seed, tokenCount);
+            expectedRows.add(new int[] { seed, tokenCount });
+        }
+
+        for (int i = 0; i < 500; i++) {
+            int row = random.nextInt(expectedRows.size());
+            if (random.nextBoolean()) {
+                int seed = random.nextInt(100);
+                int tokenCount = random.nextInt(5);
+                setRow(tokenStore, row, seed, tokenCount);
+                expectedRows.set(row, new int[] { seed, tokenCount });
+            } else {
+                int removedCount = Math.min(expectedRows.size() - row,
+                        random.nextInt(random.nextInt(10) == 0 ? 800 : 4));
+                int insertedCount = random.nextInt(random.nextInt(10) == 0 ? 800 : 4);
+                if (expectedRows.size() - removedCount + insertedCount == 0) {
+                    insertedCount = 1;
+                }
+                tokenStore.replace(row, removedCount, insertedCount);
+                expectedRows.subList(row, row + removedCount).clear();
+                for (int j = 0; j < insertedCount; j++) {
+                    expectedRows.add(row, new int[] { 0, 0 });
+                }
+            }
+        }
+
+        assertEquals(expectedRows.size(), tokenStore.getRowCount(), "Unexpected row count.");
+        for (int row = expectedRows.size() - 1; row >= 0; row--) {
+            int[] expectedRow = expectedRows.get(row);
+            assertRow(tokenStore, row, expectedRow[0], expectedRow[1]);
+        }
+    }
+}
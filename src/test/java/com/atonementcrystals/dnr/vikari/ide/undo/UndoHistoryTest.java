@@ -0,0 +1,205 @@
+package com.atonementcrystals.dnr.vikari.ide.undo;
+
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyledDocument;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class UndoHistoryTest {
+
+    private static String getText(StyledDocument document) throws BadLocationException {
+        return document.getText(0, document.getLength());
+    }
+
+    /**
+     * Insert text into the document, and add the edit to the history as the UndoHistoryDocumentListener would.
+     */
+    private static void insert(UndoHistory undoHistory, StyledDocument document, int offset, String text)
+            throws BadLocationException {
+        document.insertString(offset, text, null);
+        UndoHistoryItem item = new UndoHistoryItem(UndoHistoryItemType.INSERT_TEXT, offset, offset + text.length(),
+                text);
+        undoHistory.addHistoryItem(item);
+    }
+
+    private static void remove(UndoHistory undoHistory, StyledDocument document, int offset, int length)
+            throws BadLocationException {
+        String text = document.getText(offset, length);
+        document.remove(offset, length);
+        UndoHistoryItem item = new UndoHistoryItem(UndoHistoryItemType.REMOVE_TEXT, offset, offset + length, text);
+        undoHistory.addHistoryItem(item);
+    }
+
+    /**
+     * Type the text one char at a time, with the given number of milliseconds between each char.
+     */
+    private static long type(UndoHistory undoHistory, StyledDocument document, String text, long timeMillis,
+                             long delayMillis) throws BadLocationException {
+        for (char c : text.toCharArray()) {
+            int offset = document.getLength();
+            document.insertString(offset, String.valueOf(c), null);
+            undoHistory.addHistoryItem(new UndoHistoryItem(UndoHistoryItemType.INSERT_TEXT, offset, offset + 1,
+                    String.valueOf(c)), timeMillis);
+            timeMillis += delayMillis;
+        }
+        return timeMillis;
+    }
+
+    private static void backspace(UndoHistory undoHistory, StyledDocument document, int times, long timeMillis)
+            throws BadLocationException {
+        for (int i = 0; i < times; i++) {
+            int offset = document.getLength() - 1;
+            String text = document.getText(offset, 1);
+            document.remove(offset, 1);
+            undoHistory.addHistoryItem(new UndoHistoryItem(UndoHistoryItemType.REMOVE_TEXT, offset, offset + 1, text),
+                    timeMillis);
+        }
+    }
+
+    @Test
+    @Order(1)
+    public void testUndoRedo() throws Exception {
+        StyledDocument document = new DefaultStyledDocument();
+        UndoHistory undoHistory = new UndoHistory(document);
+        undoHistory.setEnabled(true);
+
+        insert(undoHistory, document, 0, "foo << 5");
+        remove(undoHistory, document, 4, 3);
+        insert(undoHistory, document, 4, "bar");
+        assertEquals("foo bar5", getText(document), "Unexpected text.");
+
+        undoHistory.undo();
+        undoHistory.undo();
+        assertEquals("foo << 5", getText(document), "Unexpected text after undo.");
+        undoHistory.redo();
+        assertEquals("foo 5", getText(document), "Unexpected text after redo.");
+
+        // A new edit discards the redo entries.
+        insert(undoHistory, document, 5, "\n");
+        assertFalse(undoHistory.canRedo(), "Expected no redo entries after a new edit.");
+        assertEquals(3, undoHistory.getItemCount(), "Unexpected item count.");
+
+        while (undoHistory.canUndo()) {
+            undoHistory.undo();
+        }
+        assertEquals("", getText(document), "Expected all edits to be undone.");
+        while (undoHistory.canRedo()) {
+            undoHistory.redo();
+        }
+        assertEquals("foo 5\n", getText(document), "Expected all edits to be redone.");
+    }
+
+    @Test
+    @Order(2)
+    public void testPositions() throws Exception {
+        StyledDocument document = new DefaultStyledDocument();
+        UndoHistory undoHistory = new UndoHistory(document);
+        undoHistory.setEnabled(true);
+
+        insert(undoHistory, document, 0, "a");
+        int savedPosition = undoHistory.getPosition();
+        undoHistory.undo();
+        insert(undoHistory, document, 0, "b");
+        assertNotEquals(savedPosition, undoHistory.getPosition(), "Expected a new edit to have a new position.");
+
+        undoHistory.undo();
+        int emptyPosition = undoHistory.getPosition();
+        undoHistory.redo();
+        undoHistory.undo();
+        assertEquals(emptyPosition, undoHistory.getPosition(), "Expected the same text to have the same position.");
+    }
+
+    @Test
+    @Order(3)
+    public void testMemoryLimit() throws Exception {
+        StyledDocument document = new DefaultStyledDocument();
+        UndoHistory undoHistory = new UndoHistory(document);
+        undoHistory.setEnabled(true);
+        undoHistory.setMemoryLimit(64 * 1024);
+
+        // Enough edits to wrap the item ring and compact the text buffer several times.
+        String line = "foo << 5\n";
+        for (int i = 0; i < 20000; i++) {
+            insert(undoHistory, document, document.getLength(), line);
+        }
+        assertTrue(undoHistory.getMemoryUsage() <= undoHistory.getMemoryLimit(), "Expected the limit to be kept.");
+        int itemCount = undoHistory.getItemCount();
+        assertTrue(itemCount < 20000, "Expected the oldest items to be evicted.");
+
+        int position = undoHistory.getPosition();
+        while (undoHistory.canUndo()) {
+            undoHistory.undo();
+        }
+        assertEquals(line.repeat(20000 - itemCount), getText(document), "Expected only evicted edits to remain.");
+        while (undoHistory.canRedo()) {
+            undoHistory.redo();
+        }
+        assertEquals(line.repeat(20000), getText(document), "Expected all kept edits to be redone.");
+        assertEquals(position, undoHistory.getPosition(), "Expected the position to be restored.");
+
+        // The newest item is kept even if it alone exceeds the limit.
+        remove(undoHistory, document, 0, document.getLength());
+        assertEquals(1, undoHistory.getItemCount(), "Expected only the newest item to be kept.");
+        undoHistory.undo();
+        assertEquals(line.repeat(20000), getText(document), "Expected the large removal to be undone.");
+    }
+
+    @Test
+    @Order(4)
+    public void testCoalescing() throws Exception {
+        StyledDocument document = new DefaultStyledDocument();
+        UndoHistory undoHistory = new UndoHistory(document);
+        undoHistory.setEnabled(true);
+        undoHistory.setCoalescingTimeoutMillis(1000);
+
+        long time = type(undoHistory, document, "foo << 5\nbar", 0, 10);
+        assertEquals(4, undoHistory.getItemCount(), "Expected one item per word.");
+        int savedPosition = undoHistory.getPosition();
+
+        type(undoHistory, document, "baz", time, 10);
+        assertEquals(4, undoHistory.getItemCount(), "Expected the run of typing to continue the last word.");
+        assertNotEquals(savedPosition, undoHistory.getPosition(), "Expected a merged edit to have a new position.");
+        undoHistory.undo();
+        assertEquals("foo << 5\n", getText(document), "Expected the last word to be undone in one step.");
+        undoHistory.redo();
+        assertEquals("foo << 5\nbarbaz", getText(document), "Expected the last word to be redone in one step.");
+
+        backspace(undoHistory, document, 3, time + 10000);
+        assertEquals(5, undoHistory.getItemCount(), "Expected the backspace run to be one item.");
+        undoHistory.undo();
+        assertEquals("foo << 5\nbarbaz", getText(document), "Expected the backspace run to be undone in one step.");
+        undoHistory.redo();
+        assertEquals("foo << 5\nbar", getText(document), "Expected the backspace run to be redone in one step.");
+
+        // A pause closes the group.
+        time = type(undoHistory, document, "q", time + 20000, 10);
+        type(undoHistory, document, "u", time + 5000, 10);
+        assertEquals(7, undoHistory.getItemCount(), "Expected a pause to close the group.");
+
+        // Moving the caret away closes the group.
+        undoHistory.caretMoved(0, 0);
+        type(undoHistory, document, "x", time + 5010, 10);
+        assertEquals(8, undoHistory.getItemCount(), "Expected a caret jump to close the group.");
+    }
+
+    @Test
+    @Order(5)
+    public void testCoalescingDisabled() throws Exception {
+        StyledDocument document = new DefaultStyledDocument();
+        UndoHistory undoHistory = new UndoHistory(document);
+        undoHistory.setEnabled(true);
+        undoHistory.setCoalescingEnabled(false);
+
+        type(undoHistory, document, "foo", 0, 10);
+        assertEquals(3, undoHistory.getItemCount(), "Expected one item per char.");
+        undoHistory.undo();
+        assertEquals("fo", getText(document), "Expected only the last char to be undone.");
+    }
+}
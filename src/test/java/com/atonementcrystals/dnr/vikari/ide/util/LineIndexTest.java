@@ -0,0 +1,102 @@
+package com.atonementcrystals.dnr.vikari.ide.util;
+
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class LineIndexTest {
+
+    @Test
+    @Order(1)
+    public void testEmptyText() {
+        LineIndex lineIndex = new LineIndex();
+
+        assertEquals(1, lineIndex.getRowCount(), "Unexpected row count.");
+        assertEquals(0, lineIndex.getLength(), "Unexpected length.");
+        assertEquals(0, lineIndex.getRowOfOffset(0), "Unexpected row.");
+        assertEquals(0, lineIndex.getRowStartOffset(0), "Unexpected row start offset.");
+        assertEquals(0, lineIndex.getRowEndOffset(0), "Unexpected row end offset.");
+    }
+
+    @Test
+    @Order(2)
+    public void testReset() {
+        String text = "abc\n\nde\n";
+        LineIndex lineIndex = new LineIndex(text);
+
+        assertEquals(4, lineIndex.getRowCount(), "Unexpected row count.");
+        assertEquals(text.length(), lineIndex.getLength(), "Unexpected length.");
+        assertIndexMatches(text, lineIndex);
+    }
+
+    @Test
+    @Order(3)
+    public void testInsertAndRemove() {
+        String text = "abc\ndef";
+        LineIndex lineIndex = new LineIndex(text);
+
+        // 1. Insert text containing newlines into the middle of a row.
+        lineIndex.insert(1, "x\ny\n");
+        text = "ax\ny\nbc\ndef";
+        assertIndexMatches(text, lineIndex);
+
+        // 2. Remove text spanning several rows.
+        lineIndex.remove(2, 5);
+        text = "ax\ndef";
+        assertIndexMatches(text, lineIndex);
+
+        // 3. Remove everything.
+        lineIndex.remove(0, text.length());
+        text = "";
+        assertIndexMatches(text, lineIndex);
+    }
+
+    @Test
+    @Order(4)
+    public void testRandomEdits() {
+        Random random = new Random(1);
+        StringBuilder text = new StringBuilder();
+        LineIndex lineIndex = new LineIndex();
+
+        for (int i = 0; i < 2000; i++) {
+            int offset = random.nextInt(text.length() + 1);
+            if (random.nextBoolean() || text.length() == 0) {
+                String insertedText = random.nextInt(3) == 0 ? "\n" : "a\nbc".substring(random.nextInt(4));
+                text.insert(offset, insertedText);
+                lineIndex.insert(offset, insertedText);
+            } else {
+                int length = random.nextInt(Math.min(8, text.length() - offset) + 1);
+                text.delete(offset, offset + length);
+                lineIndex.remove(offset, length);
+            }
+        }
+        assertIndexMatches(text.toString(), lineIndex);
+    }
+
+    private static void assertIndexMatches(String text, LineIndex lineIndex) {
+        assertEquals(text.length(), lineIndex.getLength(), "Unexpected length.");
+
+        int row = 0;
+        int rowStart = 0;
+        int maxRowLength = 0;
+        for (int offset = 0; offset <= text.length(); offset++) {
+            assertEquals(row, lineIndex.getRowOfOffset(offset), "Unexpected row for offset " + offset + ".");
+            if (offset == text.length() || text.charAt(offset) == '\n') {
+                assertEquals(rowStart, lineIndex.getRowStartOffset(row),
+                        "Unexpected start offset for row " + row + ".");
+                assertEquals(offset, lineIndex.getRowEndOffset(row), "Unexpected end offset for row " + row + ".");
+                maxRowLength = Math.max(maxRowLength, lineIndex.getRowLength(row));
+                row++;
+                rowStart = offset + 1;
+            }
+        }
+        assertEquals(row, lineIndex.getRowCount(), "Unexpected row count.");
+        assertEquals(maxRowLength, lineIndex.getMaxRowLength(), "Unexpected max row length.");
+    }
+}